@@ -0,0 +1,293 @@
+package com.winterwell.es.client;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.winterwell.utils.Utils;
+import com.winterwell.utils.log.Log;
+import com.winterwell.utils.time.Dt;
+import com.winterwell.utils.time.TUnit;
+
+/**
+ * Collect index / update / delete requests into {@link BulkRequest}s, and send them when a batch is big enough
+ * or old enough.
+ *
+ * Back-pressure: at most {@link #setMaxInFlight(int)} bulk requests are sent at once. When that limit is reached,
+ * {@link #add(ESHttpRequest)} blocks until one finishes.
+ *
+ * Usage: set the limits, then add(), add(), add()... then close(). This object is thread safe.
+ *
+ * @see ESHttpClient#prepareBulkProcessor()
+ * @testedby BulkProcessorTest
+ * @author daniel
+ *
+ */
+public class BulkProcessor implements Flushable, Closeable {
+
+	private static final String LOGTAG = "ES.bulk";
+
+	private final ESHttpClient esjc;
+
+	private int maxActions = 1000;
+
+	private long maxBytes = 5*1024*1024;
+
+	private Dt maxAge = new Dt(5, TUnit.SECOND);
+
+	private int maxInFlight = 2;
+
+	private Semaphore inFlight = new Semaphore(maxInFlight);
+
+	private int retries = 3;
+
+	/**
+	 * Called for every bulk response (from a client thread). By default logs any errors.
+	 */
+	private BiConsumer<BulkRequest, BulkResponse> onResponse = BulkProcessor::logErrors;
+
+	/**
+	 * The batch being filled. Guarded by this.
+	 */
+	private BulkRequest current;
+
+	private long currentBytes;
+
+	private long currentStart;
+
+	private ScheduledExecutorService timer;
+
+	private ScheduledFuture<?> ageCheck;
+
+	private volatile boolean closed;
+
+	public BulkProcessor(ESHttpClient esjc) {
+		this.esjc = esjc;
+	}
+
+	/**
+	 * @param maxActions Send when a batch has this many actions. Default 1000.
+	 */
+	public BulkProcessor setMaxActions(int maxActions) {
+		assert maxActions > 0;
+		this.maxActions = maxActions;
+		return this;
+	}
+
+	/**
+	 * @param maxBytes Send when a batch is (roughly) this big. Default 5mb.
+	 */
+	public BulkProcessor setMaxBytes(long maxBytes) {
+		assert maxBytes > 0;
+		this.maxBytes = maxBytes;
+		return this;
+	}
+
+	/**
+	 * @param maxAge Send when the oldest action in a batch has waited this long. Default 5 seconds.
+	 * Must be set before the first add().
+	 */
+	public BulkProcessor setMaxAge(Dt maxAge) {
+		assert timer==null : "too late - already started";
+		this.maxAge = maxAge;
+		return this;
+	}
+
+	/**
+	 * @param maxInFlight How many bulk requests can be sent at once. Default 2.
+	 * Must be set before the first add().
+	 */
+	public BulkProcessor setMaxInFlight(int maxInFlight) {
+		assert timer==null : "too late - already started";
+		assert maxInFlight > 0;
+		this.maxInFlight = maxInFlight;
+		inFlight = new Semaphore(maxInFlight);
+		return this;
+	}
+
+	/**
+	 * @param retries How many times to re-send items which ES rejected as too busy. Default 3.
+	 * See {@link BulkRequest#setRetries(int)}
+	 */
+	public BulkProcessor setRetries(int retries) {
+		assert retries >= 0;
+		this.retries = retries;
+		return this;
+	}
+
+	/**
+	 * @param onResponse Called with every batch and its response. Replaces the default, which logs errors.
+	 */
+	public BulkProcessor setOnResponse(BiConsumer<BulkRequest, BulkResponse> onResponse) {
+		this.onResponse = onResponse;
+		return this;
+	}
+
+	/**
+	 * Add an action. This may send a batch -- and if too many batches are in flight, it blocks.
+	 * @param request An {@link IndexRequest}, {@link UpdateRequest} or {@link DeleteRequest} with its index and id set.
+	 * Do not modify it afterwards.
+	 * @return this
+	 */
+	public BulkProcessor add(ESHttpRequest request) {
+		if (closed) throw new IllegalStateException("closed: "+this);
+		if (request.bulkOpName==null) {
+			throw new IllegalArgumentException("Not a bulk action: "+request);
+		}
+		// NB: not cached on the request -- a queued or in-flight batch would then hold all its json
+		String json = request.getBodyJsonUncached();
+		// action line + source line
+		long bytes = 100 + (json==null? 0 : json.length());
+		BulkRequest full = null;
+		synchronized (this) {
+			if (timer==null) start();
+			if (current==null) {
+				current = newBulk();
+				currentBytes = 0;
+				currentStart = System.currentTimeMillis();
+			}
+			current.add(request);
+			currentBytes += bytes;
+			if (current.getActions().size() >= maxActions || currentBytes >= maxBytes) {
+				full = current;
+				current = null;
+			}
+			// send inside the lock, so that a blocked send blocks all the producers
+			if (full!=null) send(full);
+		}
+		return this;
+	}
+
+	BulkRequest newBulk() {
+		BulkRequest bulk = esjc.prepareBulk();
+		bulk.setStreaming(true);
+		bulk.setRetries(retries);
+		return bulk;
+	}
+
+	private void start() {
+		timer = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ES BulkProcessor %d").build());
+		long ms = maxAge.getMillisecs();
+		ageCheck = timer.scheduleWithFixedDelay(this::flushIfOld, ms, Math.max(1, ms/2), TimeUnit.MILLISECONDS);
+	}
+
+	private void flushIfOld() {
+		try {
+			synchronized (this) {
+				if (current==null) return;
+				if (System.currentTimeMillis() - currentStart < maxAge.getMillisecs()) return;
+				BulkRequest old = current;
+				current = null;
+				send(old);
+			}
+		} catch(Throwable ex) {
+			// don't kill the timer
+			Log.e(LOGTAG, ex);
+		}
+	}
+
+	/**
+	 * Blocks until there is room to send.
+	 */
+	private void send(BulkRequest bulk) {
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw Utils.runtime(e);
+		}
+		ListenableFuture<ESHttpResponse> f;
+		try {
+			f = bulk.execute();
+		} catch(Throwable ex) {
+			inFlight.release();
+			throw Utils.runtime(ex);
+		}
+		Futures.addCallback(f, new FutureCallback<ESHttpResponse>() {
+			@Override
+			public void onSuccess(ESHttpResponse result) {
+				// report before releasing, so a flush() will also wait for the reports
+				try {
+					report(bulk, result);
+				} finally {
+					inFlight.release();
+				}
+			}
+			@Override
+			public void onFailure(Throwable t) {
+				try {
+					report(bulk, new ESHttpResponse(bulk, Utils.runtime(t)));
+				} finally {
+					inFlight.release();
+				}
+			}
+		}, MoreExecutors.directExecutor());
+	}
+
+	private void report(BulkRequest bulk, BulkResponse response) {
+		try {
+			onResponse.accept(bulk, response);
+		} catch(Throwable ex) {
+			Log.e(LOGTAG, ex);
+		}
+	}
+
+	static void logErrors(BulkRequest bulk, BulkResponse response) {
+		if ( ! response.hasErrors()) return;
+		Log.e(LOGTAG, bulk.getActions().size()+" actions: "+response.getError());
+	}
+
+	/**
+	 * Send the current batch, and wait for all the batches in flight to finish.
+	 */
+	@Override
+	public void flush() {
+		synchronized (this) {
+			if (current != null) {
+				BulkRequest b = current;
+				current = null;
+				send(b);
+			}
+		}
+		// wait for everything to come back
+		try {
+			inFlight.acquire(maxInFlight);
+			inFlight.release(maxInFlight);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw Utils.runtime(e);
+		}
+	}
+
+	/**
+	 * Flush, then stop. Further add()s will throw an exception.
+	 */
+	@Override
+	public void close() {
+		if (closed) return;
+		flush();
+		closed = true;
+		synchronized (this) {
+			if (ageCheck!=null) ageCheck.cancel(false);
+			if (timer!=null) timer.shutdown();
+		}
+		// a late add() could have slipped in whilst we flushed
+		flush();
+	}
+
+	@Override
+	public String toString() {
+		return "BulkProcessor[maxActions="+maxActions+" maxBytes="+maxBytes+" maxAge="+maxAge+" inFlight="+(maxInFlight - inFlight.availablePermits())+"]";
+	}
+}
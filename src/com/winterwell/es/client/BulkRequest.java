@@ -1,17 +1,28 @@
 package com.winterwell.es.client;
 
 
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
+import com.winterwell.es.fail.ESBulkItemException;
 import com.winterwell.utils.TodoException;
+import com.winterwell.utils.Utils;
 import com.winterwell.utils.containers.ArrayMap;
+import com.winterwell.utils.containers.Containers;
+import com.winterwell.utils.log.Log;
 
 /**
  * Make a bulk update / insert request from several other requests - see {@link #add(ESHttpRequest)}.
  * 
- * TODO add a streaming mode to this
+ * For big batches, use {@link #setStreaming(boolean)} so the body is written out action-by-action
+ * rather than built in memory.
  * 
  * @author Daniel
  * @testedby  BulkRequestBuilderTest}
@@ -25,17 +36,30 @@ public class BulkRequest extends ESHttpRequest<BulkRequest,BulkResponse> {
 		return actions.isEmpty();
 	}
 	
+	private boolean streaming;
+	
 	/**
-	 * @deprecated TODO for large amounts of data, better to stream it out rather than build a big in-memory blob
-	 * @return
+	 * For large amounts of data, it is better to stream it out rather than build a big in-memory blob.
+	 * If true, each action is converted to json as the http layer sends it, so the _bulk body is never
+	 * held in memory in one piece (the actions themselves are still kept, to match up the results).
+	 * @param streaming false by default
+	 * @return this
 	 */
-	public BulkRequest openStream() {
-		String sofar = getBodyJson();
-		// chop off the end
-		// open a url stream		
+	public BulkRequest setStreaming(boolean streaming) {
+		this.streaming = streaming;
 		return this;
 	}
 	
+	/**
+	 * @deprecated Use {@link #setStreaming(boolean)}
+	 */
+	public BulkRequest openStream() {
+		return setStreaming(true);
+	}
+	
+	/**
+	 * @deprecated Use {@link #setStreaming(boolean)}. This does nothing.
+	 */
 	public BulkRequest closeStream() {
 		return this;
 	}
@@ -52,6 +76,103 @@ public class BulkRequest extends ESHttpRequest<BulkRequest,BulkResponse> {
 
 	List<ESHttpRequest> actions = new ArrayList();
 	
+	/**
+	 * Base pause before re-sending rejected items. Doubles with each retry.
+	 */
+	static final long RETRY_BACKOFF_MSECS = 100;
+	
+	static final long RETRY_BACKOFF_MAX_MSECS = 10000;
+	
+	/**
+	 * Retries ({@link #setRetries(int)}): this re-sends just the items which failed in a retryable way 
+	 * (e.g. es_rejected_execution_exception when ES is busy), with exponential backoff + jitter.
+	 * Items which failed for other reasons (e.g. a mapping error) are not re-sent.
+	 */
+	@Override
+	protected ESHttpResponse doExecute(ESHttpClient esjc) {
+		ESHttpResponse response = super.doExecute(esjc);
+		if (retries < 1 || ! response.isSuccess()) {
+			return response;
+		}
+		List<ESBulkItemException> todo = retryable(response.getItemErrors());
+		if (todo.isEmpty()) {
+			return response;
+		}
+		// We'll patch the retry results into a copy of the first response
+		// (NB: getJsonMap() is read-only)
+		Map<String, Object> jobj = ESHttpResponse.plainGson().fromJson(response.getJson(), Map.class);
+		List<Map> items = (List) jobj.get("items");
+		// retry item -> original item
+		int[] originalIndex = new int[todo.size()];
+		for(int i=0; i<originalIndex.length; i++) {
+			originalIndex[i] = todo.get(i).getItemIndex();
+		}
+		for(int t=0; t<retries && ! todo.isEmpty(); t++) {
+			Utils.sleep(backoff(t));
+			BulkRequest retry = new BulkRequest(hClient).setInternal(getHeaders());
+			retry.params.putAll(params); // e.g. refresh
+			retry.streaming = streaming;
+			retry.debug = debug;
+			for(ESBulkItemException ex : todo) {
+				retry.add(ex.request);
+			}
+			// NB: retry.retries=0 so this doesn't recurse
+			ESHttpResponse retryResponse = retry.doExecute(esjc);
+			if ( ! retryResponse.isSuccess()) {
+				// the whole call failed -- report the items as they were
+				Log.w("ES.bulk", "retry "+t+" failed: "+retryResponse.getError());
+				break;
+			}
+			List<Map> retryItems = (List) retryResponse.getJsonMap().get("items");
+			for(int i=0; i<retryItems.size(); i++) {
+				items.set(originalIndex[i], retryItems.get(i));
+			}
+			todo = retryable(retryResponse.getItemErrors());
+			int[] nextIndex = new int[todo.size()];
+			for(int i=0; i<nextIndex.length; i++) {
+				nextIndex[i] = originalIndex[todo.get(i).getItemIndex()];
+			}
+			originalIndex = nextIndex;
+		}
+		boolean errors = false;
+		for (Map item : items) {
+			Map values = (Map) Containers.first(item.values());
+			if (values.get("error") != null) {
+				errors = true;
+				break;
+			}
+		}
+		jobj.put("errors", errors);
+		String json = ESHttpResponse.plainGson().toJson(jobj);
+		return new ESHttpResponse(this, json);
+	}
+	
+	/**
+	 * Item retries sleep between calls, so they run in a client thread.
+	 */
+	@Override
+	protected CompletableFuture<ESHttpResponse> doExecuteAsync(ESHttpClient esjc) {
+		if (retries > 0) {
+			return doExecuteInThread(esjc);
+		}
+		return super.doExecuteAsync(esjc);
+	}
+	
+	private static List<ESBulkItemException> retryable(List<ESBulkItemException> itemErrors) {
+		return itemErrors.stream().filter(ESBulkItemException::isRetryable).collect(Collectors.toList());
+	}
+	
+	/**
+	 * Exponential backoff with "equal jitter", so that clients which were rejected together 
+	 * don't all come back together.
+	 * @param t 0 for the first retry
+	 * @return msecs
+	 */
+	static long backoff(int t) {
+		long b = Math.min(RETRY_BACKOFF_MAX_MSECS, RETRY_BACKOFF_MSECS << Math.min(t, 20));
+		return b/2 + ThreadLocalRandom.current().nextLong(b/2 + 1);
+	}
+	
 	public BulkRequest add(ESHttpRequest request) {
 		actions.add(request);		
 		if (request.indices==null) {
@@ -64,19 +185,87 @@ public class BulkRequest extends ESHttpRequest<BulkRequest,BulkResponse> {
 	public String getBodyJson() {
 		StringBuilder srcJson = new StringBuilder();
 		for(ESHttpRequest req : actions) {
-			String op = req.bulkOpName;
-			if (op==null) throw new TodoException(req);
-			ArrayMap opMap = new ArrayMap(
-					"_index", req.indices.get(0), "_type", req.type, "_id", req.id
-			);
-			if ( ! req.params.isEmpty()) {
-				opMap.putAll(req.params);
-			}
-			Map actionObj = new ArrayMap(op, opMap);
-			srcJson.append(gson().toJson(actionObj).trim()+"\n");
-			srcJson.append(req.getBodyJson().trim()+"\n");
+			appendAction(req, srcJson);
 		}
 		return srcJson.toString();
 	}
 	
+	@Override
+	protected Supplier<InputStream> getBodyStream() {
+		if ( ! streaming) return null;
+		return BulkBodyStream::new;
+	}
+
+	/**
+	 * Add the action line, and (except for delete) the source line.
+	 * @param req
+	 * @param srcJson
+	 */
+	void appendAction(ESHttpRequest req, StringBuilder srcJson) {
+		String op = req.bulkOpName;
+		if (op==null) throw new TodoException(req);
+		ArrayMap opMap = new ArrayMap(
+				"_index", req.indices.get(0), "_type", req.type, "_id", req.id
+		);
+		if ( ! req.params.isEmpty()) {
+			opMap.putAll(req.params);
+		}
+		Map actionObj = new ArrayMap(op, opMap);
+		srcJson.append(gson().toJson(actionObj).trim()+"\n");
+		// NB: don't cache the json on the action -- or a streamed body would still hold the whole batch
+		String reqJson = req.getBodyJsonUncached();
+		if (reqJson != null) {
+			srcJson.append(reqJson.trim()+"\n");
+		}
+	}
+	
+	/**
+	 * The _bulk body as a lazy stream: one action at a time is converted to bytes, as the reader asks for more.
+	 */
+	final class BulkBodyStream extends InputStream {
+		/**
+		 * index into actions
+		 */
+		private int next;
+		private byte[] buf = new byte[0];
+		private int pos;
+		private final StringBuilder sb = new StringBuilder();
+		
+		/**
+		 * @return false when all the actions have been read
+		 */
+		private boolean fill() {
+			while(pos >= buf.length) {
+				if (next >= actions.size()) return false;
+				sb.setLength(0);
+				appendAction(actions.get(next), sb);
+				next++;
+				buf = sb.toString().getBytes(StandardCharsets.UTF_8);
+				pos = 0;
+			}
+			return true;
+		}
+		
+		@Override
+		public int read() {
+			if ( ! fill()) return -1;
+			return buf[pos++] & 0xFF;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len==0) return 0;
+			if ( ! fill()) return -1;
+			int n = Math.min(len, buf.length - pos);
+			System.arraycopy(buf, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+		
+		@Override
+		public int available() {
+			return buf.length - pos;
+		}
+	}
+	
 }
@@ -1,7 +1,16 @@
 package com.winterwell.es.client;
 
+import java.util.List;
+
+import com.winterwell.es.fail.ESBulkItemException;
+
 public interface BulkResponse extends IESResponse {
 
 	boolean hasErrors();
 
+	/**
+	 * @return the failed items (empty if all went well). Never null. 
+	 */
+	List<ESBulkItemException> getItemErrors();
+
 }
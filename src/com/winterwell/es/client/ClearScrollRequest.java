@@ -10,6 +10,7 @@ public class ClearScrollRequest extends ESHttpRequest<ClearScrollRequest, IESRes
 	public ClearScrollRequest(ESHttpClient esHttpClient) {
 		super(esHttpClient, "_search/scroll");
 		method = "DELETE";
+		setIndices(); // no index - it comes from the scroll id
 	}
 
 	public ClearScrollRequest setScrollIds(List<String> asList) {
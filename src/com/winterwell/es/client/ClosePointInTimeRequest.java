@@ -0,0 +1,22 @@
+package com.winterwell.es.client;
+
+import com.winterwell.utils.containers.ArrayMap;
+
+/**
+ * Release a point-in-time. ES will also drop it when its keep-alive runs out -- but an open one holds on to 
+ * resources (e.g. old segments), so close when done.
+ * 
+ * @see OpenPointInTimeRequest
+ * @author daniel
+ *
+ */
+public class ClosePointInTimeRequest extends ESHttpRequest<ClosePointInTimeRequest, IESResponse> {
+
+	public ClosePointInTimeRequest(ESHttpClient esHttpClient, String pitId) {
+		super(esHttpClient, "_pit");
+		method = "DELETE";
+		setIndices(); // no index - it comes from the pit id
+		setBodyMap(new ArrayMap("id", pitId));
+	}
+
+}
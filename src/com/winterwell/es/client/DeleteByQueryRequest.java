@@ -1,8 +1,18 @@
 package com.winterwell.es.client;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.winterwell.es.client.query.ESQueryBuilder;
 
 /**
- * @see org.DeleteByQueryRequest.action.deletebyquery.DeleteByQueryRequestBuilder
+ * Delete all the documents which match a query.
+ * 
+ * https://www.elastic.co/guide/en/elasticsearch/reference/current/docs-delete-by-query.html
+ * 
+ * For big jobs, use {@link #startTask()} rather than get(), so it runs in the background inside ES.
+ * 
+ * @testedby DeleteByQueryRequestTest
  * @author daniel
  *
  */
@@ -10,14 +20,21 @@ public class DeleteByQueryRequest extends ESHttpRequest<DeleteByQueryRequest,IES
 
 
 	public DeleteByQueryRequest(ESHttpClient hClient, String index) {
-		super(hClient, "_query");
-		method = "DELETE";
+		super(hClient, "_delete_by_query");
+		method = "POST";
 		setIndex(index);
 	}
 	
+	@Override
+	protected void get2_safetyCheck() {
+		// don't default to _all!
+		if (indices==null || indices.size()==0) throw new IllegalStateException("No index specified for delete: "+this);	
+	}
+	
     /**
      * The document types to execute the search against. Defaults to be executed against
      * all types.
+     * @deprecated Types have gone in ESv7
      */
 	public DeleteByQueryRequest setTypes(String... types) {
 		assert types.length==1 : "TODO";
@@ -25,9 +42,67 @@ public class DeleteByQueryRequest extends ESHttpRequest<DeleteByQueryRequest,IES
 		return this;
 	}
 
+	/**
+	 * @deprecated Not supported by _delete_by_query. Use {@link #setMaxDocs(int)}
+	 */
 	public DeleteByQueryRequest setFrom(int i) {
 		params.put("from", i);
 		return this;
 	}
+
+	/**
+	 * @param qb Cannot be modified afterwards.
+	 */
+	public DeleteByQueryRequest setQuery(ESQueryBuilder qb) {
+		return setQuery(qb.toJson2());
+	}
+
+	public DeleteByQueryRequest setQuery(Map queryJson) {
+		body().put("query", queryJson);
+		return this;
+	}
+
+	/**
+	 * @param n Delete at most this many
+	 */
+	public DeleteByQueryRequest setMaxDocs(int n) {
+		params.put("max_docs", n);
+		return this;
+	}
+
+	/**
+	 * @param slices "auto" (one per shard), or a number. Slices run in parallel inside ES.
+	 */
+	public DeleteByQueryRequest setSlices(Object slices) {
+		params.put("slices", slices);
+		return this;
+	}
+
+	/**
+	 * @param proceed If true, count version conflicts (e.g. a doc edited mid-way) rather than aborting on the first.
+	 */
+	public DeleteByQueryRequest setConflictsProceed(boolean proceed) {
+		if (proceed) params.put("conflicts", "proceed");
+		else params.remove("conflicts");
+		return this;
+	}
+
+	/**
+	 * @param requestsPerSecond Speed limit (docs per second, roughly). -1 for unlimited (the default).
+	 * @see ESTask#rethrottle(float) to change it whilst running
+	 */
+	public DeleteByQueryRequest setRequestsPerSecond(float requestsPerSecond) {
+		params.put("requests_per_second", requestsPerSecond < 0? "-1" : Float.toString(requestsPerSecond));
+		return this;
+	}
+
+	/**
+	 * Run in the background inside ES (wait_for_completion=false).
+	 * @return the task, once ES has accepted it. Use {@link ESTask#whenDone(com.winterwell.utils.time.Dt)} to wait,
+	 * or {@link ESTask#cancel()} to stop.
+	 */
+	public CompletableFuture<ESTask> startTask() {
+		return ESTask.start(this, "_delete_by_query");
+	}
 	
 }
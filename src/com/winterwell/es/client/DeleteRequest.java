@@ -1,5 +1,7 @@
 package com.winterwell.es.client;
 
+import java.util.concurrent.CompletableFuture;
+
 import com.winterwell.web.WebEx;
 
 /**
@@ -14,12 +16,22 @@ public class DeleteRequest extends ESHttpRequest<DeleteRequest, IESResponse> {
 	public DeleteRequest(ESHttpClient hClient) {
 		super(hClient, null);
 		method = "DELETE";
+		bulkOpName = "delete";
 		setType("_doc"); // the new ESv7 omni-type
 	}
 	
 	@Override
 	protected ESHttpResponse doExecute(ESHttpClient esjc) {
 		ESHttpResponse res = super.doExecute(esjc);
+		return doExecute2_ignore404(res);
+	}
+	
+	@Override
+	protected CompletableFuture<ESHttpResponse> doExecuteAsync(ESHttpClient esjc) {
+		return super.doExecuteAsync(esjc).thenApply(this::doExecute2_ignore404);
+	}
+
+	private ESHttpResponse doExecute2_ignore404(ESHttpResponse res) {
 		if (ignoreE404 && res.getError() instanceof WebEx.E404) {
 			// We tried to delete seomthing that didn't exist -- which is OK
 			ESHttpResponse res2 = new ESHttpResponse(this, null, null);
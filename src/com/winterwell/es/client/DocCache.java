@@ -0,0 +1,352 @@
+package com.winterwell.es.client;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.winterwell.es.ESPath;
+import com.winterwell.es.client.admin.CreateIndexRequest;
+import com.winterwell.es.client.admin.DeleteIndexRequest;
+import com.winterwell.es.client.admin.IndicesAliasesRequest;
+import com.winterwell.es.fail.ESDocNotFoundException;
+import com.winterwell.utils.containers.ArrayMap;
+
+/**
+ * An in-process cache in front of {@link GetRequest}, for docs which are read far more often than written
+ * (e.g. config). Keyed by index + id. Not-found is cached too (for a shorter time).
+ *
+ * Writes made through the same client (index, update, delete, bulk, by-query, reindex) invalidate entries.
+ * Writes from elsewhere are only seen when an entry expires -- or sooner, if revalidation is on: then an entry
+ * older than {@link ESConfig#esDocCacheRevalidateAfter} is checked with a cheap source-less get,
+ * and kept if its _seq_no and _primary_term are unchanged.
+ *
+ * Only plain gets are cached: one index, an id, and no url-parameters (e.g. no _source filtering).
+ * NB: keys are by index name as given -- a write via an alias does not invalidate a read via the index name.
+ *
+ * Switch on with {@link ESConfig#esDocCacheSize} or {@link ESConfig#esDocCacheMaxBytes}.
+ * This works with {@link ESConfig#esGetBatchWindow}: a batched get is answered from the cache if it can be, 
+ * and the _mget results fill the cache.
+ *
+ * @testedby DocCacheTest
+ * @author daniel
+ *
+ */
+public class DocCache {
+
+	private final ESHttpClient esjc;
+	private final Cache<ESPath, Entry> cache;
+	private final long negativeTtl;
+	private final long revalidateAfter;
+
+	/**
+	 * Bumped by every invalidation. A get which set off before a write must not be cached after it.
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong negativeHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong revalidations = new AtomicLong();
+	private final AtomicLong revalidatedUnchanged = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	static final class Entry {
+		/**
+		 * The full get response json. null for not-found
+		 */
+		final String json;
+		final String sourceJson;
+		final long seqNo;
+		final long primaryTerm;
+		volatile long fetched;
+
+		Entry(String json, String sourceJson, long seqNo, long primaryTerm) {
+			this.json = json;
+			this.sourceJson = sourceJson;
+			this.seqNo = seqNo;
+			this.primaryTerm = primaryTerm;
+			this.fetched = System.currentTimeMillis();
+		}
+
+		boolean isNotFound() {
+			return json == null;
+		}
+
+		int weight() {
+			return 64 + (json==null? 0 : json.length() + sourceJson.length());
+		}
+	}
+
+	public DocCache(ESHttpClient esjc, ESConfig config) {
+		this.esjc = esjc;
+		CacheBuilder<Object, Object> cb = CacheBuilder.newBuilder()
+				.expireAfterWrite(config.esDocCacheTtl, TimeUnit.MILLISECONDS)
+				.recordStats();
+		if (config.esDocCacheMaxBytes > 0) {
+			// approximate: 1 char ~ 1 byte for json
+			cb.maximumWeight(config.esDocCacheMaxBytes).weigher((ESPath k, Entry e) -> e.weight());
+		} else {
+			cb.maximumSize(config.esDocCacheSize);
+		}
+		cache = cb.build();
+		negativeTtl = config.esDocCacheNegativeTtl;
+		revalidateAfter = config.esDocCacheRevalidateAfter;
+	}
+
+	boolean canCache(GetRequest req) {
+		return req.useDocCache && req.id != null && req.params.isEmpty()
+				&& req.indices != null && req.indices.size() == 1 && req.indices.get(0) != null;
+	}
+
+	private static ESPath key(ESHttpRequest req) {
+		return new ESPath((String) req.indices.get(0), req.id);
+	}
+
+	/**
+	 * @return a fresh-enough entry, or null
+	 */
+	private Entry lookup(ESPath key, GetRequest req, boolean revalidate) {
+		Entry e = cache.getIfPresent(key);
+		if (e == null) return null;
+		long age = System.currentTimeMillis() - e.fetched;
+		if (e.isNotFound()) {
+			if (age > negativeTtl) return null;
+			negativeHits.incrementAndGet();
+			return e;
+		}
+		if (revalidateAfter > 0 && age > revalidateAfter) {
+			if ( ! revalidate) return null;
+			return revalidate(key, req, e);
+		}
+		hits.incrementAndGet();
+		return e;
+	}
+
+	/**
+	 * Has it changed? Ask for just the version info (no _source).
+	 * @return e (refreshed), or null if it changed
+	 */
+	private Entry revalidate(ESPath key, GetRequest req, Entry e) {
+		revalidations.incrementAndGet();
+		GetRequest v = newGet(key, req);
+		v.params.put("_source", false);
+		GetResponse r = v.get();
+		if ( ! r.isSuccess()) return null;
+		Map<String, Object> jobj = ((ESHttpResponse) r).getJsonMap();
+		if (ESTask.num(jobj.get("_seq_no")) != e.seqNo || ESTask.num(jobj.get("_primary_term")) != e.primaryTerm) {
+			return null;
+		}
+		revalidatedUnchanged.incrementAndGet();
+		e.fetched = System.currentTimeMillis();
+		return e;
+	}
+
+	/**
+	 * @param req The caller's request -- for its headers
+	 */
+	private GetRequest newGet(ESPath key, GetRequest req) {
+		GetRequest g = new GetRequest(esjc).setInternal(req.getHeaders());
+		g.setIndex(key.index()).setId(key.id);
+		g.useDocCache = false;
+		return g;
+	}
+
+	ESHttpResponse get(GetRequest req) {
+		ESPath key = key(req);
+		Entry e = lookup(key, req, true);
+		if (e != null) return response(req, e);
+		misses.incrementAndGet();
+		long gen = generation.get();
+		GetRequest f = newGet(key, req);
+		f.debug = req.debug;
+		ESHttpResponse r = (ESHttpResponse) f.get();
+		e = toEntry(key, r, gen);
+		if (e == null) {
+			return new ESHttpResponse(req, r.getError());
+		}
+		return response(req, e);
+	}
+
+	/**
+	 * No revalidation here: a stale entry is re-fetched in full.
+	 */
+	CompletableFuture<ESHttpResponse> getAsync(GetRequest req) {
+		ESPath key = key(req);
+		Entry e = lookup(key, req, false);
+		if (e != null) return CompletableFuture.completedFuture(response(req, e));
+		misses.incrementAndGet();
+		long gen = generation.get();
+		GetRequest f = newGet(key, req);
+		f.debug = req.debug;
+		return f.executeAsync().thenApply(gr -> {
+			ESHttpResponse r = (ESHttpResponse) gr;
+			Entry e2 = toEntry(key, r, gen);
+			if (e2 == null) {
+				return new ESHttpResponse(req, r.getError());
+			}
+			return response(req, e2);
+		});
+	}
+
+	/**
+	 * Store the result of a full get -- unless there's been a write since it set off.
+	 * @param gen The generation when the get set off
+	 * @return null if it failed (which is not cached)
+	 */
+	private Entry toEntry(ESPath key, ESHttpResponse r, long gen) {
+		Entry e;
+		if (r.isSuccess()) {
+			e = toEntry(r.getJson(), r.getJsonMap());
+		} else if (r.getError() instanceof ESDocNotFoundException) {
+			e = new Entry(null, null, -1, -1);
+		} else {
+			return null;
+		}
+		put(key, e, gen);
+		return e;
+	}
+
+	private static Entry toEntry(String json, Map<String, Object> jobj) {
+		String sourceJson = ESHttpResponse.plainGson().toJson(jobj.get("_source"));
+		return new Entry(json, sourceJson, ESTask.num(jobj.get("_seq_no")), ESTask.num(jobj.get("_primary_term")));
+	}
+
+	private void put(ESPath key, Entry e, long gen) {
+		// only keep it if there's been no write since the get set off
+		if (generation.get() == gen) {
+			cache.put(key, e);
+		}
+	}
+
+	/**
+	 * For {@link MultiGetLoader}: a fresh-enough entry, without any request (so no revalidation).
+	 * @return null on a miss
+	 */
+	Entry peek(ESPath key) {
+		Entry e = lookup(key, null, false);
+		if (e == null) misses.incrementAndGet();
+		return e;
+	}
+
+	/**
+	 * @return Pass this back to {@link #putMgetDoc(ESPath, Map, long)}
+	 */
+	long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Store a doc from an _mget (which has the same shape as a get response).
+	 * @param gen From {@link #getGeneration()} when the _mget set off
+	 */
+	void putMgetDoc(ESPath key, Map<String, Object> doc, long gen) {
+		if (doc.get("error") != null) return;
+		Entry e = Boolean.TRUE.equals(doc.get("found"))? 
+				toEntry(ESHttpResponse.plainGson().toJson(doc), doc) : new Entry(null, null, -1, -1);
+		put(key, e, gen);
+	}
+
+	private ESHttpResponse response(GetRequest req, Entry e) {
+		if (e.isNotFound()) {
+			return new ESHttpResponse(req, new ESDocNotFoundException(key(req)));
+		}
+		return new ESHttpResponse(req, req.sourceOnly? e.sourceJson : e.json);
+	}
+
+	/**
+	 * Drop the entries a write could affect.
+	 */
+	void onWrite(ESHttpRequest req) {
+		if (req instanceof GetRequest || req instanceof SearchRequest) {
+			return;
+		}
+		if (req instanceof BulkRequest) {
+			for (ESHttpRequest action : (List<ESHttpRequest>) ((BulkRequest) req).actions) {
+				onWrite(action);
+			}
+			return;
+		}
+		if (req instanceof ReindexRequest) {
+			invalidateIndex(((ReindexRequest) req).getDestIndex());
+			return;
+		}
+		if (isIndexAdmin(req)) {
+			invalidateAll();
+			return;
+		}
+		if (req instanceof UpdateByQueryRequest || req instanceof DeleteByQueryRequest) {
+			if (req.indices != null) {
+				for (Object idx : req.indices) invalidateIndex((String) idx);
+			}
+			return;
+		}
+		if (req.bulkOpName == null || req.id == null || req.indices == null) {
+			return;
+		}
+		for (Object idx : req.indices) {
+			if (idx == null) continue;
+			generation.incrementAndGet();
+			invalidations.incrementAndGet();
+			cache.invalidate(new ESPath((String) idx, req.id));
+		}
+	}
+
+	/**
+	 * Deleting or creating an index, or moving an alias. 
+	 * Entries are keyed by the name the caller used, which may be an alias, so these drop everything.
+	 */
+	static boolean isIndexAdmin(ESHttpRequest req) {
+		return req instanceof DeleteIndexRequest || req instanceof CreateIndexRequest 
+				|| req instanceof IndicesAliasesRequest;
+	}
+
+	/**
+	 * Drop every entry for this index
+	 */
+	public void invalidateIndex(String index) {
+		if (index == null) return;
+		generation.incrementAndGet();
+		invalidations.incrementAndGet();
+		cache.asMap().keySet().removeIf(k -> index.equals(k.indices[0]));
+	}
+
+	public void invalidate(ESPath path) {
+		generation.incrementAndGet();
+		invalidations.incrementAndGet();
+		cache.invalidate(path);
+	}
+
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		invalidations.incrementAndGet();
+		cache.invalidateAll();
+	}
+
+	/**
+	 * @return hits, negativeHits, misses, hitRate, revalidations, revalidatedUnchanged, invalidations, evictions, size
+	 */
+	public Map<String, Object> getStats() {
+		long h = hits.get() + negativeHits.get();
+		long m = misses.get();
+		return new ArrayMap(
+				"hits", hits.get(),
+				"negativeHits", negativeHits.get(),
+				"misses", m,
+				"hitRate", h+m==0? 0.0 : h / (double) (h+m),
+				"revalidations", revalidations.get(),
+				"revalidatedUnchanged", revalidatedUnchanged.get(),
+				"invalidations", invalidations.get(),
+				"evictions", cache.stats().evictionCount(),
+				"size", cache.size()
+				);
+	}
+
+	@Override
+	public String toString() {
+		return "DocCache"+getStats();
+	}
+}
@@ -71,12 +71,91 @@ public class ESConfig {
 	
 	@Option(description="milliseconds for the http request to timeout")
 	public long esRequestTimeout = TUnit.MINUTE.millisecs;
-		
+
+	@Option(description="milliseconds to wait when opening a new connection to ES")
+	public long esConnectTimeout = 10 * TUnit.SECOND.millisecs;
+
+	@Option(description="Max concurrent calls -- and so max pooled keep-alive connections -- per ES server")
+	public int esMaxConnectionsPerServer = 20;
+
+	@Option(description="Size of this client's thread pool, used by execute() and for blocking work. Each client has its own pool, so a slow cluster cannot starve the others.")
+	public int esThreads = 20;
+
+	@Option(description="Max calls waiting for a thread. -1 for unbounded.")
+	public int esThreadQueueSize = -1;
+
+	@Option(description="What to do with a call when the thread queue is full: ABORT | CALLER_RUNS | BLOCK")
+	public KRejectionPolicy esThreadRejectionPolicy = KRejectionPolicy.CALLER_RUNS;
+
+	@Option(description="Use a virtual thread per call instead of a pool (needs Java 21+ -- falls back to the pool otherwise). The pool size and queue settings are then ignored.")
+	public boolean esVirtualThreads;
+
+	@Option(description="Discover the cluster's nodes (via _nodes/http) and spread requests over them. Off by default, as the nodes' publish addresses must be reachable from the client.")
+	public boolean esSniff;
+
+	@Option(description="milliseconds between sniffs, if esSniff is on. A node failure also triggers a sniff.")
+	public long esSniffInterval = 5 * TUnit.MINUTE.millisecs;
+
+	@Option(description="milliseconds to hold a search, so that concurrent searches can be sent together as one _msearch. 0 (the default) for off. 1 to 5 is sensible.")
+	public long esSearchCoalesceWindow;
+
+	@Option(description="Max searches per coalesced _msearch")
+	public int esSearchCoalesceMaxBatch = 50;
+
+	@Option(description="milliseconds to hold a get-by-id, so that concurrent gets can be sent together as one _mget. 0 (the default) for off. If the doc cache is on, it is checked first, and filled from the _mget.")
+	public long esGetBatchWindow;
+
+	@Option(description="Max docs per batched _mget")
+	public int esGetMaxBatch = 100;
+
+	@Option(description="Max docs in the client's get cache (see DocCache). 0 (the default) for no cache.")
+	public long esDocCacheSize;
+
+	@Option(description="Bound the get cache by size (approx bytes of json) instead of doc count. 0 for off.")
+	public long esDocCacheMaxBytes;
+
+	@Option(description="milliseconds a cached doc is kept")
+	public long esDocCacheTtl = TUnit.MINUTE.millisecs;
+
+	@Option(description="milliseconds a cached not-found is kept")
+	public long esDocCacheNegativeTtl = 10 * TUnit.SECOND.millisecs;
+
+	@Option(description="milliseconds after which a cached doc is checked (via its _seq_no) before use. 0 for never.")
+	public long esDocCacheRevalidateAfter;
+
+	@Option(description="Size (approx bytes of json) of the client's search-results cache (see SearchCache). 0 (the default) for no cache.")
+	public long esSearchCacheMaxBytes;
+
+	@Option(description="milliseconds to cache every search for. 0 (the default) to only cache searches which ask, via SearchRequest.setCacheTtl()")
+	public long esSearchCacheTtl;
+
+	@Option(description="milliseconds: the longest any search is cached for")
+	public long esSearchCacheMaxTtl = 10 * TUnit.MINUTE.millisecs;
+
+	@Option(description="Comma-separated request classes which share identical in-flight calls (see SingleFlight), e.g. \"GetRequest,SearchRequest\". Default: none")
+	public String esSingleFlightTypes;
+
+	@Option(description="Record request metrics (see ESMetrics)")
+	public boolean esMetrics = true;
+
+	@Option(description="Publish the metrics as a JMX MBean (if esMetrics is on). Off by default, as the MBean holds the client until close().")
+	public boolean esMetricsJmx;
+
+	@Option(description="Max endpoints (and max indices) to keep separate latency histograms for. The rest are lumped together.")
+	public int esMetricsMaxKeys = 200;
+
+	/**
+	 * A vanilla Gson, made once, for use until a proper one is set.
+	 */
+	transient private Gson vanillaGson;
+	
 	public Gson getGson() {
 		if (gson!=null) return gson;
 		// if Gson has not been setup yet, return a vanilla one for now (but don't set it)
 		gson = Dep.has(Gson.class)? Dep.get(Gson.class) : null;
-		return gson==null? new Gson() : gson;
+		if (gson!=null) return gson;
+		if (vanillaGson==null) vanillaGson = new Gson();
+		return vanillaGson;
 	}
 	
 	public ESConfig setGson(Gson gson) {
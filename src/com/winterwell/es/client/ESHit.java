@@ -1,5 +1,6 @@
 package com.winterwell.es.client;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
@@ -37,6 +38,7 @@ public final class ESHit<T> implements IHasJson {
 	String _index;
 	String _id;
 	Map _source;
+	List<Object> sort;
 	private JThing<T> jthing;
 	private Class<? extends T> type;
 	
@@ -75,6 +77,21 @@ public final class ESHit<T> implements IHasJson {
 		return this;
 	}
 	
+	/**
+	 * For when the source was decoded straight to a POJO (see {@link SearchHitStream})
+	 */
+	ESHit<T> setJava(T java) {
+		jthing = new JThing<T>().setJava(java).setType(type);
+		return this;
+	}
+	
+	/**
+	 * @return The sort values for this hit (e.g. for search_after paging), or null if the search was unsorted.
+	 */
+	public List<Object> getSort() {
+		return sort;
+	}
+	
 	/**
 	 * @deprecated prefer {@link #getJThing()}
 	 * @return
@@ -1,34 +1,55 @@
 package com.winterwell.es.client;
 
 import java.io.Flushable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.winterwell.es.ESPath;
 import com.winterwell.es.client.admin.IndicesAdminClient;
 import com.winterwell.es.client.admin.StatsRequest;
+import com.winterwell.es.client.suggest.Suggester;
+import com.winterwell.es.fail.ESBulkException;
+import com.winterwell.gson.Gson;
+import com.winterwell.gson.GsonBuilder;
 import com.winterwell.gson.JsonElement;
 import com.winterwell.gson.JsonObject;
 import com.winterwell.gson.JsonParser;
+import com.winterwell.gson.StandardAdapters;
 import com.winterwell.utils.Dep;
 import com.winterwell.utils.Utils;
+import com.winterwell.utils.containers.ArrayMap;
 import com.winterwell.utils.log.Log;
 import com.winterwell.utils.time.TUnit;
 import com.winterwell.utils.web.SimpleJson;
 import com.winterwell.web.ConfigException;
-import com.winterwell.web.FakeBrowser;
 
 /**
  * This object is thread safe. 
  * You can choose whether to get futures (via {@link #executeThreaded(ESHttpRequest)}), or just normal execute-in-the-current-thread
- * behaviour (via {@link #execute(ESHttpRequest)}).
+ * behaviour (via {@link #execute(ESHttpRequest)}), or non-blocking futures (via {@link ESHttpRequest#executeAsync()}).
  * @author daniel
  *
  */
@@ -39,11 +60,7 @@ public class ESHttpClient implements Flushable {
 	 * @return e.g. "7.10.0"
 	 */
 	public String getESVersion() {
-		FakeBrowser fb = new FakeBrowser();
-		fb.setTimeOut(config.esRequestTimeout); // 1 minute timeout
-		fb.setDebug(debug);
-//		fb.setRequestHeader("Content-Type", "application/json");
-		String json = fb.getPage(config.getESUrl());
+		String json = transport.send("GET", config.getESUrl(), null);
 		JsonElement jelement = new JsonParser().parse(json);
 	    JsonObject  jobject = jelement.getAsJsonObject();
 	    jobject = jobject.getAsJsonObject("version");
@@ -53,16 +70,70 @@ public class ESHttpClient implements Flushable {
 	public ESConfig getConfig() {
 		return config;
 	}
-	
+
 	/**
-	 * You can optionally request a future.
+	 * Extra adapters for request bodies, on top of the {@link #defaultBodyGson()} ones. Guarded by this.
 	 */
-	private static final ListeningExecutorService threads 
-							= MoreExecutors.listeningDecorator(
-									Executors.newFixedThreadPool(20));
+	private final Map<Type, Object> bodyTypeAdapters = new ArrayMap();
 
+	private volatile Gson bodyGson;
+
+	private static final Gson DEFAULT_BODY_GSON = newBodyGson(Collections.emptyMap());
+
+	/**
+	 * @return The convertor for request bodies (see {@link ESHttpRequest#getBodyJson()}). 
+	 * Built once, shared by all requests. Gson is thread safe.
+	 * This is DIFFERENT from {@link ESConfig#getGson()}, which is for the caller's objects.
+	 */
+	public Gson getBodyGson() {
+		Gson g = bodyGson;
+		return g==null? DEFAULT_BODY_GSON : g;
+	}
+
+	/**
+	 * @return The request-body convertor, with handling for our internal classes.
+	 */
+	static Gson defaultBodyGson() {
+		return DEFAULT_BODY_GSON;
+	}
+
+	/**
+	 * Extension point: register an adapter for request bodies, e.g. for your own {@link com.winterwell.utils.web.IHasJson}
+	 * query or aggregation classes. Best done once, when setting up the client (this rebuilds the convertor).
+	 * @param type
+	 * @param typeAdapter e.g. StandardAdapters.IHASJSONADAPTER
+	 * @return this
+	 */
+	public synchronized ESHttpClient registerBodyTypeAdapter(Type type, Object typeAdapter) {
+		bodyTypeAdapters.put(type, typeAdapter);
+		bodyGson = newBodyGson(bodyTypeAdapters);
+		return this;
+	}
+
+	/**
+	 * A vanilla convertor -- no @class in the maps and lists -- with handling of ES Client internal objects.
+	 */
+	private static Gson newBodyGson(Map<Type, Object> extraAdapters) {
+		GsonBuilder gb = GsonBuilder.safe()
+				// builders which can write straight to the json stream (no intermediate maps)
+				.registerTypeHierarchyAdapter(IWriteJson.class, WriteJsonAdapter.INSTANCE)
+				// cautious approach - only do IHasJson for "our" local classes
+				.registerTypeAdapter(Suggester.class, StandardAdapters.IHASJSONADAPTER);
+		for (Map.Entry<Type, Object> e : extraAdapters.entrySet()) {
+			gb.registerTypeAdapter(e.getKey(), e.getValue());
+		}
+		return gb.create();
+	}
 	
-	
+	/**
+	 * You can optionally request a future. Per client -- see {@link ESConfig#esThreads}
+	 */
+	private final ListeningExecutorService threads;
+
+	/**
+	 * Only for the deprecated static {@link #getThreads()}
+	 */
+	private static volatile ListeningExecutorService sharedThreads;
 
 	/**
 	 * Call ES to check the connection is alive and well.
@@ -87,17 +158,212 @@ public class ESHttpClient implements Flushable {
 		throw new ConfigException("Failed with settings: "+config, "ES", cause);
 	}
 
-	List<String> servers;
+	volatile List<String> servers;
 
 	public List<String> getServers() {
 		return servers;
 	}
 
+	private final NodeSelector nodeSelector = new NodeSelector();
+
+	/**
+	 * null unless {@link ESConfig#esSniff}
+	 */
+	private Sniffer sniffer;
+
+	/**
+	 * @return null unless {@link ESConfig#esSniff} is on
+	 */
+	public Sniffer getSniffer() {
+		return sniffer;
+	}
+
+	private SearchCoalescer searchCoalescer;
+
+	/**
+	 * @return null unless {@link ESConfig#esSearchCoalesceWindow} is set
+	 */
+	public SearchCoalescer getSearchCoalescer() {
+		return searchCoalescer;
+	}
+
+	private MultiGetLoader getLoader;
+
+	private DocCache docCache;
+
+	private SearchCache searchCache;
+
+	/**
+	 * @return null unless {@link ESConfig#esSearchCacheMaxBytes} is set
+	 */
+	public SearchCache getSearchCache() {
+		return searchCache;
+	}
+
+	private SingleFlight singleFlight;
+
+	private ESMetrics metrics;
+
+	private IMetricsRegistry metricsRegistry;
+
+	/**
+	 * For naming clients in the metrics registry
+	 */
+	private static final AtomicInteger clientCount = new AtomicInteger();
+
+	private final String name = "ESHttpClient-"+clientCount.incrementAndGet();
+
+	/**
+	 * @return null if {@link ESConfig#esMetrics} is off
+	 */
+	public ESMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Publish this client's metrics somewhere other than (or as well as -- via a composite) JMX.
+	 * @param registry null to un-publish
+	 */
+	public synchronized void setMetricsRegistry(IMetricsRegistry registry) {
+		if (metricsRegistry != null) metricsRegistry.unregister(name);
+		metricsRegistry = registry;
+		if (registry != null && metrics != null) registry.register(name, metrics);
+	}
+
+	private static final IESRequestListener[] NO_LISTENERS = new IESRequestListener[0];
+
+	/**
+	 * Copy-on-write, so the request path just reads a field (and skips it all if empty).
+	 */
+	private volatile IESRequestListener[] listeners = NO_LISTENERS;
+
+	public synchronized void addListener(IESRequestListener listener) {
+		IESRequestListener[] ls = Arrays.copyOf(listeners, listeners.length + 1);
+		ls[ls.length - 1] = listener;
+		listeners = ls;
+	}
+
+	public synchronized void removeListener(IESRequestListener listener) {
+		listeners = Arrays.stream(listeners).filter(l -> l != listener).toArray(IESRequestListener[]::new);
+	}
+
+	void fireSubmit(ESHttpRequest req) {
+		IESRequestListener[] ls = listeners;
+		if (ls.length == 0) return;
+		for (IESRequestListener l : ls) {
+			try {
+				l.onSubmit(req);
+			} catch(Throwable ex) {
+				Log.w("ES.listener", l+" onSubmit "+req+": "+ex);
+			}
+		}
+	}
+
+	void fireBeforeSend(ESHttpRequest req, CharSequence url) {
+		IESRequestListener[] ls = listeners;
+		if (ls.length == 0) return;
+		String surl = url.toString();
+		for (IESRequestListener l : ls) {
+			try {
+				l.beforeSend(req, surl);
+			} catch(Throwable ex) {
+				Log.w("ES.listener", l+" beforeSend "+req+": "+ex);
+			}
+		}
+	}
+
+	void fireAfterResponse(ESHttpRequest req, ESHttpResponse response, long msecs) {
+		IESRequestListener[] ls = listeners;
+		if (ls.length == 0) return;
+		for (IESRequestListener l : ls) {
+			try {
+				l.afterResponse(req, response, msecs);
+			} catch(Throwable ex) {
+				Log.w("ES.listener", l+" afterResponse "+req+": "+ex);
+			}
+		}
+	}
+
+	void fireError(ESHttpRequest req, Throwable error, long msecs) {
+		IESRequestListener[] ls = listeners;
+		if (ls.length == 0) return;
+		for (IESRequestListener l : ls) {
+			try {
+				l.onError(req, error, msecs);
+			} catch(Throwable ex) {
+				Log.w("ES.listener", l+" onError "+req+": "+ex);
+			}
+		}
+	}
+
+	/**
+	 * @return unique per client in this JVM, e.g. "ESHttpClient-1". Used for the metrics.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return never null. Off for every request unless switched on (see {@link SingleFlight}).
+	 */
+	public SingleFlight getSingleFlight() {
+		return singleFlight;
+	}
+
+	/**
+	 * @return null unless {@link ESConfig#esDocCacheSize} or {@link ESConfig#esDocCacheMaxBytes} is set
+	 */
+	public DocCache getDocCache() {
+		return docCache;
+	}
+
+	/**
+	 * @return null unless {@link ESConfig#esGetBatchWindow} is set
+	 */
+	public MultiGetLoader getGetLoader() {
+		return getLoader;
+	}
+
+	/**
+	 * @return Picks which of {@link #getServers()} each request goes to. Has the per-node health stats.
+	 */
+	public NodeSelector getNodeSelector() {
+		return nodeSelector;
+	}
+
 	private boolean closed;
 
+	/**
+	 * Made on demand, for {@link #executeAsync(ESHttpRequest)} 
+	 */
+	private volatile ScheduledExecutorService retryTimer;
+
 
 	final ESConfig config;
 
+	private IESTransport transport;
+	
+	/**
+	 * @return The http layer. Never null.
+	 */
+	public IESTransport getTransport() {
+		return transport;
+	}
+	
+	/**
+	 * Swap the http layer, e.g. for {@link FakeBrowserTransport} or your own. 
+	 * The old transport is closed.
+	 * @param transport
+	 * @return this
+	 */
+	public ESHttpClient setTransport(IESTransport transport) {
+		if (transport==null) throw new NullPointerException("null transport for ES");
+		IESTransport old = this.transport;
+		this.transport = transport;
+		if (old != null && old != transport) old.close();
+		return this;
+	}
+
 
 	@Deprecated // set on requests
 	public static boolean debug;
@@ -105,6 +371,17 @@ public class ESHttpClient implements Flushable {
 	public void setServer(String server) {
 		this.servers = Collections.singletonList(server);
 	}
+
+	/**
+	 * Spread requests over several nodes of a cluster. See {@link NodeSelector}
+	 * @param servers e.g. ["http://es1:9200", "http://es2:9200"]
+	 */
+	public void setServers(List<String> servers) {
+		if (servers.isEmpty()) throw new IllegalArgumentException("No ES servers");
+		this.servers = Collections.unmodifiableList(new ArrayList<>(servers));
+		// forget the stats for servers which have gone (e.g. replaced by a sniff)
+		nodeSelector.retain(this.servers);
+	}
 	
 	/**
 	 * @warning This relies on Dep.get(ESConfig.class) 
@@ -118,6 +395,76 @@ public class ESHttpClient implements Flushable {
 		if (config==null) throw new NullPointerException("null config for ES");
 		String s = config.esUrl;		
 		servers = Arrays.asList(s);
+		transport = new PooledHttpTransport(config);
+		ExecutorService pool = newExecutor(config);
+		threads = MoreExecutors.listeningDecorator(pool);
+		if (config.esMetrics) {
+			metrics = new ESMetrics(pool, config);
+			if (config.esMetricsJmx) setMetricsRegistry(new JmxMetricsRegistry());
+		}
+		if (config.esSniff) {
+			sniffer = new Sniffer(this).start();
+		}
+		if (config.esSearchCoalesceWindow > 0) {
+			searchCoalescer = new SearchCoalescer(this, config.esSearchCoalesceWindow, config.esSearchCoalesceMaxBatch);
+		}
+		if (config.esDocCacheSize > 0 || config.esDocCacheMaxBytes > 0) {
+			docCache = new DocCache(this, config);
+		}
+		if (config.esSearchCacheMaxBytes > 0) {
+			searchCache = new SearchCache(config);
+		}
+		singleFlight = new SingleFlight(config);
+		if (config.esGetBatchWindow > 0) {
+			getLoader = new MultiGetLoader(this, config.esGetBatchWindow, config.esGetMaxBatch);
+		}
+	}
+
+	/**
+	 * @return a virtual-thread-per-task executor if asked for (and the JVM has them), 
+	 * otherwise a pool as set by the config.
+	 */
+	static ExecutorService newExecutor(ESConfig config) {
+		if (config.esVirtualThreads) {
+			try {
+				// reflection, so we still compile and run on Java 11
+				Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService) m.invoke(null);
+			} catch(Throwable ex) {
+				Log.w("ES", "No virtual threads in Java "+System.getProperty("java.version")+" - using a pool. "+ex);
+			}
+		}
+		int n = config.esThreads;
+		assert n > 0 : config;
+		BlockingQueue<Runnable> queue = config.esThreadQueueSize < 0? 
+				new LinkedBlockingQueue<>() : new ArrayBlockingQueue<>(Math.max(1, config.esThreadQueueSize));
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(n, n, 1, TimeUnit.MINUTES, queue, 
+				new ThreadFactoryBuilder().setNameFormat("ESHttpClient %d").build(),
+				rejectionHandler(config.esThreadRejectionPolicy));
+		// idle threads die off -- so a forgotten close() does not keep the JVM alive for ever
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	private static RejectedExecutionHandler rejectionHandler(KRejectionPolicy policy) {
+		if (policy==null) policy = KRejectionPolicy.CALLER_RUNS;
+		switch(policy) {
+		case ABORT:
+			return new ThreadPoolExecutor.AbortPolicy();
+		case CALLER_RUNS:
+			return new ThreadPoolExecutor.CallerRunsPolicy();
+		case BLOCK:
+			return (r, pool) -> {
+				if (pool.isShutdown()) throw new RejectedExecutionException("ESHttpClient closed");
+				try {
+					pool.getQueue().put(r);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RejectedExecutionException(e);
+				}
+			};
+		}
+		throw new IllegalArgumentException(policy.toString());
 	}
 
 	/**
@@ -138,14 +485,96 @@ public class ESHttpClient implements Flushable {
 	 */
 	ListenableFuture<ESHttpResponse> executeThreaded(final ESHttpRequest req) {
 		CallES call = new CallES(req);
-		ListenableFuture<ESHttpResponse> future = getThreads().submit(call);
+		ListenableFuture<ESHttpResponse> future = threads.submit(call);
 		return future;
 	}
 	
-	public static ListeningExecutorService getThreads() {
+	/**
+	 * @return This client's threads. Shut down by {@link #close()}
+	 */
+	public ListeningExecutorService getExecutor() {
 		return threads;
 	}
 	
+	/**
+	 * @deprecated Each client now has its own threads -- use {@link #getExecutor()}.
+	 * This returns a separate JVM-wide pool (made on demand, never shut down), as the old static pool was.
+	 */
+	public static ListeningExecutorService getThreads() {
+		if (sharedThreads!=null) return sharedThreads;
+		synchronized (ESHttpClient.class) {
+			if (sharedThreads==null) {
+				sharedThreads = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(20,
+						new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ESHttpClient shared %d").build()));
+			}
+			return sharedThreads;
+		}
+	}
+	
+	/**
+	 * Non-blocking execute, with retries scheduled on a timer (rather than a sleeping thread).
+	 * @param req
+	 * @return the raw response
+	 */
+	CompletableFuture<ESHttpResponse> executeAsync(ESHttpRequest req) {
+		CompletableFuture<ESHttpResponse> result = new CompletableFuture<>();
+		req.invalidateCaches();
+		executeAsync2(req, 0, result);
+		if (docCache == null && searchCache == null) return result;
+		// again, in case a read slipped in whilst we were writing
+		return result.whenComplete((r, ex) -> req.invalidateCaches());
+	}
+	
+	private void executeAsync2(ESHttpRequest req, int t, CompletableFuture<ESHttpResponse> result) {
+		CompletableFuture<ESHttpResponse> f;
+		try {
+			f = req.doExecuteAsyncShared(this);
+		} catch(Throwable ex) {
+			result.completeExceptionally(ex);
+			return;
+		}
+		f.whenComplete((r, ex) -> {
+			if (ex != null) {
+				result.completeExceptionally(ex);
+				return;
+			}
+			RuntimeException err = r.getError();
+			// success? Or bulk item failures (BulkRequest has already re-sent the retryable ones)? Or out of retries?
+			if (err==null || err instanceof ESBulkException || t >= req.retries) {
+				result.complete(r);
+				return;
+			}
+			// pause before a retry as CallES does -- but without holding a thread
+			long pause = 5 + t*t*1000;
+			if (metrics != null) metrics.retry();
+			try {
+				getTimer().schedule(() -> executeAsync2(req, t+1, result), pause, TimeUnit.MILLISECONDS);
+			} catch(RejectedExecutionException closed) {
+				// the client was closed -- no more retries
+				result.complete(r);
+			}
+		});
+	}
+	
+	/**
+	 * For retry back-off and task polling. Keep the jobs short -- this is a single thread.
+	 */
+	ScheduledExecutorService getTimer() {
+		if (retryTimer!=null) return retryTimer;
+		synchronized (this) {
+			if (retryTimer==null) {
+				ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+						new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ESHttpClient timer %d").build());
+				// the thread dies off when idle -- so an unclosed client does not hold it for ever
+				timer.setKeepAliveTime(1, TimeUnit.MINUTES);
+				timer.allowCoreThreadTimeOut(true);
+				timer.setRemoveOnCancelPolicy(true);
+				retryTimer = timer;
+			}
+			return retryTimer;
+		}
+	}
+	
 	
 	/**
 	 * Pass the call across threads. This will "preserve" stacktrace across threads for easier debugging.
@@ -174,19 +603,29 @@ public class ESHttpClient implements Flushable {
 		
 		@Override
 		public ESHttpResponse call() throws Exception {
+			if (metrics != null) metrics.startThreaded();
 			try {
 				Thread.currentThread().setName("ESHttpClient (threaded): "+req);				
 				assert req.retries+1 >= 1;
 				ESHttpResponse r = null;
+				req.invalidateCaches();
 				for(int t=0; t<req.retries+1; t++) {
-					r = req.doExecute(ESHttpClient.this);
+					if (t > 0 && metrics != null) metrics.retry();
+					r = req.doExecuteShared(ESHttpClient.this);
 					// success?
-					if (r.getError()==null) return r;
+					RuntimeException err = r.getError();
+					if (err==null) {
+						req.invalidateCaches();
+						return r;
+					}
+					// Bulk item failures? BulkRequest has already re-sent the retryable ones
+					if (err instanceof ESBulkException) break;
 					// pause before a retry to allow whatever the problem was to clear
 					// but first retry is near instant
 					Utils.sleep(5 + t*t*1000);
 				}
-				// fail
+				// fail (but a bulk may have partly gone through)
+				req.invalidateCaches();
 				if (trace!=null) {				
 					r.getError().setStackTrace(trace);
 				}
@@ -195,6 +634,8 @@ public class ESHttpClient implements Flushable {
 				// This shouldn't generate errors -- but if it does, don't let them just get lost!
 				Log.e("ES", ex);
 				throw Utils.runtime(ex);
+			} finally {
+				if (metrics != null) metrics.doneThreaded();
 			}
 		}			
 	}	
@@ -242,6 +683,9 @@ public class ESHttpClient implements Flushable {
 	 * @return source-as-map, or null if not found
 	 */
 	public Map<String, Object> get(String index, String type, String id) {
+		if (getLoader != null) {
+			return get2_batched(index, id, Map.class);
+		}
 		GetRequest gr = new GetRequest(this);
 		gr.setIndex(index).setType(type).setId(id);
 		gr.setSourceOnly(true);
@@ -260,6 +704,9 @@ public class ESHttpClient implements Flushable {
 	}
 
 	public <X> X get(String index, String type, String id, Class<X> class1) {
+		if (getLoader != null) {
+			return get2_batched(index, id, class1);
+		}
 		GetRequest gr = new GetRequest(this);
 		gr.setIndex(index).setType(type).setId(id);
 		gr.setSourceOnly(true);
@@ -274,6 +721,30 @@ public class ESHttpClient implements Flushable {
 		return get(path.index(), path.type, path.id, class1);
 	}
 
+	/**
+	 * Via the {@link DocCache} (if there is one), then the {@link MultiGetLoader}, so concurrent gets share an _mget
+	 * @return null if not found, or on error (as for a plain get)
+	 */
+	private <X> X get2_batched(String index, String id, Class<X> class1) {
+		// no request goes out for this get -- but let listeners see it (and add e.g. X-Opaque-Id) in the caller's thread
+		GetRequest gr = new GetRequest(this);
+		gr.setIndex(index).setId(id);
+		fireSubmit(gr);
+		ESPath path = new ESPath(index, id);
+		if (docCache != null) {
+			DocCache.Entry e = docCache.peek(path);
+			if (e != null) {
+				return e.isNotFound()? null : config.getGson().fromJson(e.sourceJson, class1);
+			}
+		}
+		try {
+			return getLoader.load(path, class1, gr.getHeaders()).join();
+		} catch(Exception ex) {
+			Log.w("ES.get", ex);
+			return null;
+		}
+	}
+
 	
 	/**
 	 * Convenience for `new SearchRequestBuilder(this)`.
@@ -288,6 +759,14 @@ public class ESHttpClient implements Flushable {
 	public BulkRequest prepareBulk() {
 		return new BulkRequest(this);
 	}
+	
+	/**
+	 * For high-volume writes: batches up index/update/delete requests into bulk requests.
+	 * Remember to close() it when done.
+	 */
+	public BulkProcessor prepareBulkProcessor() {
+		return new BulkProcessor(this);
+	}
 
 	public SearchScrollRequest prepareSearchScroll(String scrollId) {
 		return new SearchScrollRequest(this, scrollId, TUnit.MINUTE.dt);
@@ -297,10 +776,29 @@ public class ESHttpClient implements Flushable {
 		return new ClearScrollRequest(this);
 	}
 
+	/**
+	 * Stop taking new calls, and wait (up to {@link ESConfig#esRequestTimeout}) for the calls in flight to finish.
+	 * Then release the threads and connections.
+	 */
 	public void close() {
 		if (closed) return;
-//		threads.shutdown(); the threads are a shared static pool
 		closed = true;
+		if (sniffer!=null) sniffer.close();
+		if (searchCoalescer!=null) searchCoalescer.close(); // sends any held searches
+		if (getLoader!=null) getLoader.close();
+		if (retryTimer!=null) retryTimer.shutdown();
+		threads.shutdown();
+		try {
+			if ( ! threads.awaitTermination(config.esRequestTimeout, TimeUnit.MILLISECONDS)) {
+				Log.w("ES", "close(): calls still running after "+config.esRequestTimeout+"ms - interrupting them");
+				threads.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			threads.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		transport.close();
+		setMetricsRegistry(null);
 	}
 
 	public UpdateRequest prepareUpdate(ESPath path) {
@@ -316,7 +814,8 @@ public class ESHttpClient implements Flushable {
 	}
 
 	/**
-	 * @deprecated does nothing yet
+	 * @deprecated does nothing yet. If you want batched writes, use {@link #prepareBulkProcessor()}, 
+	 * which has a working flush().
 	 */
 	@Override
 	public void flush() {
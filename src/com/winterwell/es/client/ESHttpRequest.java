@@ -1,14 +1,17 @@
 package com.winterwell.es.client;
 
+import java.io.InputStream;
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 import org.eclipse.jetty.util.ajax.JSON;
 
 import com.google.common.util.concurrent.ListenableFuture;
 import com.winterwell.es.ESPath;
-import com.winterwell.es.client.agg.Aggregation;
-import com.winterwell.es.client.query.ESQueryBuilder;
-import com.winterwell.es.client.suggest.Suggester;
+import com.winterwell.es.client.NodeSelector.Node;
 import com.winterwell.es.fail.ESDocNotFoundException;
 import com.winterwell.es.fail.ESException;
 import com.winterwell.es.fail.ESIndexAlreadyExistsException;
@@ -17,8 +20,6 @@ import com.winterwell.es.fail.ESIndexReadOnlyException;
 import com.winterwell.es.fail.ESMapperParsingException;
 import com.winterwell.es.fail.IElasticException;
 import com.winterwell.gson.Gson;
-import com.winterwell.gson.GsonBuilder;
-import com.winterwell.gson.StandardAdapters;
 import com.winterwell.utils.StrUtils;
 import com.winterwell.utils.Utils;
 import com.winterwell.utils.containers.ArrayMap;
@@ -117,8 +118,29 @@ public class ESHttpRequest<SubClass extends ESHttpRequest, ResponseSubClass exte
 
 	int retries;
 
+	/**
+	 * The server this request last went to -- so a retry can go elsewhere.
+	 */
+	private transient volatile String lastServer;
+
 	protected boolean debug;
 
+	/**
+	 * null: as set for this type of request in the client's {@link SingleFlight}
+	 */
+	Boolean singleFlight;
+
+	/**
+	 * Extra http headers. Usually null.
+	 */
+	private volatile Map<String, String> headers;
+
+	/**
+	 * true for a request the client makes itself, on behalf of a caller's request 
+	 * (e.g. a coalesced _msearch): listeners' onSubmit has already seen the caller's request.
+	 */
+	boolean internal;
+
 	private boolean include_type_name;
 	
 	public SubClass setDebug(boolean debug) {
@@ -126,6 +148,68 @@ public class ESHttpRequest<SubClass extends ESHttpRequest, ResponseSubClass exte
 		return (SubClass) this;
 	}
 	
+	/**
+	 * Add an http header to this request, e.g. for auth proxies. 
+	 * @param value null to remove
+	 */
+	public synchronized SubClass setHeader(String name, String value) {
+		// copy-on-write, as a send in another thread may be reading it
+		Map<String, String> hs = new ArrayMap<>();
+		if (headers!=null) hs.putAll(headers);
+		if (value==null) hs.remove(name);
+		else hs.put(name, value);
+		headers = hs.isEmpty()? null : hs;
+		return (SubClass) this;
+	}
+
+	/**
+	 * @return the extra http headers (never null)
+	 */
+	public Map<String, String> getHeaders() {
+		Map<String, String> hs = headers;
+		return hs==null? Collections.emptyMap() : Collections.unmodifiableMap(hs);
+	}
+
+	/**
+	 * Set the X-Opaque-Id header, which ES shows in its slow logs and _tasks. E.g. a trace id.
+	 * @see TraceIdListener
+	 */
+	public SubClass setOpaqueId(String id) {
+		return setHeader(OPAQUE_ID_HEADER, id);
+	}
+
+	public String getOpaqueId() {
+		Map<String, String> hs = headers;
+		return hs==null? null : hs.get(OPAQUE_ID_HEADER);
+	}
+
+	static final String OPAQUE_ID_HEADER = "X-Opaque-Id";
+
+	/**
+	 * Mark this as a sub-request made by the client: it carries the caller's headers (e.g. X-Opaque-Id),
+	 * and does not fire {@link IESRequestListener#onSubmit(ESHttpRequest)} again.
+	 * @param callerHeaders from the caller's request. Can be null.
+	 */
+	final SubClass setInternal(Map<String, String> callerHeaders) {
+		internal = true;
+		if (callerHeaders != null && ! callerHeaders.isEmpty()) {
+			Map<String, String> hs = new ArrayMap<>();
+			hs.putAll(callerHeaders);
+			headers = hs;
+		}
+		return (SubClass) this;
+	}
+
+	/**
+	 * @param on If true, this request shares the http call (and the response object) of any identical
+	 * request which is already in flight. For reads -- do not use on writes. 
+	 * Default: off, unless switched on for this type of request (see {@link SingleFlight}).
+	 */
+	public SubClass setSingleFlight(boolean on) {
+		this.singleFlight = on;
+		return (SubClass) this;
+	}
+	
 	/**
 	 * By default, if a request fails, it fails. You can set it to retry once or twice before giving up.
 	 * @param retries 0 = no retries
@@ -210,7 +294,23 @@ public class ESHttpRequest<SubClass extends ESHttpRequest, ResponseSubClass exte
 	 */
 	public ResponseSubClass get() {
 		get2_safetyCheck();
-		return processResponse(doExecute(hClient));
+		if ( ! internal) hClient.fireSubmit(this);
+		invalidateCaches();
+		ESHttpResponse r = doExecuteShared(hClient);
+		// again, in case a read slipped in whilst we were writing
+		invalidateCaches();
+		return processResponse(r);
+	}
+
+	/**
+	 * If this is a write, drop any affected entries from the client's {@link DocCache} and {@link SearchCache}.
+	 */
+	final void invalidateCaches() {
+		if (hClient==null) return;
+		DocCache cache = hClient.getDocCache();
+		if (cache != null) cache.onWrite(this);
+		SearchCache scache = hClient.getSearchCache();
+		if (scache != null) scache.onWrite(this);
 	}
 	
 	/**
@@ -277,10 +377,26 @@ public class ESHttpRequest<SubClass extends ESHttpRequest, ResponseSubClass exte
 		if (debug) {
 			Log.d("ES.thread", toString()+"...");
 		}
+		if ( ! internal) hClient.fireSubmit(this);
 		return hClient.executeThreaded(this);
 		// NB this 4ends up at #doExecute(esjc)
 	}
 
+	/**
+	 * Do it! Non-blocking: no thread is parked waiting for ES, including whilst waiting to retry.
+	 * Use this for high fan-out, where {@link #execute()} would tie up the client's threads.
+	 * 
+	 * @return the (processed) response. As with {@link #get()}, ES errors are inside the response -- call check().
+	 */
+	public CompletableFuture<ResponseSubClass> executeAsync() {
+		if (debug) {
+			Log.d("ES.async", toString()+"...");
+		}
+		get2_safetyCheck();
+		if ( ! internal) hClient.fireSubmit(this);
+		return hClient.executeAsync(this).thenApply(this::processResponse);
+	}
+
 	/**
 	 * @deprecated Why not embrace the new typeless world?
 	 * 
@@ -335,25 +451,37 @@ public class ESHttpRequest<SubClass extends ESHttpRequest, ResponseSubClass exte
 	 * @return Can be null. The source json
 	 */
 	public String getBodyJson() {
+		if (bodyJson!=null) return bodyJson;
+		bodyJson = getBodyJsonUncached();
+		// sanity check the json				
+//		assert WebUtils2.parseJSON(srcJson) != null : srcJson;
+		return bodyJson;
+	}
+
+	/**
+	 * As {@link #getBodyJson()}, but does not keep the json -- e.g. for the actions in a streamed bulk body.
+	 */
+	String getBodyJsonUncached() {
 		if (bodyJson!=null) return bodyJson;
 		if (body==null) return null;
 		// A vanilla convertor for handling our objects
 		// -- no @class in the maps and lists -- with handling of ES Client internal objects.
-		// This is DIFFERENT from #gson(), which is for handling the caller's objects.  
-		Gson gson = GsonBuilder.safe()
-				// cautious approach - only do IHasJson for "our" local classes
-				.registerTypeAdapter(Aggregation.class, StandardAdapters.IHASJSONADAPTER)
-				.registerTypeAdapter(Suggester.class, StandardAdapters.IHASJSONADAPTER)
-				.registerTypeAdapter(ESQueryBuilder.class, StandardAdapters.IHASJSONADAPTER)
-				.create();
-		bodyJson = gson.toJson(body); 
+		// This is DIFFERENT from #gson(), which is for handling the caller's objects.
+		// NB: built once per client, not per request
+		Gson gson = hClient==null? ESHttpClient.defaultBodyGson() : hClient.getBodyGson();
+		return gson.toJson(body); 
 //				TODO gson().toJson(body);
-		// sanity check the json				
-//		assert WebUtils2.parseJSON(srcJson) != null : srcJson;
-		return bodyJson;
 	}
 
 	
+	/**
+	 * Over-ride to send the body as a stream, rather than building it as one String via {@link #getBodyJson()}.
+	 * @return null by default. Else a fresh stream on each call (a retry will call again).
+	 */
+	protected Supplier<InputStream> getBodyStream() {
+		return null;
+	}
+	
 	/**
 	 * Actually execute the call.
 	 * 
@@ -362,73 +490,273 @@ public class ESHttpRequest<SubClass extends ESHttpRequest, ResponseSubClass exte
 	 * @return 
 	 * 
 	 * Exceptions are usually caught and put in the response object
-	 * (to fit with async handling). 
+	 * (to fit with async handling). Including connection failures and timeouts -- so the 
+	 * client's retry loop can try another node.
 	 * 
 	 * @exception DocNotFoundException
 	 */
 	protected ESHttpResponse doExecute(ESHttpClient esjc) {
 		final String threadName = Thread.currentThread().getName();
 		Thread.currentThread().setName("ESHttpClient: "+this);	
-		String curl = "";
+		Node node = selectNode(esjc);
+		NodeSelector selector = esjc.getNodeSelector();
+		long start = System.currentTimeMillis();
+		ESMetrics metrics = esjc.getMetrics();
+		long mstart = metrics==null? 0 : metrics.start();
+		long sent = -1;
+		boolean started = false;
 		try {
-			// random load balancing (if we have multiple servers setup)
-			String server = Utils.getRandomMember(esjc.servers);
-			StringBuilder url = getUrl(server);
-
-			// NB: FakeBrowser should close down the IO it uses
-			FakeBrowser fb = fb(esjc);
-			
+			// build the call first: a client-side error (e.g. an unserialisable body) is not the node's fault
+			StringBuilder url = doExecute2_url(node.getServer());
+			// streaming? e.g. a big bulk request
+			Supplier<InputStream> srcStream = getBodyStream();
+			String srcJson = srcStream==null? doExecute2_body(esjc, url) : null;
 			String jsonResult;
-			String srcJson = getBodyJson();
-			// Hack: some antivirus programs intercept HTTP PUT calls without bodies
-			// (seen with ZF 2017)
-			if (Utils.isBlank(srcJson) && "PUT".equals(method)) {
-				srcJson = "{}";
-			}
-			// get/post the request
-			if (srcJson!=null) {
-				// add in the get params
-				WebUtils2.addQueryParameters(url, params);
-				// ?? encode the srcJson for url-encoding ??
-				
-				// DEBUG hack
-				// NB: pretty=true was doc-as-upsert
+			selector.start(node);
+			started = true;
+			if (srcStream != null) {
 				if (debug || esjc.debug) {
-					curl = "curl -X"+(method==null?"POST":method)+" '"+url+"' -d '"+srcJson+"' -H 'Content-Type: application/json'";
-					curlout(curl);
+					curlout("curl -X"+(method==null?"POST":method)+" '"+url+"' --data-binary @-");
 				}
-				
-				assert WebUtils2.parseJSON(srcJson) != null : srcJson;
-				
-				jsonResult = fb.post(url.toString(), "application/json", srcJson);
-								
+				esjc.fireBeforeSend(this, url);
+				jsonResult = esjc.getTransport().sendStream(method, url.toString(), srcStream, headers);
 			} else {
-				assert body == null : body;
-				// NB: create index is a bodyless post
-//				assert ! "POST".equals(req.method) : "No body for post?! Call setSource() From: "+req;
-//				// DEBUG hack
-				if (debug || esjc.debug) {
-					String fullurl = WebUtils2.addQueryParameters(url.toString(), params);
-					curl = "curl -X"+(method==null?"GET":method)+" '"+fullurl+"&pretty=true'";
-					curlout(curl);
-				}
-
-				jsonResult = fb.getPage(url.toString(), (Map)params);
+				sent = srcJson==null? 0 : srcJson.length();
+				esjc.fireBeforeSend(this, url);
+				// NB: the transport pools connections
+				jsonResult = esjc.getTransport().send(method, url.toString(), srcJson, headers);
 			}
+			selector.success(node, System.currentTimeMillis() - start);
+			if (metrics!=null) metrics.done(this, mstart, sent, jsonResult==null? 0 : jsonResult.length(), null);
 			// wrap and return
 			ESHttpResponse r = new ESHttpResponse(this, jsonResult);
+			esjc.fireAfterResponse(this, r, System.currentTimeMillis() - start);
 			return r;
 		} catch(WebEx ex) {
+			doExecute2_record(selector, node, started, start, ex);
 			// Quite possibly a script error
 			// e.g. 40X
-			return new ESHttpResponse(this, wrapError(ex, this));
+			RuntimeException err = wrapError(ex, this);
+			if (metrics!=null) metrics.done(this, mstart, sent, -1, err);
+			esjc.fireError(this, err, System.currentTimeMillis() - start);
+			return new ESHttpResponse(this, err);
 		} catch(Throwable ex) {
-			throw wrapError(ex, this);
+			doExecute2_record(selector, node, started, start, ex);
+			RuntimeException err = wrapError(ex, this);
+			if (metrics!=null) metrics.done(this, mstart, sent, -1, err);
+			esjc.fireError(this, err, System.currentTimeMillis() - start);
+			// a dead or unreachable node: put it in the response, so a retry can go to another node
+			if (NodeSelector.isRetryable(ex)) return new ESHttpResponse(this, err);
+			throw err;
 		} finally {
 			Thread.currentThread().setName(threadName);
 		}
 	}
+	
+	/**
+	 * Execute, but return the response body as a stream -- for responses too big to hold as one String.
+	 * No retries.
+	 * @return The caller must close it
+	 * @throws ESException (or a sub-class) if the call fails
+	 */
+	protected InputStream doExecuteStream(ESHttpClient esjc) {
+		get2_safetyCheck();
+		Node node = selectNode(esjc);
+		NodeSelector selector = esjc.getNodeSelector();
+		long start = System.currentTimeMillis();
+		ESMetrics metrics = esjc.getMetrics();
+		long mstart = metrics==null? 0 : metrics.start();
+		long sent = -1;
+		boolean started = false;
+		try {
+			StringBuilder url = doExecute2_url(node.getServer());
+			String srcJson = doExecute2_body(esjc, url);
+			sent = srcJson==null? 0 : srcJson.length();
+			selector.start(node);
+			started = true;
+			esjc.fireBeforeSend(this, url);
+			InputStream in = esjc.getTransport().openStream(method, url.toString(), srcJson, headers);
+			// NB: time to the first byte
+			selector.success(node, System.currentTimeMillis() - start);
+			if (metrics!=null) metrics.done(this, mstart, sent, -1, null);
+			esjc.fireAfterResponse(this, null, System.currentTimeMillis() - start);
+			return in;
+		} catch(Throwable ex) {
+			doExecute2_record(selector, node, started, start, ex);
+			RuntimeException err = wrapError(ex, this);
+			if (metrics!=null) metrics.done(this, mstart, sent, -1, err);
+			esjc.fireError(this, err, System.currentTimeMillis() - start);
+			throw err;
+		}
+	}
+	
+	/**
+	 * The non-blocking version of {@link #doExecute(ESHttpClient)}: no thread waits on the http call.
+	 * 
+	 * NB: Requests which over-ride doExecute() should over-ride this too -- e.g. with {@link #doExecuteInThread(ESHttpClient)}.
+	 * Streaming requests run in a client thread.
+	 * 
+	 * @return As doExecute(), ES errors are put in the response object. Other errors fail the future.
+	 */
+	protected CompletableFuture<ESHttpResponse> doExecuteAsync(ESHttpClient esjc) {
+		if (getBodyStream() != null) {
+			return doExecuteInThread(esjc);
+		}
+		CompletableFuture<String> jsonResult;
+		Node node = selectNode(esjc);
+		NodeSelector selector = esjc.getNodeSelector();
+		long start = System.currentTimeMillis();
+		ESMetrics metrics = esjc.getMetrics();
+		long mstart = metrics==null? 0 : metrics.start();
+		long sent;
+		boolean started = false;
+		try {
+			// build the call first: a client-side error (e.g. an unserialisable body) is not the node's fault
+			StringBuilder url = doExecute2_url(node.getServer());
+			String srcJson = doExecute2_body(esjc, url);
+			sent = srcJson==null? 0 : srcJson.length();
+			selector.start(node);
+			started = true;
+			esjc.fireBeforeSend(this, url);
+			jsonResult = esjc.getTransport().sendAsync(method, url.toString(), srcJson, headers, esjc.getExecutor());
+		} catch(Throwable ex) {
+			doExecute2_record(selector, node, started, start, ex);
+			RuntimeException err = wrapError(ex, this);
+			if (metrics!=null) metrics.done(this, mstart, -1, -1, err);
+			esjc.fireError(this, err, System.currentTimeMillis() - start);
+			return CompletableFuture.failedFuture(err);
+		}
+		return jsonResult.handle((json, ex) -> {
+			if (ex==null) {
+				selector.success(node, System.currentTimeMillis() - start);
+				if (metrics!=null) metrics.done(this, mstart, sent, json==null? 0 : json.length(), null);
+				ESHttpResponse r = new ESHttpResponse(this, json);
+				esjc.fireAfterResponse(this, r, System.currentTimeMillis() - start);
+				return r;
+			}
+			Throwable cause = ex instanceof CompletionException && ex.getCause()!=null? ex.getCause() : ex;
+			doExecute2_record(selector, node, true, start, cause);
+			RuntimeException err = wrapError(cause, this);
+			if (metrics!=null) metrics.done(this, mstart, sent, -1, err);
+			esjc.fireError(this, err, System.currentTimeMillis() - start);
+			if (cause instanceof WebEx || NodeSelector.isRetryable(cause)) {
+				// e.g. 40X, or a dead node (which a retry can avoid)
+				return new ESHttpResponse(this, err);
+			}
+			throw err;
+		});
+	}
+	
+	/**
+	 * {@link #doExecute(ESHttpClient)}, but joining an identical call if one is in flight and single-flight is on.
+	 */
+	final ESHttpResponse doExecuteShared(ESHttpClient esjc) {
+		SingleFlight sf = esjc.getSingleFlight();
+		if (sf == null || ! sf.isOn(this)) {
+			return doExecute(esjc);
+		}
+		// the first caller makes the call in its own thread
+		CompletableFuture<ESHttpResponse> f = sf.run(this, () -> CompletableFuture.completedFuture(doExecute(esjc)));
+		try {
+			return f.join();
+		} catch(CompletionException ex) {
+			throw wrapError(ex.getCause()==null? ex : ex.getCause(), this);
+		}
+	}
+
+	/**
+	 * {@link #doExecuteAsync(ESHttpClient)}, but joining an identical call if one is in flight and single-flight is on.
+	 */
+	final CompletableFuture<ESHttpResponse> doExecuteAsyncShared(ESHttpClient esjc) {
+		SingleFlight sf = esjc.getSingleFlight();
+		if (sf == null || ! sf.isOn(this)) {
+			return doExecuteAsync(esjc);
+		}
+		return sf.run(this, () -> doExecuteAsync(esjc));
+	}
+	
+	/**
+	 * For "complex" requests which cannot do {@link #doExecuteAsync(ESHttpClient)}: run the blocking 
+	 * {@link #doExecute(ESHttpClient)} in a client thread.
+	 */
+	protected final CompletableFuture<ESHttpResponse> doExecuteInThread(ESHttpClient esjc) {
+		return CompletableFuture.supplyAsync(() -> doExecute(esjc), esjc.getExecutor());
+	}
 
+	/**
+	 * Load balancing (if we have multiple servers setup), steering away from sick nodes. 
+	 * A retry goes to a different node if there is one.
+	 */
+	protected final Node selectNode(ESHttpClient esjc) {
+		Node node = esjc.getNodeSelector().select(esjc.servers, 
+				lastServer==null? null : Collections.singleton(lastServer));
+		lastServer = node.getServer();
+		return node;
+	}
+	
+	/**
+	 * A 40X means the node is fine (it's the request that's wrong). Only transport, connection and 50X errors
+	 * count against the node -- anything else just ends the call.
+	 * @param started false if the call failed before it was sent (e.g. a bad body)
+	 */
+	private static void doExecute2_record(NodeSelector selector, Node node, boolean started, long start, Throwable ex) {
+		if ( ! started) {
+			selector.cancel(node);
+		} else if (ex instanceof WebEx.E40X) {
+			selector.success(node, System.currentTimeMillis() - start);
+		} else if (NodeSelector.isNodeFailure(ex)) {
+			selector.failure(node, ex);
+		} else {
+			selector.release(node);
+		}
+	}
+	
+	/**
+	 * @return the url, with get parameters, on the server
+	 */
+	private StringBuilder doExecute2_url(String server) {
+		StringBuilder url = getUrl(server);
+		// add in the get params
+		WebUtils2.addQueryParameters(url, params);
+		return url;
+	}
+	
+	/**
+	 * @return the json to send, or null. Logs a curl if debug is on.
+	 */
+	private String doExecute2_body(ESHttpClient esjc, StringBuilder url) {
+		String srcJson = getBodyJson();
+		// Hack: some antivirus programs intercept HTTP PUT calls without bodies
+		// (seen with ZF 2017)
+		if (Utils.isBlank(srcJson) && "PUT".equals(method)) {
+			srcJson = "{}";
+		}
+		// get/post the request
+		if (srcJson!=null) {
+			// ?? encode the srcJson for url-encoding ??
+			
+			// DEBUG hack
+			// NB: pretty=true was doc-as-upsert
+			if (debug || esjc.debug) {
+				curlout("curl -X"+(method==null?"POST":method)+" '"+url+"' -d '"+srcJson+"' -H 'Content-Type: application/json'");
+			}
+			
+			assert WebUtils2.parseJSON(srcJson) != null : srcJson;
+		} else {
+			assert body == null : body;
+			// NB: create index is a bodyless post
+//			assert ! "POST".equals(req.method) : "No body for post?! Call setSource() From: "+req;
+//			// DEBUG hack
+			if (debug || esjc.debug) {
+				curlout("curl -X"+(method==null?"GET":method)+" '"+url+"&pretty=true'");
+			}
+		}
+		return srcJson;
+	}
+
+	/**
+	 * @deprecated Use {@link ESHttpClient#getTransport()} which re-uses connections.
+	 */
 	protected FakeBrowser fb(ESHttpClient esjc) {
 		FakeBrowser fb = new FakeBrowser();			//.setDebug(true);
 		fb.setMaxDownload(-1); // Your data, your bandwidth, your call.
@@ -488,7 +816,7 @@ public class ESHttpRequest<SubClass extends ESHttpRequest, ResponseSubClass exte
 	 * @param req 
 	 * @return
 	 */
-	private RuntimeException wrapError(Throwable ex, ESHttpRequest req) {
+	RuntimeException wrapError(Throwable ex, ESHttpRequest req) {
 		if (ex instanceof IElasticException) return (RuntimeException) ex;
 		if (ex instanceof ESException) return (RuntimeException) ex;
 		if (ex instanceof WebEx.E404) {
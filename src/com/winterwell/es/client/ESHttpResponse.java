@@ -1,11 +1,13 @@
 package com.winterwell.es.client;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 import com.winterwell.es.client.agg.AggregationResults;
 import com.winterwell.es.fail.ESBulkException;
+import com.winterwell.es.fail.ESBulkItemException;
 import com.winterwell.es.fail.ESException;
 import com.winterwell.gson.Gson;
 import com.winterwell.gson.GsonBuilder;
@@ -42,6 +44,10 @@ IHasJson
 	 */
 	private final transient ESHttpRequest req;
 	private Map parsed;
+	/**
+	 * Parsed once, on demand, by {@link #getJsonMap()}. Read-only.
+	 */
+	private transient Map<String, Object> jsonMap;
 	private boolean sourceOnly;
 
 	/* (non-Javadoc)
@@ -73,6 +79,16 @@ IHasJson
 		this(req, null, ex);
 	}
 
+	/**
+	 * For a part of a bigger response (e.g. one _msearch item), which has been parsed already.
+	 * @param jsonMap Must be read-only, as from {@link #getJsonMap()}
+	 */
+	static ESHttpResponse parsed(ESHttpRequest req, String json, Map<String, Object> jsonMap) {
+		ESHttpResponse r = new ESHttpResponse(req, json);
+		r.jsonMap = jsonMap;
+		return r;
+	}
+
 	ESHttpResponse(ESHttpRequest req, String json, RuntimeException ex) {
 		this.req = req;
 		this.json = json;
@@ -118,7 +134,7 @@ IHasJson
 	}
 	
 	public Object getFromResultFields(String input) {
-		Map<String, Object> map = getParsedJson();
+		Map<String, Object> map = getJsonMap();
 		// is it just the source?
 		Object get = map.get("get");
 		Object fields = ((Map) get).get("fields");
@@ -126,9 +142,9 @@ IHasJson
 	}
 	
 	/**
-	 * @return Could contain POJOs depending on gson setup.
-	 *  
-	 * @see #getJsonMap() which uses a "plain gson" for Map objects 
+	 * A separate parse, with the client's Gson -- so it could contain POJOs depending on gson setup.
+	 * The doc accessors -- getSourceAsMap(), getHits(), getSuggesterHits() -- use this, so callers get docs they can edit.
+	 * @return a mutable map 
 	 */
 	public Map<String, Object> getParsedJson() {
 		if (parsed!=null) return parsed;		
@@ -138,20 +154,50 @@ IHasJson
 	
 	/**
 	 * Uses a "plain" (inflexible) Gson, so nothing gets converted into "fancy" POJOs.
-	 * @return
+	 * 
+	 * The json is parsed once, and the accessors (getTotal(), getSearchResults(), getAggregations() etc.) share the result.
+	 * (The exceptions are the doc accessors which use {@link #getParsedJson()}, and POJO conversion, e.g. getSearchResults(Class), 
+	 * which use the client's Gson.)
+	 * So it is read-only: modifying it throws an exception. Use {@link #getJson()} if you want a fresh copy to edit.
+	 * @return never null for a successful response
 	 */
 	public Map<String, Object> getJsonMap() {
-		Map map = plainGson().fromJson(json, Map.class);
+		Map<String, Object> map = jsonMap;
+		if (map != null) return map;
+		if (json==null) return null;
+		map = (Map) readOnly(plainGson().fromJson(json, Map.class));
+		jsonMap = map;
 		return map;
 	}
 	
+	/**
+	 * Wrap the tree in place: Maps and Lists become unmodifiable. One pass, no copying.
+	 */
+	static Object readOnly(Object x) {
+		if (x instanceof Map) {
+			Map<Object,Object> map = (Map) x;
+			for (Map.Entry<Object,Object> e : map.entrySet()) {
+				e.setValue(readOnly(e.getValue()));
+			}
+			return Collections.unmodifiableMap(map);
+		}
+		if (x instanceof List) {
+			List<Object> list = (List) x;
+			list.replaceAll(ESHttpResponse::readOnly);
+			return Collections.unmodifiableList(list);
+		}
+		return x;
+	}
 	
+	private static final Gson PLAIN_GSON = new GsonBuilder()
+			.setClassProperty(null)
+			.create();
 	
-	private Gson plainGson() {
-		Gson gb = new GsonBuilder()
-						.setClassProperty(null)
-						.create();
-		return gb;
+	/**
+	 * @return A shared Gson with no class-property magic. Gson is thread safe.
+	 */
+	static Gson plainGson() {
+		return PLAIN_GSON;
 	}
 
 	/**
@@ -171,7 +217,7 @@ IHasJson
 			if (Dep.has(Gson.class)) {
 				return Dep.get(Gson.class);
 			}
-			return new Gson(); // fallback to default
+			return plainGson(); // fallback to default
 		}
 		return req.hClient.config.getGson();				
 	}
@@ -198,7 +244,7 @@ IHasJson
 		if (sourceOnly) {
 			return json;
 		}
-		Map<String, Object> map = getParsedJson();
+		Map<String, Object> map = getJsonMap();
 		Object source = map.get("_source");
 		return gson().toJson(source);
 	}
@@ -209,7 +255,7 @@ IHasJson
 		if ( ! isSuccess()) {			
 			return true;
 		}
-		Map<String, Object> map = getParsedJson();
+		Map<String, Object> map = getJsonMap();
 		Object fails = map.get("errors"); // NB: boolean in ESv7, was the errors in ESv5		
 		if (Utils.yes(fails)) {
 			return true;
@@ -232,28 +278,43 @@ IHasJson
 	}
 	
 	/**
-	 * TODO handle bulk-request errors nicely
-	 * @return
+	 * @return An {@link ESBulkException} listing the failed items, or null
 	 */
 	RuntimeException getBulkErrors() {
-		List<Exception> errors = new ArrayList<>();
-		Map<String, Object> parsedJson = getParsedJson();
+		List<ESBulkItemException> itemErrors = getItemErrors();
+		if ( ! itemErrors.isEmpty()) {
+			return new ESBulkException((List) itemErrors);
+		}		
+		return null;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Each failed item is linked to its original action in the {@link BulkRequest} (if this response has its request). 
+	 */
+	@Override
+	public List<ESBulkItemException> getItemErrors() {
+		List<ESBulkItemException> errors = new ArrayList<>();
+		if (json==null) return errors;
+		Map<String, Object> parsedJson = getJsonMap();
 		List<Map<String, Map<String, Object>>> items = (List) parsedJson.get("items");
-		if (items == null) return null;
-		for(Map<String, Map<String, Object>> item : items) {
+		if (items == null) return errors;
+		List<ESHttpRequest> actions = req instanceof BulkRequest? ((BulkRequest) req).getActions() : null;
+		for(int i=0; i<items.size(); i++) {
+			Map<String, Map<String, Object>> item = items.get(i);
+			// NB: one key, the op, e.g. "index"
 			for (Map.Entry<String, Map<String, Object>> entry : item.entrySet()) {
 				Map<String, Object> values = entry.getValue();
 				Map err = (Map) values.get("error");
 				if (err == null) continue;
-				String errs = err.toString();
-				ESException ex = new ESException((String)err.get("reason"));				
+				Number status = (Number) values.get("status");
+				ESHttpRequest action = actions==null || i >= actions.size()? null : actions.get(i);
+				ESBulkItemException ex = new ESBulkItemException(i, status==null? 0 : status.intValue(), err, action);
 				errors.add(ex);									
 			}
 		}
-		if ( ! errors.isEmpty()) {
-			return new ESBulkException(errors);
-		}		
-		return null;
+		return errors;
 	}
 	
 	
@@ -320,7 +381,7 @@ IHasJson
 	@Override
 	public Map getAggregations() {
 		if ( ! isSuccess()) throw error;
-		Map<String, Object> map = getParsedJson();
+		Map<String, Object> map = getJsonMap();
 		Map hits = (Map) map.get("aggregations");
 		return hits;
 	}
@@ -360,7 +421,7 @@ IHasJson
 	@Override
 	public Map getFacets() {
 		if ( ! isSuccess()) throw error;
-		Map<String, Object> map = getParsedJson();
+		Map<String, Object> map = getJsonMap();
 		Object hits = map.get("facets");
 		return (Map) hits;
 	}
@@ -368,7 +429,7 @@ IHasJson
 	@Override
 	public Map getFieldsFromGet() {
 		if (error!=null) throw error;
-		Map<String, Object> map = getParsedJson();
+		Map<String, Object> map = getJsonMap();
 		Map<String, Object> get = (Map<String, Object>) map.get("get");
 		Map<String, Object> hits = (Map<String, Object>) (Map<String, Object>) get.get("fields");
 		return hits;
@@ -377,7 +438,7 @@ IHasJson
 	@Override
 	public String getScrollId() {
 		if ( ! isSuccess()) throw error;
-		Map<String, Object> map = getParsedJson();
+		Map<String, Object> map = getJsonMap();
 		Object sid = map.get("_scroll_id");
 		return (String) sid;
 	}
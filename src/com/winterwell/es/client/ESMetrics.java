@@ -0,0 +1,193 @@
+package com.winterwell.es.client;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.winterwell.utils.StrUtils;
+
+/**
+ * Numbers for an {@link ESHttpClient}: latency histograms per endpoint (e.g. "_search", or the request class
+ * for document calls) and per index, request / response sizes, retries, errors by type, 
+ * and gauges for calls in flight and the thread queue.
+ * 
+ * Recorded around each http call (so a retry counts as another call). Low overhead: no locks on the recording path.
+ * Sizes are in chars of json, which is approximately bytes.
+ * 
+ * Read it via {@link ESHttpClient#getMetrics()}, or publish it via an {@link IMetricsRegistry} -- e.g. JMX, with {@link ESConfig#esMetricsJmx}.
+ * Switch off with {@link ESConfig#esMetrics}.
+ * 
+ * @testedby ESMetricsTest
+ * @author daniel
+ */
+public class ESMetrics {
+
+	/**
+	 * Used once there are {@link ESConfig#esMetricsMaxKeys} endpoints (or indices) -- so we don't grow without bound.
+	 */
+	static final String OTHER = "_other";
+
+	private final ExecutorService executor;
+	private final int maxKeys;
+
+	private final ConcurrentHashMap<String, LatencyHistogram> endpoints = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, LatencyHistogram> indices = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder charsSent = new LongAdder();
+	private final LongAdder charsReceived = new LongAdder();
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger threadedInFlight = new AtomicInteger();
+
+	/**
+	 * @param executor The client's threads -- for the queue gauge
+	 */
+	public ESMetrics(ExecutorService executor, ESConfig config) {
+		this.executor = executor;
+		this.maxKeys = config.esMetricsMaxKeys;
+	}
+
+	/**
+	 * An http call is starting.
+	 * @return the start time, to pass to {@link #done(ESHttpRequest, long, long, long, Throwable)}
+	 */
+	long start() {
+		inFlight.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	/**
+	 * An http call has finished.
+	 * @param sent chars of json sent, or -1 if unknown (e.g. streamed)
+	 * @param received chars of json received, or -1 if unknown
+	 * @param error null for success
+	 */
+	void done(ESHttpRequest req, long start, long sent, long received, Throwable error) {
+		long micros = (System.nanoTime() - start) / 1000;
+		inFlight.decrementAndGet();
+		requests.increment();
+		if (sent > 0) charsSent.add(sent);
+		if (received > 0) charsReceived.add(received);
+		histogram(endpoints, endpoint(req)).record(micros);
+		String idx = index(req);
+		if (idx != null) histogram(indices, idx).record(micros);
+		if (error != null) {
+			errors.computeIfAbsent(error.getClass().getSimpleName(), k -> new LongAdder()).increment();
+		}
+	}
+
+	void retry() {
+		retries.increment();
+	}
+
+	void startThreaded() {
+		threadedInFlight.incrementAndGet();
+	}
+
+	void doneThreaded() {
+		threadedInFlight.decrementAndGet();
+	}
+
+	private LatencyHistogram histogram(ConcurrentHashMap<String, LatencyHistogram> map, String key) {
+		LatencyHistogram h = map.get(key);
+		if (h != null) return h;
+		if (map.size() >= maxKeys) key = OTHER;
+		return map.computeIfAbsent(key, k -> new LatencyHistogram());
+	}
+
+	/**
+	 * @return e.g. "_search", or for plain doc calls the request type, e.g. "GetRequest"
+	 */
+	static String endpoint(ESHttpRequest req) {
+		return req.endpoint != null? req.endpoint : req.getClass().getSimpleName();
+	}
+
+	/**
+	 * @return e.g. "myindex", "_all", or null for calls which are not on an index
+	 */
+	static String index(ESHttpRequest req) {
+		if (req.indices == null) return "_all";
+		if (req.indices.isEmpty() || req.indices.get(0) == null) return null;
+		return StrUtils.join(req.indices, ",");
+	}
+
+	/**
+	 * @param endpoint e.g. "_search"
+	 * @return null if there have been no such calls
+	 */
+	public LatencyHistogram getLatency(String endpoint) {
+		return endpoints.get(endpoint);
+	}
+
+	/**
+	 * @return null if there have been no calls on this index (or it fell in {@link #OTHER})
+	 */
+	public LatencyHistogram getIndexLatency(String index) {
+		return indices.get(index);
+	}
+
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	public long getRetries() {
+		return retries.sum();
+	}
+
+	/**
+	 * @return http calls underway now
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return tasks waiting for a client thread, or -1 if unknown (e.g. virtual threads)
+	 */
+	public int getQueueDepth() {
+		if (executor instanceof ThreadPoolExecutor) {
+			return ((ThreadPoolExecutor) executor).getQueue().size();
+		}
+		return -1;
+	}
+
+	/**
+	 * @return error type (simple class name, e.g. "ESIndexNotFoundException") to count
+	 */
+	public Map<String, Long> getErrors() {
+		Map<String, Long> map = new TreeMap<>();
+		errors.forEach((k, v) -> map.put(k, v.sum()));
+		return map;
+	}
+
+	/**
+	 * @return Everything, flattened to name: number. E.g. "requests", "errors.ESDocNotFoundException", 
+	 * "latency._search.p99", "index.myindex.p99" (latencies in milliseconds). Sorted by name.
+	 */
+	public Map<String, Object> getSnapshot() {
+		Map<String, Object> snap = new TreeMap<>();
+		snap.put("requests", getRequests());
+		snap.put("retries", getRetries());
+		snap.put("charsSent", charsSent.sum());
+		snap.put("charsReceived", charsReceived.sum());
+		snap.put("inFlight", getInFlight());
+		snap.put("threadedInFlight", threadedInFlight.get());
+		snap.put("queueDepth", getQueueDepth());
+		getErrors().forEach((k, v) -> snap.put("errors."+k, v));
+		endpoints.forEach((k, h) -> h.getStats().forEach((s, v) -> snap.put("latency."+k+"."+s, v)));
+		indices.forEach((k, h) -> h.getStats().forEach((s, v) -> snap.put("index."+k+"."+s, v)));
+		return snap;
+	}
+
+	@Override
+	public String toString() {
+		return "ESMetrics[requests="+getRequests()+" inFlight="+getInFlight()+" errors="+getErrors()+"]";
+	}
+}
@@ -0,0 +1,209 @@
+package com.winterwell.es.client;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.winterwell.es.fail.ESException;
+import com.winterwell.utils.time.Dt;
+
+/**
+ * A handle on a long-running ES task -- e.g. a _reindex or _update_by_query run with wait_for_completion=false.
+ *
+ * https://www.elastic.co/guide/en/elasticsearch/reference/current/tasks.html
+ *
+ * @testedby ParallelReindexTest
+ * @author daniel
+ */
+public class ESTask {
+
+	private final ESHttpClient esjc;
+	private final String taskId;
+	/**
+	 * e.g. "_reindex" -- for rethrottle
+	 */
+	private final String action;
+
+	private volatile boolean completed;
+	private volatile Map<String, Object> status = Collections.emptyMap();
+	private volatile Map<String, Object> response;
+	private volatile Map<String, Object> error;
+	private CompletableFuture<Map<String, Object>> future;
+	/**
+	 * From the request which started the task, e.g. X-Opaque-Id -- for the follow-up calls
+	 */
+	private Map<String, String> headers;
+
+	/**
+	 * @param taskId e.g. "oTUltX4IQMOUUVeiohTt8A:12345"
+	 * @param action The endpoint which made it, e.g. "_reindex", "_update_by_query", "_delete_by_query".
+	 */
+	public ESTask(ESHttpClient esjc, String taskId, String action) {
+		this.esjc = esjc;
+		this.taskId = taskId;
+		this.action = action;
+	}
+
+	/**
+	 * Run req with wait_for_completion=false, to get a task.
+	 * @param action e.g. "_reindex"
+	 */
+	static CompletableFuture<ESTask> start(ESHttpRequest<?, ?> req, String action) {
+		req.params.put("wait_for_completion", false);
+		ESHttpClient esjc = req.hClient;
+		return req.executeAsync().thenApply(r -> {
+			r.check();
+			String id = (String) ((ESHttpResponse) r).getJsonMap().get("task");
+			if (id == null) throw new ESException("No task from "+req+": "+r.getJson());
+			ESTask task = new ESTask(esjc, id, action);
+			task.headers = req.getHeaders();
+			return task;
+		});
+	}
+
+	public String getTaskId() {
+		return taskId;
+	}
+
+	/**
+	 * Fetch the latest status from ES.
+	 * @return this
+	 */
+	public ESTask refresh() {
+		ESHttpRequest req = new ESHttpRequest(esjc, "_tasks/"+taskId).setInternal(headers);
+		req.method = "GET";
+		req.setIndices();
+		IESResponse r = req.get();
+		r.check();
+		update(((ESHttpResponse) r).getJsonMap());
+		return this;
+	}
+
+	private void update(Map<String, Object> json) {
+		Map task = (Map) json.get("task");
+		if (task != null && task.get("status") instanceof Map) {
+			status = (Map) task.get("status");
+		}
+		response = (Map) json.get("response");
+		error = (Map) json.get("error");
+		completed = Boolean.TRUE.equals(json.get("completed"));
+	}
+
+	/**
+	 * @return as of the last {@link #refresh()}
+	 */
+	public boolean isCompleted() {
+		return completed;
+	}
+
+	/**
+	 * @return The task status as of the last {@link #refresh()}, e.g. total, created, updated, deleted, batches,
+	 * version_conflicts, requests_per_second. Empty if unknown.
+	 */
+	public Map<String, Object> getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return The final response (once completed), e.g. took, created, failures. Can be null.
+	 */
+	public Map<String, Object> getResponse() {
+		return response;
+	}
+
+	/**
+	 * @return [0, 1] as of the last {@link #refresh()} -- docs done / total.
+	 */
+	public double getProgress() {
+		if (completed) return 1;
+		long total = num(status.get("total"));
+		if (total <= 0) return 0;
+		long done = num(status.get("created")) + num(status.get("updated")) + num(status.get("deleted"))
+					+ num(status.get("version_conflicts")) + num(status.get("noops"));
+		return Math.min(1.0, done / (double) total);
+	}
+
+	static long num(Object n) {
+		return n instanceof Number? ((Number) n).longValue() : 0;
+	}
+
+	/**
+	 * Change the speed limit whilst it runs.
+	 * @param requestsPerSecond -1 for unlimited
+	 */
+	public void rethrottle(float requestsPerSecond) {
+		ESHttpRequest req = new ESHttpRequest(esjc, action+"/"+taskId+"/_rethrottle").setInternal(headers);
+		req.method = "POST";
+		req.setIndices();
+		req.params.put("requests_per_second", requestsPerSecond < 0? "-1" : Float.toString(requestsPerSecond));
+		req.get().check();
+	}
+
+	/**
+	 * Ask ES to stop the task. Work done so far is not undone.
+	 */
+	public void cancel() {
+		ESHttpRequest req = new ESHttpRequest(esjc, "_tasks/"+taskId+"/_cancel").setInternal(headers);
+		req.method = "POST";
+		req.setIndices();
+		req.get().check();
+	}
+
+	/**
+	 * Poll ES (without tying up a thread) until the task completes.
+	 * @param pollInterval e.g. 1 second
+	 * @return The final response. Fails with an ESException if the task had an error or failures.
+	 * Repeat calls return the same future.
+	 */
+	public synchronized CompletableFuture<Map<String, Object>> whenDone(Dt pollInterval) {
+		if (future != null) return future;
+		future = new CompletableFuture<>();
+		poll(pollInterval.getMillisecs());
+		return future;
+	}
+
+	private void poll(long pollMsecs) {
+		if (future.isDone()) return; // e.g. cancelled by the caller
+		ESHttpRequest req = new ESHttpRequest(esjc, "_tasks/"+taskId).setInternal(headers);
+		req.method = "GET";
+		req.setIndices();
+		CompletableFuture<IESResponse> f = req.executeAsync();
+		f.whenComplete((r, ex) -> {
+			try {
+				if (ex != null) throw ex;
+				r.check();
+				update(((ESHttpResponse) r).getJsonMap());
+				if (completed) {
+					done();
+					return;
+				}
+				esjc.getTimer().schedule(() -> poll(pollMsecs), pollMsecs, TimeUnit.MILLISECONDS);
+			} catch(RejectedExecutionException closed) {
+				future.completeExceptionally(new ESException("Client closed whilst waiting for task "+taskId, closed));
+			} catch(Throwable ex2) {
+				future.completeExceptionally(ex2);
+			}
+		});
+	}
+
+	private void done() {
+		if (error != null) {
+			future.completeExceptionally(new ESException("Task "+taskId+" failed: "+error));
+			return;
+		}
+		List failures = response==null? null : (List) response.get("failures");
+		if (failures != null && ! failures.isEmpty()) {
+			future.completeExceptionally(new ESException("Task "+taskId+" had "+failures.size()+" failures, e.g. "+failures.get(0)));
+			return;
+		}
+		future.complete(response);
+	}
+
+	@Override
+	public String toString() {
+		return "ESTask["+action+" "+taskId+(completed? " done" : " "+status)+"]";
+	}
+}
@@ -0,0 +1,65 @@
+package com.winterwell.es.client;
+
+import java.util.Map;
+
+import com.winterwell.web.FakeBrowser;
+import com.winterwell.web.WebEx;
+
+/**
+ * The original transport: a fresh {@link FakeBrowser} (and so a fresh connection) for every call.
+ * Slow at high request rates -- but handy for debugging, as FakeBrowser can log the raw http.
+ *
+ * @see PooledHttpTransport
+ * @author daniel
+ *
+ */
+public class FakeBrowserTransport implements IESTransport {
+
+	private final ESConfig config;
+
+	private boolean debug;
+
+	public FakeBrowserTransport(ESConfig config) {
+		this.config = config;
+	}
+
+	public FakeBrowserTransport setDebug(boolean debug) {
+		this.debug = debug;
+		return this;
+	}
+
+	@Override
+	public String send(String method, String url, String body) throws WebEx {
+		return send(method, url, body, null);
+	}
+
+	@Override
+	public String send(String method, String url, String body, Map<String, String> headers) throws WebEx {
+		// NB: FakeBrowser should close down the IO it uses
+		FakeBrowser fb = new FakeBrowser();
+		fb.setMaxDownload(-1); // Your data, your bandwidth, your call.
+		fb.setTimeOut(config.esRequestTimeout);
+		// e.g. HEAD
+		fb.setRequestMethod(method);
+		fb.setDebug(debug);
+		// NB: beware of post(String,String) or post(String,Map) which ignore this content-type setting
+		fb.setRequestHeader("Content-Type", "application/json");
+		if (headers != null) {
+			headers.forEach(fb::setRequestHeader);
+		}
+		if (body==null) {
+			return fb.getPage(url);
+		}
+		return fb.post(url, "application/json", body);
+	}
+
+	@Override
+	public void close() {
+		// no-op: nothing is kept open
+	}
+
+	@Override
+	public String toString() {
+		return "FakeBrowserTransport";
+	}
+}
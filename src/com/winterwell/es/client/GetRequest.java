@@ -1,5 +1,7 @@
 package com.winterwell.es.client;
 
+import java.util.concurrent.CompletableFuture;
+
 import com.winterwell.utils.StrUtils;
 
 /**
@@ -10,6 +12,8 @@ import com.winterwell.utils.StrUtils;
 public class GetRequest extends ESHttpRequest<GetRequest,GetResponse> {
 	
 	boolean sourceOnly;
+	
+	boolean useDocCache = true;
 
 	public GetRequest(ESHttpClient hClient) {
 		super(hClient, null);
@@ -67,6 +71,32 @@ public class GetRequest extends ESHttpRequest<GetRequest,GetResponse> {
 		return this;
 	}
 
+	/**
+	 * @param b false to skip the client's {@link DocCache} (if it has one) and read from ES. Default: true
+	 */
+	public GetRequest setUseDocCache(boolean b) {
+		useDocCache = b;
+		return this;
+	}
+
+	@Override
+	protected ESHttpResponse doExecute(ESHttpClient esjc) {
+		DocCache cache = esjc.getDocCache();
+		if (cache != null && cache.canCache(this)) {
+			return cache.get(this);
+		}
+		return super.doExecute(esjc);
+	}
+
+	@Override
+	protected CompletableFuture<ESHttpResponse> doExecuteAsync(ESHttpClient esjc) {
+		DocCache cache = esjc.getDocCache();
+		if (cache != null && cache.canCache(this)) {
+			return cache.getAsync(this);
+		}
+		return super.doExecuteAsync(esjc);
+	}
+
 
 	
 
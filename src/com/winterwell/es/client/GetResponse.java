@@ -5,7 +5,7 @@ import java.util.Map;
 public interface GetResponse extends IESResponse {
 
 	/**
-	 * @return the _source object from a Get request.
+	 * @return the _source object from a Get request. A fresh parse (via the client's Gson), so you can edit it.
 	 * NB: This is aware of the just-the-source GetRequestBuilder option 
 	 */
 	Map<String, Object> getSourceAsMap();
@@ -0,0 +1,48 @@
+package com.winterwell.es.client;
+
+/**
+ * Hooks around each request an {@link ESHttpClient} makes -- e.g. for tracing, logging or auditing.
+ * Add with {@link ESHttpClient#addListener(IESRequestListener)}. All methods default to do-nothing.
+ * 
+ * Listeners are called inline, so keep them quick. An exception from a listener is logged and ignored.
+ * 
+ * @see TraceIdListener
+ * @testedby IESRequestListenerTest
+ * @author daniel
+ */
+public interface IESRequestListener {
+
+	/**
+	 * Once per request, in the caller's thread (so thread-local context, e.g. a trace id, is available).
+	 * Called before any retries, caching or thread hand-off. 
+	 * Can modify the request, e.g. {@link ESHttpRequest#setOpaqueId(String)}.
+	 * 
+	 * Not called for the sub-requests the client makes itself (e.g. a coalesced _msearch, a doc-cache fetch,
+	 * task polling) -- those carry the caller's headers instead.
+	 */
+	default void onSubmit(ESHttpRequest<?, ?> req) {
+	}
+
+	/**
+	 * Each http call, including retries. Possibly in a client thread.
+	 * Can still add headers via {@link ESHttpRequest#setHeader(String, String)}.
+	 * @param url The full url, with parameters
+	 */
+	default void beforeSend(ESHttpRequest<?, ?> req, String url) {
+	}
+
+	/**
+	 * @param response null if the response is streamed
+	 * @param msecs http call time
+	 */
+	default void afterResponse(ESHttpRequest<?, ?> req, ESHttpResponse response, long msecs) {
+	}
+
+	/**
+	 * The call failed -- either ES returned an error (e.g. a 404), or we could not reach it.
+	 * @param error usually an {@link com.winterwell.es.fail.ESException}
+	 * @param msecs http call time
+	 */
+	default void onError(ESHttpRequest<?, ?> req, Throwable error, long msecs) {
+	}
+}
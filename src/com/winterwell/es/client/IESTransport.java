@@ -0,0 +1,122 @@
+package com.winterwell.es.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import com.winterwell.utils.Utils;
+import com.winterwell.web.WebEx;
+
+/**
+ * The http layer underneath {@link ESHttpClient}. Plug in your own via {@link ESHttpClient#setTransport(IESTransport)}.
+ *
+ * Implementations must be thread safe -- one transport is shared by all the requests of a client.
+ *
+ * @see PooledHttpTransport the default
+ * @see FakeBrowserTransport the old one-connection-per-request behaviour
+ * @author daniel
+ *
+ */
+public interface IESTransport extends Closeable {
+
+	/**
+	 * Make an http call.
+	 *
+	 * @param method e.g. GET | POST | PUT | DELETE | HEAD. If null, then GET for body-less calls, and POST otherwise.
+	 * @param url The full url, including any get parameters
+	 * @param body Can be null. Sent as application/json
+	 * @return The response body. Never null (but can be "", e.g. for HEAD)
+	 * @throws WebEx for a 40X or 50X response
+	 */
+	String send(String method, String url, String body) throws WebEx;
+
+	/**
+	 * As {@link #send(String, String, String)}, but the body is streamed out as it is read -- so it never has to
+	 * sit in memory in one piece. 
+	 * 
+	 * This default reads the whole stream into a String, which is correct but not memory-saving.
+	 * Transports should over-ride it.
+	 * 
+	 * @param body Called once per send, to get a fresh stream of utf-8 bytes. The transport closes the stream.
+	 */
+	default String sendStream(String method, String url, Supplier<InputStream> body) throws WebEx {
+		try (InputStream in = body.get()) {
+			String sbody = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			return send(method, url, sbody);
+		} catch (IOException e) {
+			throw Utils.runtime(e);
+		}
+	}
+
+	/**
+	 * As {@link #send(String, String, String)}, but the response body is returned as a stream, to be read
+	 * as it arrives -- so a big response never has to sit in memory in one piece.
+	 * 
+	 * This default reads the whole response into a String, which is correct but not memory-saving.
+	 * Transports should over-ride it.
+	 * 
+	 * @return utf-8 bytes. The caller must close it (which may free the connection for re-use).
+	 * @throws WebEx for a 40X or 50X response
+	 */
+	default InputStream openStream(String method, String url, String body) throws WebEx {
+		String json = send(method, url, body);
+		return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * As {@link #send(String, String, String)}, but without waiting.
+	 * 
+	 * This default blocks a thread from the executor for the call. Non-blocking transports should over-ride it.
+	 * 
+	 * @param executor The client's threads -- for use by transports which have to block.
+	 * @return The response body. Fails with {@link WebEx} for a 40X or 50X response
+	 */
+	default CompletableFuture<String> sendAsync(String method, String url, String body, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> send(method, url, body), executor);
+	}
+
+	/**
+	 * As {@link #send(String, String, String)}, plus extra http headers, e.g. X-Opaque-Id.
+	 * 
+	 * This default ignores the headers. Transports should over-ride it (and the other with-headers methods).
+	 * 
+	 * @param headers Can be null
+	 */
+	default String send(String method, String url, String body, Map<String, String> headers) throws WebEx {
+		return send(method, url, body);
+	}
+
+	/**
+	 * As {@link #sendStream(String, String, Supplier)}, plus extra http headers. This default ignores them.
+	 */
+	default String sendStream(String method, String url, Supplier<InputStream> body, Map<String, String> headers) throws WebEx {
+		return sendStream(method, url, body);
+	}
+
+	/**
+	 * As {@link #openStream(String, String, String)}, plus extra http headers. This default ignores them.
+	 */
+	default InputStream openStream(String method, String url, String body, Map<String, String> headers) throws WebEx {
+		return openStream(method, url, body);
+	}
+
+	/**
+	 * As {@link #sendAsync(String, String, String, Executor)}, plus extra http headers. This default ignores them.
+	 */
+	default CompletableFuture<String> sendAsync(String method, String url, String body, Map<String, String> headers, Executor executor) {
+		return sendAsync(method, url, body, executor);
+	}
+
+	/**
+	 * Release any pooled connections (as far as the underlying http library allows). Called by {@link ESHttpClient#close()}
+	 */
+	@Override
+	void close();
+
+}
@@ -0,0 +1,22 @@
+package com.winterwell.es.client;
+
+/**
+ * Where an {@link ESHttpClient} publishes its {@link ESMetrics}. 
+ * The default is {@link JmxMetricsRegistry} (if {@link ESConfig#esMetricsJmx} is set). Plug in your own (e.g. to feed a monitoring system)
+ * via {@link ESHttpClient#setMetricsRegistry(IMetricsRegistry)}.
+ * 
+ * @author daniel
+ */
+public interface IMetricsRegistry {
+
+	/**
+	 * @param name unique per client, e.g. "ESHttpClient-1"
+	 * @param metrics Read it when you like -- {@link ESMetrics#getSnapshot()} is cheap-ish and thread safe.
+	 */
+	void register(String name, ESMetrics metrics);
+
+	/**
+	 * Called when the client closes (or switches registry)
+	 */
+	void unregister(String name);
+}
@@ -0,0 +1,27 @@
+package com.winterwell.es.client;
+
+import java.io.IOException;
+
+import com.winterwell.gson.stream.JsonWriter;
+import com.winterwell.utils.web.IHasJson;
+
+/**
+ * For builders (queries, aggregations, sorts) which can write themselves straight to a json stream -- 
+ * without first building a tree of maps for Gson to walk.
+ * 
+ * This is an optimisation: implementations should also keep {@link IHasJson#toJson2()}, and the two must agree.
+ * 
+ * @see WriteJsonAdapter which plugs this into Gson
+ * @author daniel
+ *
+ */
+public interface IWriteJson {
+
+	/**
+	 * Write this object as one json value.
+	 * @param out
+	 * @throws IOException
+	 */
+	void writeJson(JsonWriter out) throws IOException;
+
+}
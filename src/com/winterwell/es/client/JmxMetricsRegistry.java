@@ -0,0 +1,119 @@
+package com.winterwell.es.client;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.winterwell.utils.log.Log;
+
+/**
+ * The default {@link IMetricsRegistry}: each client is an MBean, "com.winterwell.es:type=ESHttpClient,name=..."
+ * with a read-only attribute per {@link ESMetrics#getSnapshot()} entry. 
+ * View with e.g. jconsole, or scrape with a JMX exporter.
+ * 
+ * @author daniel
+ */
+public class JmxMetricsRegistry implements IMetricsRegistry {
+
+	private static final String LOGTAG = "ES.metrics";
+
+	private final MBeanServer server;
+
+	public JmxMetricsRegistry() {
+		this(ManagementFactory.getPlatformMBeanServer());
+	}
+
+	public JmxMetricsRegistry(MBeanServer server) {
+		this.server = server;
+	}
+
+	static ObjectName objectName(String name) throws Exception {
+		return new ObjectName("com.winterwell.es:type=ESHttpClient,name="+ObjectName.quote(name));
+	}
+
+	@Override
+	public void register(String name, ESMetrics metrics) {
+		try {
+			ObjectName on = objectName(name);
+			if (server.isRegistered(on)) server.unregisterMBean(on);
+			server.registerMBean(new MetricsMBean(metrics), on);
+		} catch(Exception ex) {
+			// metrics should never break the client
+			Log.w(LOGTAG, "Could not register "+name+" with JMX: "+ex);
+		}
+	}
+
+	@Override
+	public void unregister(String name) {
+		try {
+			ObjectName on = objectName(name);
+			if (server.isRegistered(on)) server.unregisterMBean(on);
+		} catch(Exception ex) {
+			Log.w(LOGTAG, "Could not unregister "+name+" from JMX: "+ex);
+		}
+	}
+
+	/**
+	 * Attributes come and go (e.g. a new index), so the MBeanInfo is made fresh on each call.
+	 */
+	static final class MetricsMBean implements DynamicMBean {
+
+		private final ESMetrics metrics;
+
+		MetricsMBean(ESMetrics metrics) {
+			this.metrics = metrics;
+		}
+
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			Object v = metrics.getSnapshot().get(attribute);
+			if (v == null) throw new AttributeNotFoundException(attribute);
+			return v;
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			Map<String, Object> snap = metrics.getSnapshot();
+			AttributeList list = new AttributeList();
+			for (String a : attributes) {
+				Object v = snap.get(a);
+				if (v != null) list.add(new Attribute(a, v));
+			}
+			return list;
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) {
+			throw new UnsupportedOperationException("read only");
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) {
+			throw new UnsupportedOperationException(actionName);
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			Map<String, Object> snap = metrics.getSnapshot();
+			MBeanAttributeInfo[] attrs = new MBeanAttributeInfo[snap.size()];
+			int i = 0;
+			for (Map.Entry<String, Object> e : snap.entrySet()) {
+				attrs[i++] = new MBeanAttributeInfo(e.getKey(), e.getValue().getClass().getName(), e.getKey(), true, false, false);
+			}
+			return new MBeanInfo(ESMetrics.class.getName(), "ES client metrics", attrs, null, null, null);
+		}
+	}
+}
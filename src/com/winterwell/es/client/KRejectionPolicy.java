@@ -0,0 +1,16 @@
+package com.winterwell.es.client;
+
+/**
+ * What a client's thread pool does with a new call when its queue is full.
+ * See {@link ESConfig#esThreadRejectionPolicy}
+ * 
+ * @author daniel
+ */
+public enum KRejectionPolicy {
+	/** Fail the call with a RejectedExecutionException */
+	ABORT,
+	/** Run the call in the caller's thread -- which slows the caller down (back-pressure) */
+	CALLER_RUNS,
+	/** The caller waits for room in the queue */
+	BLOCK
+}
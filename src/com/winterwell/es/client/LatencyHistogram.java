@@ -0,0 +1,124 @@
+package com.winterwell.es.client;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.winterwell.utils.containers.ArrayMap;
+
+/**
+ * A lock-free latency histogram, in the style of HdrHistogram: log-linear buckets
+ * (16 per power of two), so percentiles are good to about 6%, in a fixed 8kb.
+ * 
+ * Values are microseconds. Thread safe. Cheap to record (no locks, no allocation).
+ * 
+ * @testedby ESMetricsTest
+ * @author daniel
+ */
+public final class LatencyHistogram {
+
+	/**
+	 * log2 of the number of sub-buckets per power of two
+	 */
+	private static final int SUB_BITS = 4;
+	private static final int SUB = 1 << SUB_BITS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	static int index(long v) {
+		if (v < SUB) return (int) Math.max(v, 0);
+		int e = 63 - Long.numberOfLeadingZeros(v);
+		int sub = (int) (v >>> (e - SUB_BITS)) & (SUB - 1);
+		return (e - SUB_BITS + 1) * SUB + sub;
+	}
+
+	/**
+	 * @return the smallest value which goes in bucket i
+	 */
+	static long lowest(int i) {
+		if (i < SUB) return i;
+		int e = i / SUB + SUB_BITS - 1;
+		long sub = i % SUB;
+		return (SUB + sub) << (e - SUB_BITS);
+	}
+
+	/**
+	 * @return the middle of bucket i -- what we report for values in it
+	 */
+	static long middle(int i) {
+		if (i < SUB) return i;
+		int e = i / SUB + SUB_BITS - 1;
+		return lowest(i) + ((1L << (e - SUB_BITS)) >> 1);
+	}
+
+	/**
+	 * @param micros negative is treated as 0
+	 */
+	public void record(long micros) {
+		if (micros < 0) micros = 0;
+		buckets.incrementAndGet(index(micros));
+		count.increment();
+		sum.add(micros);
+		max.accumulateAndGet(micros, Math::max);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return microseconds
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n==0? 0 : sum.sum() / (double) n;
+	}
+
+	/**
+	 * @return microseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param q [0, 1] e.g. 0.99
+	 * @return microseconds (approx), or 0 if empty
+	 */
+	public long getPercentile(double q) {
+		long n = count.sum();
+		if (n == 0) return 0;
+		long target = Math.max(1, (long) Math.ceil(q * n));
+		long seen = 0;
+		for(int i=0; i<buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= target) return Math.min(middle(i), getMax());
+		}
+		// a record() landed after we read the count
+		return getMax();
+	}
+
+	/**
+	 * @return count, and milliseconds for: mean, p50, p90, p99, p999, max
+	 */
+	public Map<String, Object> getStats() {
+		return new ArrayMap(
+				"count", getCount(),
+				"mean", getMean() / 1000,
+				"p50", getPercentile(0.5) / 1000.0,
+				"p90", getPercentile(0.9) / 1000.0,
+				"p99", getPercentile(0.99) / 1000.0,
+				"p999", getPercentile(0.999) / 1000.0,
+				"max", getMax() / 1000.0
+				);
+	}
+
+	@Override
+	public String toString() {
+		return "LatencyHistogram"+getStats();
+	}
+}
@@ -0,0 +1,205 @@
+package com.winterwell.es.client;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.winterwell.es.ESPath;
+import com.winterwell.es.fail.ESException;
+import com.winterwell.gson.Gson;
+import com.winterwell.utils.log.Log;
+
+/**
+ * Batch up gets-by-id: a get is held for a few milliseconds, and any others which arrive in that window
+ * (or until maxBatch) go with it as one _mget. The same doc asked for twice in a batch is only fetched once.
+ * (This is the "DataLoader" pattern -- it turns N+1 lookups into a couple of calls.)
+ * 
+ * Switch on with {@link ESConfig#esGetBatchWindow} -- then {@link ESHttpClient#get(ESPath, Class)} uses it.
+ * Or make your own.
+ * 
+ * If the client has a {@link DocCache}, the _mget results go into it. 
+ * NB: {@link SingleFlight} is not used here -- a batch already fetches each doc once.
+ * 
+ * @testedby MultiGetLoaderTest
+ * @author daniel
+ *
+ */
+public class MultiGetLoader implements Closeable {
+
+	private static final String LOGTAG = "ES.mget";
+
+	private final ESHttpClient esjc;
+	private final long windowMsecs;
+	private final int maxBatch;
+
+	/**
+	 * guarded by this. path to waiters
+	 */
+	private Map<ESPath, List<Waiter>> pending = new LinkedHashMap<>();
+	private ScheduledFuture<?> flushTask;
+	private boolean closed;
+
+	static final class Waiter<X> {
+		final Class<X> type;
+		final Map<String, String> headers;
+		final CompletableFuture<X> result = new CompletableFuture<>();
+		Waiter(Class<X> type, Map<String, String> headers) {
+			this.type = type;
+			this.headers = headers;
+		}
+	}
+
+	/**
+	 * @param windowMsecs How long to hold a get for company
+	 * @param maxBatch Send as soon as this many docs are waiting
+	 */
+	public MultiGetLoader(ESHttpClient esjc, long windowMsecs, int maxBatch) {
+		assert maxBatch > 0 : maxBatch;
+		this.esjc = esjc;
+		this.windowMsecs = windowMsecs;
+		this.maxBatch = maxBatch;
+	}
+
+	/**
+	 * @return the _source as a Map, or null if not found
+	 */
+	public CompletableFuture<Map<String, Object>> load(ESPath path) {
+		return (CompletableFuture) load(path, Map.class);
+	}
+
+	/**
+	 * @param path Must have one index.
+	 * @param type The POJO class for _source
+	 * @return the _source, or null if not found (or the index does not exist)
+	 */
+	public <X> CompletableFuture<X> load(ESPath path, Class<X> type) {
+		return load(path, type, null);
+	}
+
+	/**
+	 * @param headers e.g. X-Opaque-Id. Can be null. NB: one _mget, so one set of headers -- the first get's.
+	 */
+	<X> CompletableFuture<X> load(ESPath path, Class<X> type, Map<String, String> headers) {
+		if (path.indices.length != 1) throw new IllegalArgumentException("_mget needs one index: "+path);
+		Waiter<X> w = new Waiter<>(type, headers);
+		Map<ESPath, List<Waiter>> full = null;
+		synchronized (this) {
+			if (closed) throw new IllegalStateException("closed");
+			pending.computeIfAbsent(path, k -> new ArrayList<>()).add(w);
+			if (pending.size() >= maxBatch) {
+				full = takePending();
+			} else if (flushTask == null) {
+				try {
+					flushTask = esjc.getTimer().schedule(this::flush, windowMsecs, TimeUnit.MILLISECONDS);
+				} catch(RejectedExecutionException ex) {
+					// client closed
+					full = takePending();
+				}
+			}
+		}
+		if (full != null) send(full);
+		return w.result;
+	}
+
+	/**
+	 * Send any held gets now.
+	 */
+	public void flush() {
+		Map<ESPath, List<Waiter>> batch;
+		synchronized (this) {
+			batch = takePending();
+		}
+		send(batch);
+	}
+
+	private Map<ESPath, List<Waiter>> takePending() {
+		Map<ESPath, List<Waiter>> batch = pending;
+		pending = new LinkedHashMap<>();
+		if (flushTask != null) {
+			flushTask.cancel(false);
+			flushTask = null;
+		}
+		return batch;
+	}
+
+	private void send(Map<ESPath, List<Waiter>> batch) {
+		if (batch.isEmpty()) return;
+		MultiGetRequest mgr = new MultiGetRequest(esjc).setInternal(batch.values().iterator().next().get(0).headers);
+		mgr.setIndices(); // each doc says its index
+		List<ESPath> paths = new ArrayList<>(batch.keySet());
+		for (ESPath path : paths) {
+			mgr.addDoc(path);
+		}
+		DocCache docCache = esjc.getDocCache();
+		long gen = docCache==null? 0 : docCache.getGeneration();
+		mgr.executeAsync().whenComplete((r, ex) -> {
+			try {
+				if (ex == null) r.check();
+				List<Map<String, Object>> docs = ex==null? (List) ((ESHttpResponse) r).getJsonMap().get("docs") : null;
+				if (ex == null && (docs == null || docs.size() != paths.size())) {
+					ex = new ESException("Expected "+paths.size()+" docs from _mget, got: "+r.getJson());
+				}
+				for(int i=0; i<paths.size(); i++) {
+					List<Waiter> waiters = batch.get(paths.get(i));
+					if (ex != null) {
+						for (Waiter w : waiters) w.result.completeExceptionally(ex);
+					} else {
+						if (docCache != null) docCache.putMgetDoc(paths.get(i), docs.get(i), gen);
+						deliver(docs.get(i), waiters);
+					}
+				}
+			} catch(Throwable ex2) {
+				for (List<Waiter> waiters : batch.values()) {
+					for (Waiter w : waiters) w.result.completeExceptionally(ex2);
+				}
+			}
+		});
+	}
+
+	private void deliver(Map<String, Object> doc, List<Waiter> waiters) {
+		Object error = doc.get("error");
+		if (error != null && ! String.valueOf(error).contains("index_not_found_exception")) {
+			ESException ex = new ESException("_mget "+doc.get("_index")+"/"+doc.get("_id")+": "+error);
+			for (Waiter w : waiters) w.result.completeExceptionally(ex);
+			return;
+		}
+		Object source = doc.get("_source");
+		if (error != null || source == null || Boolean.FALSE.equals(doc.get("found"))) {
+			for (Waiter w : waiters) w.result.complete(null);
+			return;
+		}
+		// each caller gets their own copy
+		String json = ESHttpResponse.plainGson().toJson(source);
+		Gson gson = esjc.config.getGson();
+		for (Waiter w : waiters) {
+			try {
+				w.result.complete(gson.fromJson(json, w.type));
+			} catch(Throwable ex) {
+				Log.w(LOGTAG, ex);
+				w.result.completeExceptionally(ex);
+			}
+		}
+	}
+
+	/**
+	 * Send any held gets, and stop taking more.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+		}
+		flush();
+	}
+
+	@Override
+	public String toString() {
+		return "MultiGetLoader[window="+windowMsecs+"ms maxBatch="+maxBatch+"]";
+	}
+}
@@ -52,7 +52,7 @@ public class MultiGetRequest extends ESHttpRequest<MultiGetRequest, IESResponse>
 		Map<String, Object> _body = body();				
 		List<Map> _docs = Containers.apply(docs, doc -> {
 			ArrayMap m = new ArrayMap("_id", doc.id);
-			if (getIndices()==null) m.put("_index", doc.indices[0]);
+			if (getIndices()==null || getIndices().isEmpty()) m.put("_index", doc.indices[0]);
 			if (type==null) m.put("_type", doc.type);
 			return m;
 		});
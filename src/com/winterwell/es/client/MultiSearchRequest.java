@@ -0,0 +1,112 @@
+package com.winterwell.es.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.winterwell.utils.StrUtils;
+import com.winterwell.utils.containers.ArrayMap;
+import com.winterwell.utils.containers.ArraySet;
+
+/**
+ * Several searches in one call.
+ * 
+ * https://www.elastic.co/guide/en/elasticsearch/reference/current/search-multi-search.html
+ * 
+ * @see SearchCoalescer which can do this for you
+ * @testedby MultiSearchRequestTest
+ * @author daniel
+ *
+ */
+public class MultiSearchRequest extends ESHttpRequest<MultiSearchRequest, MultiSearchResponse> {
+
+	/**
+	 * Search url-parameters which go in the per-search header line. The rest (e.g. size, from) go in the body.
+	 */
+	static final Set<String> HEADER_PARAMS = new HashSet<>(Arrays.asList(
+			"routing", "preference", "search_type", "request_cache", "ignore_unavailable", 
+			"allow_no_indices", "expand_wildcards", "allow_partial_search_results"));
+
+	final List<SearchRequest> searches = new ArrayList<>();
+
+	public MultiSearchRequest(ESHttpClient hClient) {
+		super(hClient, "_msearch");
+		method = "POST";
+		setIndices(); // no index - each search has its own
+	}
+
+	/**
+	 * @param search Not a scroll (_msearch does not do those). 
+	 * Its body is built now, so don't modify it afterwards.
+	 */
+	public MultiSearchRequest add(SearchRequest search) {
+		if (search.params.containsKey("scroll")) {
+			throw new IllegalArgumentException("_msearch cannot scroll: "+search);
+		}
+		searches.add(search);
+		return this;
+	}
+
+	public List<SearchRequest> getSearches() {
+		return Collections.unmodifiableList(searches);
+	}
+
+	/**
+	 * @param n Max searches ES runs at once for this request. 
+	 */
+	public MultiSearchRequest setMaxConcurrentSearches(int n) {
+		params.put("max_concurrent_searches", n);
+		return this;
+	}
+
+	/**
+	 * Newline-delimited: a header line then a body line, per search
+	 */
+	@Override
+	public String getBodyJson() {
+		StringBuilder sb = new StringBuilder();
+		for (SearchRequest search : searches) {
+			appendSearch(search, sb);
+		}
+		return sb.toString();
+	}
+
+	void appendSearch(SearchRequest search, StringBuilder sb) {
+		Map header = new ArrayMap();
+		ArraySet<String> idxs = search.indices;
+		if (idxs != null && ! idxs.isEmpty() && idxs.get(0) != null) {
+			header.put("index", StrUtils.join(idxs, ","));
+		}
+		Map extra = new ArrayMap();
+		for (Map.Entry<String, Object> e : ((Map<String,Object>) search.params).entrySet()) {
+			if (HEADER_PARAMS.contains(e.getKey())) header.put(e.getKey(), e.getValue());
+			else extra.put(e.getKey(), e.getValue());
+		}
+		sb.append(hClient.getBodyGson().toJson(header)).append('\n');
+		String body = search.getBodyJson();
+		if (body == null) body = "{}";
+		body = body.trim();
+		if ( ! extra.isEmpty()) {
+			// splice the url-params into the body object (without parsing it)
+			String x = hClient.getBodyGson().toJson(extra);
+			String rest = body.substring(1).trim();
+			body = x.substring(0, x.length()-1) + (rest.equals("}")? "}" : ","+rest);
+		}
+		// NB: json can't have a raw newline inside a string, so this is safe
+		sb.append(body.replace('\n', ' ').replace('\r', ' ')).append('\n');
+	}
+
+	@Override
+	protected MultiSearchResponse processResponse(ESHttpResponse response) {
+		return new MultiSearchResponse(response, searches);
+	}
+
+	@Override
+	public String toString() {
+		return "MultiSearchRequest["+searches.size()+" searches]";
+	}
+}
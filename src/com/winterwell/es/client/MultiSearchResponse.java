@@ -0,0 +1,70 @@
+package com.winterwell.es.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.winterwell.web.WebEx;
+
+/**
+ * The results of a {@link MultiSearchRequest}: one SearchResponse per search, in order.
+ * A failed search gives a failed SearchResponse -- the others are unaffected.
+ * 
+ * @author daniel
+ *
+ */
+public class MultiSearchResponse extends ESHttpResponse {
+
+	private final List<SearchRequest> searches;
+	private volatile List<SearchResponse> responses;
+
+	public MultiSearchResponse(ESHttpResponse response, List<SearchRequest> searches) {
+		super(response);
+		this.searches = new ArrayList<>(searches);
+	}
+
+	/**
+	 * @return One per search, in the order added. If the whole call failed, each has that error.
+	 */
+	public List<SearchResponse> getResponses() {
+		List<SearchResponse> rs = responses;
+		if (rs != null) return rs;
+		rs = new ArrayList<>(searches.size());
+		if ( ! isSuccess()) {
+			for (SearchRequest search : searches) {
+				rs.add(search.processResponse(new ESHttpResponse(search, (RuntimeException) getError())));
+			}
+		} else {
+			List<Map<String, Object>> items = (List) getJsonMap().get("responses");
+			if (items == null || items.size() != searches.size()) {
+				throw new IllegalStateException("Expected "+searches.size()+" responses, got: "+getJson());
+			}
+			for(int i=0; i<items.size(); i++) {
+				rs.add(itemResponse(searches.get(i), items.get(i)));
+			}
+		}
+		rs = Collections.unmodifiableList(rs);
+		responses = rs;
+		return rs;
+	}
+
+	public SearchResponse getResponse(int i) {
+		return getResponses().get(i);
+	}
+
+	private SearchResponse itemResponse(SearchRequest search, Map<String, Object> item) {
+		String json = plainGson().toJson(item);
+		if (item.get("error") == null) {
+			return search.processResponse(ESHttpResponse.parsed(search, json, item));
+		}
+		// make the same exception a lone search would have got
+		int status = (int) ESTask.num(item.get("status"));
+		try {
+			PooledHttpTransport.checkStatus(search.getUrl("").toString(), status < 400? 500 : status, json);
+			throw new IllegalStateException(json); // not reached
+		} catch(WebEx ex) {
+			return search.processResponse(new ESHttpResponse(search, search.wrapError(ex, search)));
+		}
+	}
+}
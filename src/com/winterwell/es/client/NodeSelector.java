@@ -0,0 +1,298 @@
+package com.winterwell.es.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.winterwell.utils.log.Log;
+
+/**
+ * Pick which ES server (node) a request goes to, avoiding slow or broken ones.
+ * 
+ * For each node we track: requests in flight, latency (an exponentially weighted moving average), and the error rate (ditto).
+ * Routing is power-of-two-choices: pick two live nodes at random, and use the one with the lower
+ * load score (in-flight x latency, penalised by errors). This spreads load, but quickly steers away from a sick node.
+ * 
+ * A node which fails to connect (or fails {@link #DEAD_AFTER} times in a row) is marked dead. It is left alone
+ * for a back-off time, which doubles with each failed re-probe (up to {@link #MAX_DEAD_MSECS}). 
+ * Then one request is let through as a probe. If every node is dead, we try the one due back soonest.
+ * 
+ * This object is thread safe. One per {@link ESHttpClient}.
+ * 
+ * @testedby NodeSelectorTest
+ * @author daniel
+ *
+ */
+public class NodeSelector {
+
+	private static final String LOGTAG = "ES.node";
+
+	/**
+	 * How much weight a new latency / error sample gets
+	 */
+	static final double EWMA_ALPHA = 0.2;
+
+	/**
+	 * Consecutive (non-connection) failures before a node is marked dead
+	 */
+	static final int DEAD_AFTER = 3;
+
+	static final long MIN_DEAD_MSECS = 1000;
+
+	static final long MAX_DEAD_MSECS = 5 * 60 * 1000;
+
+	/**
+	 * server url to stats
+	 */
+	private final ConcurrentHashMap<String, Node> nodes = new ConcurrentHashMap<>();
+
+	private volatile Consumer<Node> onDead;
+
+	/**
+	 * @param onDead Called (in the request's thread -- so be quick) when a node is marked dead. E.g. {@link Sniffer} re-sniffs.
+	 */
+	public void setOnDead(Consumer<Node> onDead) {
+		this.onDead = onDead;
+	}
+
+	/**
+	 * Health stats for one server
+	 */
+	public static final class Node {
+		final String server;
+		final AtomicInteger inFlight = new AtomicInteger();
+		/** milliseconds. Starts optimistic, so a new node gets tried. */
+		volatile double latency = 1;
+		/** 0 to 1 */
+		volatile double errorRate;
+		volatile int consecutiveFailures;
+		/** How many times in a row we have marked it dead (for the back-off) */
+		volatile int deaths;
+		/** 0 if alive */
+		volatile long deadUntil;
+		/** Set whilst a re-probe request is out, so only one request risks a dead node */
+		final AtomicBoolean probing = new AtomicBoolean();
+
+		Node(String server) {
+			this.server = server;
+		}
+
+		public String getServer() {
+			return server;
+		}
+
+		public boolean isDead() {
+			return deadUntil != 0;
+		}
+
+		public double getLatency() {
+			return latency;
+		}
+
+		public double getErrorRate() {
+			return errorRate;
+		}
+
+		public int getInFlight() {
+			return inFlight.get();
+		}
+
+		double score() {
+			return (inFlight.get() + 1) * latency * (1 + 10*errorRate);
+		}
+
+		@Override
+		public String toString() {
+			return "Node["+server+" inFlight="+inFlight+" latency="+Math.round(latency)+"ms errors="+Math.round(100*errorRate)+"%"
+					+(isDead()? " dead" : "")+"]";
+		}
+	}
+
+	/**
+	 * @param servers The candidates (can change between calls, e.g. after a sniff)
+	 * @param avoid Servers already tried by this request (so a retry fails over to a different node). Can be null. 
+	 * Ignored if there is nothing else.
+	 * @return the node to use. Call {@link #start(Node)} and then {@link #success(Node, long)}, {@link #failure(Node, Throwable)} 
+	 * or {@link #release(Node)} -- or {@link #cancel(Node)} if it is not used.
+	 */
+	public Node select(List<String> servers, Collection<String> avoid) {
+		if (servers.size()==1) {
+			return node(servers.get(0));
+		}
+		long now = System.currentTimeMillis();
+		List<Node> live = new ArrayList<>(servers.size());
+		List<Node> fallback = new ArrayList<>(servers.size());
+		Node soonest = null;
+		for (String s : servers) {
+			Node n = node(s);
+			boolean avoided = avoid!=null && avoid.contains(s);
+			if ( ! n.isDead()) {
+				(avoided? fallback : live).add(n);
+				continue;
+			}
+			// due a re-probe? Only one request gets to be the probe
+			if (n.deadUntil <= now && ! avoided && n.probing.compareAndSet(false, true)) {
+				return n;
+			}
+			if (soonest==null || n.deadUntil < soonest.deadUntil) soonest = n;
+		}
+		if (live.isEmpty()) live = fallback;
+		if (live.isEmpty()) {
+			// all dead -- try the one due back soonest
+			assert soonest != null;
+			return soonest;
+		}
+		if (live.size()==1) return live.get(0);
+		// power of two choices
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		int i = rnd.nextInt(live.size());
+		int j = rnd.nextInt(live.size()-1);
+		if (j >= i) j++;
+		Node a = live.get(i), b = live.get(j);
+		return a.score() <= b.score()? a : b;
+	}
+
+	Node node(String server) {
+		return nodes.computeIfAbsent(server, Node::new);
+	}
+
+	/**
+	 * @return stats for the current servers (those used so far)
+	 */
+	public Collection<Node> getNodes() {
+		return nodes.values();
+	}
+
+	/**
+	 * Drop the stats for servers not in this list. A request still out to one of them just updates an orphan.
+	 * @param servers The current servers
+	 */
+	void retain(Collection<String> servers) {
+		nodes.keySet().retainAll(servers);
+	}
+
+	/**
+	 * Call when sending a request to the node.
+	 */
+	public void start(Node node) {
+		node.inFlight.incrementAndGet();
+	}
+
+	/**
+	 * Call when the node answered -- including with an error page such as a 404, which is not the node's fault.
+	 * @param msecs round-trip time
+	 */
+	public void success(Node node, long msecs) {
+		node.inFlight.decrementAndGet();
+		node.latency = ewma(node.latency, msecs);
+		node.errorRate = ewma(node.errorRate, 0);
+		node.consecutiveFailures = 0;
+		if (node.isDead()) {
+			Log.i(LOGTAG, "Back alive: "+node);
+			node.deadUntil = 0;
+			node.deaths = 0;
+		}
+		node.probing.set(false);
+	}
+
+	/**
+	 * Call when the node failed: could not connect, timed out, or a 50X.
+	 * @param ex
+	 */
+	public void failure(Node node, Throwable ex) {
+		node.inFlight.decrementAndGet();
+		node.errorRate = ewma(node.errorRate, 1);
+		int fails = ++node.consecutiveFailures;
+		if (node.isDead() || fails >= DEAD_AFTER || isConnectionFailure(ex)) {
+			markDead(node);
+		}
+		node.probing.set(false);
+	}
+
+	/**
+	 * Call instead of success/failure when the call ended for a reason which is not the node's fault
+	 * (e.g. the response could not be handled).
+	 */
+	public void release(Node node) {
+		node.inFlight.decrementAndGet();
+		node.probing.set(false);
+	}
+
+	/**
+	 * Call if a selected node was not used after all (the request failed before {@link #start(Node)}).
+	 */
+	public void cancel(Node node) {
+		node.probing.set(false);
+	}
+
+	private void markDead(Node node) {
+		int d = Math.min(node.deaths, 20);
+		node.deaths++;
+		long wait = Math.min(MAX_DEAD_MSECS, MIN_DEAD_MSECS << d);
+		node.deadUntil = System.currentTimeMillis() + wait;
+		Log.w(LOGTAG, "Marked dead for "+wait+"ms: "+node);
+		Consumer<Node> od = onDead;
+		if (od != null) {
+			try {
+				od.accept(node);
+			} catch(Throwable ex) {
+				Log.e(LOGTAG, ex);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the node could not be reached at all (as opposed to a slow or error response)
+	 */
+	static boolean isConnectionFailure(Throwable ex) {
+		for(Throwable e = ex; e != null; e = e.getCause()) {
+			if (e instanceof java.net.ConnectException) return true;
+			if (e instanceof java.net.http.HttpConnectTimeoutException) return true;
+			if (e instanceof java.net.UnknownHostException) return true;
+			if (e instanceof java.net.NoRouteToHostException) return true;
+			if (e.getCause()==e) break;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the call could go to another node: it could not connect, or it timed out.
+	 * NB: a timed-out write may have happened -- but retries are opt-in, as with a 50X.
+	 */
+	static boolean isRetryable(Throwable ex) {
+		if (isConnectionFailure(ex)) return true;
+		for(Throwable e = ex; e != null; e = e.getCause()) {
+			if (e instanceof java.net.http.HttpTimeoutException) return true;
+			if (e instanceof java.net.SocketTimeoutException) return true;
+			if (e.getCause()==e) break;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if this was the node's (or the network's) fault: could not connect, timed out, an io error, or a 50X.
+	 */
+	static boolean isNodeFailure(Throwable ex) {
+		if (isRetryable(ex)) return true;
+		for(Throwable e = ex; e != null; e = e.getCause()) {
+			if (e instanceof com.winterwell.web.WebEx.E50X) return true;
+			if (e instanceof java.io.IOException) return true;
+			if (e.getCause()==e) break;
+		}
+		return false;
+	}
+
+	private static double ewma(double old, double sample) {
+		return old + EWMA_ALPHA*(sample - old);
+	}
+
+	@Override
+	public String toString() {
+		return "NodeSelector"+nodes.values();
+	}
+}
@@ -0,0 +1,45 @@
+package com.winterwell.es.client;
+
+import java.util.Map;
+
+import com.winterwell.utils.time.Dt;
+import com.winterwell.utils.time.TUnit;
+
+/**
+ * Open a point-in-time: a consistent view of some indices, for paging with search_after. Needs ESv7.10+
+ * 
+ * https://www.elastic.co/guide/en/elasticsearch/reference/current/point-in-time-api.html
+ * 
+ * @see PointInTimeSearch which manages these for you
+ * @see ClosePointInTimeRequest
+ * @author daniel
+ *
+ */
+public class OpenPointInTimeRequest extends ESHttpRequest<OpenPointInTimeRequest, IESResponse> {
+
+	/**
+	 * @param keepAlive How long to keep the point-in-time between requests. Each search using it can extend this.
+	 */
+	public OpenPointInTimeRequest(ESHttpClient esHttpClient, Dt keepAlive, String... indices) {
+		super(esHttpClient, "_pit");
+		method = "POST";
+		setIndices(indices);
+		params.put("keep_alive", keepAlive(keepAlive));
+	}
+
+	static String keepAlive(Dt keepAlive) {
+		int s = (int) keepAlive.convertTo(TUnit.SECOND).getValue();
+		return Math.max(1, s)+"s";
+	}
+
+	/**
+	 * Convenience for get() then read the id.
+	 * @return the point-in-time id
+	 * @throws RuntimeException if it fails
+	 */
+	public String getPitId() {
+		ESHttpResponse r = (ESHttpResponse) get().check();
+		Map<String, Object> jobj = r.getJsonMap();
+		return (String) jobj.get("id");
+	}
+}
@@ -0,0 +1,236 @@
+package com.winterwell.es.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import com.winterwell.utils.log.Log;
+import com.winterwell.utils.time.Dt;
+import com.winterwell.utils.time.TUnit;
+
+/**
+ * Reindex several indices at once -- e.g. copying every index over to a new version (see {@link ESConfig#getIndexAliasVersion()}).
+ *
+ * Each reindex runs as a background task inside ES (with slices), at most {@link #setMaxConcurrent(int)} at a time.
+ * Tasks are polled for progress, so no client thread is held whilst they run.
+ * The speed limit can be changed on the fly with {@link #rethrottle(float)}.
+ *
+ * Usage:
+ * <pre>
+ * ParallelReindex pr = new ParallelReindex(esjc).setMaxConcurrent(3);
+ * for(String idx : indices) pr.add(idx+"_"+oldVersion, idx+"_"+newVersion);
+ * pr.start().join();
+ * </pre>
+ *
+ * Start once.
+ *
+ * @testedby ParallelReindexTest
+ * @author daniel
+ */
+public class ParallelReindex {
+
+	private static final String LOGTAG = "ES.reindex";
+
+	private final ESHttpClient esjc;
+	private int maxConcurrent = 2;
+	private Object slices = "auto";
+	private volatile float requestsPerSecond = -1;
+	private Dt pollInterval = new Dt(2, TUnit.SECOND);
+
+	private final List<Job> jobs = new ArrayList<>();
+	private int nextJob;
+	private int running;
+	private boolean stopped;
+	private CompletableFuture<List<Map<String, Object>>> result;
+
+	static final class Job {
+		final ReindexRequest request;
+		volatile ESTask task;
+		volatile float requestsPerSecond;
+		final CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+		Job(ReindexRequest request) {
+			this.request = request;
+		}
+	}
+
+	public ParallelReindex(ESHttpClient esjc) {
+		this.esjc = esjc;
+	}
+
+	/**
+	 * @param maxConcurrent How many reindex tasks to run at once. Default 2.
+	 */
+	public ParallelReindex setMaxConcurrent(int maxConcurrent) {
+		assert maxConcurrent > 0 : maxConcurrent;
+		this.maxConcurrent = maxConcurrent;
+		return this;
+	}
+
+	/**
+	 * @param slices "auto" (the default), or a number -- per reindex task.
+	 */
+	public ParallelReindex setSlices(Object slices) {
+		this.slices = slices;
+		return this;
+	}
+
+	/**
+	 * @param requestsPerSecond The starting speed limit, per task. -1 (the default) for unlimited.
+	 * @see #rethrottle(float)
+	 */
+	public ParallelReindex setRequestsPerSecond(float requestsPerSecond) {
+		this.requestsPerSecond = requestsPerSecond;
+		return this;
+	}
+
+	/**
+	 * @param pollInterval How often to ask ES for progress. Default 2 seconds.
+	 */
+	public ParallelReindex setPollInterval(Dt pollInterval) {
+		this.pollInterval = pollInterval;
+		return this;
+	}
+
+	/**
+	 * @return the request, so you can add a query
+	 */
+	public ReindexRequest add(String fromIndex, String toIndex) {
+		ReindexRequest rr = new ReindexRequest(esjc, fromIndex, toIndex);
+		add(rr);
+		return rr;
+	}
+
+	public synchronized ParallelReindex add(ReindexRequest rr) {
+		if (result != null) throw new IllegalStateException("Already started");
+		jobs.add(new Job(rr));
+		return this;
+	}
+
+	/**
+	 * @return The final task responses (in the order added). Fails if any reindex fails --
+	 * in which case those not yet started are skipped.
+	 */
+	public synchronized CompletableFuture<List<Map<String, Object>>> start() {
+		if (result != null) throw new IllegalStateException("Already started");
+		List<CompletableFuture<Map<String, Object>>> results = new ArrayList<>();
+		for (Job job : jobs) results.add(job.result);
+		result = CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+				.thenApply(v -> {
+					List<Map<String, Object>> responses = new ArrayList<>();
+					for (CompletableFuture<Map<String, Object>> r : results) responses.add(r.join());
+					return responses;
+				});
+		launchNext();
+		return result;
+	}
+
+	private synchronized void launchNext() {
+		while(running < maxConcurrent && nextJob < jobs.size()) {
+			Job job = jobs.get(nextJob++);
+			if (stopped) {
+				job.result.completeExceptionally(new IllegalStateException("Skipped: an earlier reindex failed or was cancelled"));
+				continue;
+			}
+			running++;
+			job.requestsPerSecond = requestsPerSecond;
+			job.request.setSlices(slices).setRequestsPerSecond(job.requestsPerSecond);
+			job.request.startTask().thenCompose(task -> {
+				job.task = task;
+				Log.d(LOGTAG, "Started "+task+" "+job.request.getSourceIndex()+" -> "+job.request.getDestIndex());
+				// rethrottled whilst we were starting?
+				float rps = requestsPerSecond;
+				if (rps != job.requestsPerSecond) {
+					rethrottle(job, rps);
+				}
+				return task.whenDone(pollInterval);
+			}).whenComplete((r, ex) -> {
+				if (ex != null) {
+					if (ex instanceof CompletionException && ex.getCause()!=null) ex = ex.getCause();
+					Log.w(LOGTAG, "Failed "+job.request.getSourceIndex()+" -> "+job.request.getDestIndex()+": "+ex);
+					job.result.completeExceptionally(ex);
+				} else {
+					job.result.complete(r);
+				}
+				synchronized (ParallelReindex.this) {
+					running--;
+					if (ex != null) stopped = true;
+				}
+				launchNext();
+			});
+		}
+	}
+
+	/**
+	 * Change the speed limit for the running tasks, and those yet to start.
+	 * @param requestsPerSecond -1 for unlimited
+	 */
+	public void rethrottle(float requestsPerSecond) {
+		this.requestsPerSecond = requestsPerSecond;
+		for (Job job : getJobs()) {
+			if (job.task == null || job.result.isDone()) continue;
+			rethrottle(job, requestsPerSecond);
+		}
+	}
+
+	private void rethrottle(Job job, float rps) {
+		try {
+			job.task.rethrottle(rps);
+			job.requestsPerSecond = rps;
+		} catch(Throwable ex) {
+			// probably it has just finished
+			Log.w(LOGTAG, "rethrottle "+job.task+" failed: "+ex);
+		}
+	}
+
+	private synchronized List<Job> getJobs() {
+		return new ArrayList<>(jobs);
+	}
+
+	/**
+	 * @return the tasks which are running now
+	 */
+	public List<ESTask> getRunning() {
+		List<ESTask> tasks = new ArrayList<>();
+		for (Job job : getJobs()) {
+			if (job.task != null && ! job.result.isDone()) tasks.add(job.task);
+		}
+		return tasks;
+	}
+
+	/**
+	 * @return [0, 1] -- averaged over all the reindexes, as of the last poll.
+	 */
+	public double getProgress() {
+		List<Job> js = getJobs();
+		if (js.isEmpty()) return 1;
+		double sum = 0;
+		for (Job job : js) {
+			if (job.result.isDone()) sum += 1;
+			else if (job.task != null) sum += job.task.getProgress();
+		}
+		return sum / js.size();
+	}
+
+	/**
+	 * Cancel the running tasks, and skip the rest.
+	 */
+	public void cancel() {
+		synchronized (this) {
+			stopped = true;
+		}
+		for (ESTask task : getRunning()) {
+			try {
+				task.cancel();
+			} catch(Throwable ex) {
+				Log.w(LOGTAG, "cancel "+task+" failed: "+ex);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ParallelReindex["+jobs.size()+" jobs, "+running+" running]";
+	}
+}
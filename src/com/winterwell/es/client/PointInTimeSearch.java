@@ -0,0 +1,334 @@
+package com.winterwell.es.client;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.google.common.util.concurrent.Futures;
+import com.winterwell.utils.Utils;
+import com.winterwell.utils.containers.ArrayMap;
+import com.winterwell.utils.log.Log;
+import com.winterwell.utils.time.Dt;
+import com.winterwell.utils.time.TUnit;
+
+/**
+ * Walk over all the results of a search, however many, using a point-in-time + search_after.
+ * Cheaper for ES than a scroll, and it does not count towards search.max_open_scroll_context.
+ * Needs ESv7.12+ (for the _shard_doc tiebreaker).
+ * 
+ * Whilst you process one page, the next is fetched (see {@link #setPrefetch(boolean)}).
+ * The point-in-time is closed when the results run out, on an error, or on {@link #close()} -- so use try-with-resources
+ * in case you stop early.
+ * 
+ * Usage:
+ * <pre>
+ * try (PointInTimeSearch&lt;Foo&gt; all = esc.prepareSearch("foo").setQuery(q).pointInTime(Foo.class)) {
+ * 	for(ESHit&lt;Foo&gt; hit : all) { ... }
+ * }
+ * </pre>
+ * 
+ * The search's query, sort and _source settings are used. A _shard_doc tiebreaker is added to the sort.
+ * Aggregations are dropped (they would be re-run on every page). 
+ * 
+ * Iterable once. Not thread safe.
+ * 
+ * @testedby PointInTimeSearchTest
+ * @author daniel
+ *
+ * @param <X> The POJO type for the hits' _source
+ */
+public class PointInTimeSearch<X> implements Iterable<ESHit<X>>, Closeable {
+
+	private static final String LOGTAG = "ES.pit";
+
+	private final ESHttpClient esjc;
+	private final SearchRequest search;
+	private final Class<? extends X> type;
+
+	private Dt keepAlive = new Dt(1, TUnit.MINUTE);
+	private int batchSize = 1000;
+	private long maxHits = -1;
+	private boolean prefetch = true;
+
+	/**
+	 * Can change with each page
+	 */
+	private volatile String pitId;
+	private boolean started;
+	private boolean closed;
+	private Future<Page<X>> nextPage;
+	/**
+	 * false if the pit is shared (see {@link #slice(int, int, String)}), so not ours to close
+	 */
+	private boolean ownsPit = true;
+	private int sliceId;
+	private int sliceMax;
+
+	static final class Page<X> {
+		final List<ESHit<X>> hits;
+		final int requested;
+		Page(List<ESHit<X>> hits, int requested) {
+			this.hits = hits;
+			this.requested = requested;
+		}
+	}
+
+	/**
+	 * @param search Its indices, query, sort and _source settings are used. It is not itself run.
+	 * @param type The POJO class for _source, or Map
+	 */
+	public PointInTimeSearch(SearchRequest search, Class<? extends X> type) {
+		this.esjc = search.hClient;
+		this.search = search;
+		this.type = type;
+		Integer size = search.getSize();
+		if (size != null && size > 0) batchSize = size;
+	}
+
+	/**
+	 * @param keepAlive How long ES should hold the point-in-time between pages. Default 1 minute. 
+	 */
+	public PointInTimeSearch<X> setKeepAlive(Dt keepAlive) {
+		startCheck();
+		this.keepAlive = keepAlive;
+		return this;
+	}
+
+	/**
+	 * @param batchSize Hits per page. Default: the search's size, or 1000.
+	 */
+	public PointInTimeSearch<X> setBatchSize(int batchSize) {
+		startCheck();
+		assert batchSize > 0;
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * @param maxHits Stop after this many. -1 (the default) for all.
+	 */
+	public PointInTimeSearch<X> setMaxHits(long maxHits) {
+		startCheck();
+		this.maxHits = maxHits;
+		return this;
+	}
+
+	/**
+	 * @param prefetch If true (the default), fetch the next page in a client thread whilst the caller works on this one.
+	 */
+	public PointInTimeSearch<X> setPrefetch(boolean prefetch) {
+		startCheck();
+		this.prefetch = prefetch;
+		return this;
+	}
+
+	/**
+	 * Just do one slice of a point-in-time which someone else opened (and will close).
+	 * @see SlicedExport
+	 */
+	PointInTimeSearch<X> slice(int id, int max, String sharedPitId) {
+		startCheck();
+		this.sliceId = id;
+		this.sliceMax = max;
+		this.pitId = sharedPitId;
+		ownsPit = false;
+		return this;
+	}
+
+	private void startCheck() {
+		if (started) throw new IllegalStateException("Already started");
+	}
+
+	/**
+	 * @return Each page of hits (at most batch-size). Can only be called once (as can {@link #iterator()}).
+	 */
+	public Iterator<List<ESHit<X>>> pages() {
+		startCheck();
+		started = true;
+		if (ownsPit) {
+			pitId = open(search, keepAlive);
+		}
+		try {
+			nextPage = fetch(null, 0);
+		} catch(Throwable ex) {
+			close();
+			throw Utils.runtime(ex);
+		}
+		return new PageIterator();
+	}
+
+	static String open(SearchRequest search, Dt keepAlive) {
+		String[] indices = search.indices==null? new String[0] : search.indices.toArray(new String[0]);
+		return new OpenPointInTimeRequest(search.hClient, keepAlive, indices).setInternal(search.getHeaders()).getPitId();
+	}
+
+	@Override
+	public Iterator<ESHit<X>> iterator() {
+		Iterator<List<ESHit<X>>> pages = pages();
+		return new Iterator<ESHit<X>>() {
+			Iterator<ESHit<X>> page = Collections.emptyIterator();
+			@Override
+			public boolean hasNext() {
+				while( ! page.hasNext()) {
+					if ( ! pages.hasNext()) return false;
+					page = pages.next().iterator();
+				}
+				return true;
+			}
+			@Override
+			public ESHit<X> next() {
+				if ( ! hasNext()) throw new NoSuchElementException();
+				return page.next();
+			}
+		};
+	}
+
+	/**
+	 * @return All the hits. Closing the stream closes this.
+	 */
+	public Stream<ESHit<X>> stream() {
+		Spliterator<ESHit<X>> split = Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.stream(split, false).onClose(this::close);
+	}
+
+	class PageIterator implements Iterator<List<ESHit<X>>> {
+		private List<ESHit<X>> peeked;
+		private boolean done;
+		private long count;
+		/**
+		 * For when prefetch is off: where the next page starts
+		 */
+		private List<Object> after;
+
+		@Override
+		public boolean hasNext() {
+			if (peeked != null) return true;
+			if (done) return false;
+			try {
+				if (nextPage == null) {
+					nextPage = Futures.immediateFuture(fetch2(after, count));
+				}
+				Page<X> page = nextPage.get();
+				nextPage = null;
+				count += page.hits.size();
+				boolean more = page.hits.size() == page.requested && (maxHits < 0 || count < maxHits);
+				if (more) {
+					List<Object> sort = page.hits.get(page.hits.size()-1).getSort();
+					if (prefetch) {
+						nextPage = fetch(sort, count);
+					} else {
+						after = sort;
+					}
+				} else {
+					done = true;
+					close();
+				}
+				if (page.hits.isEmpty()) return false;
+				peeked = page.hits;
+				return true;
+			} catch(Throwable ex) {
+				done = true;
+				close();
+				if (ex instanceof ExecutionException && ex.getCause()!=null) ex = ex.getCause();
+				throw Utils.runtime(ex);
+			}
+		}
+
+		@Override
+		public List<ESHit<X>> next() {
+			if ( ! hasNext()) throw new NoSuchElementException();
+			List<ESHit<X>> p = peeked;
+			peeked = null;
+			return p;
+		}
+	}
+
+	private Future<Page<X>> fetch(List<Object> searchAfter, long countSoFar) {
+		if ( ! prefetch) {
+			return Futures.immediateFuture(fetch2(searchAfter, countSoFar));
+		}
+		return esjc.getExecutor().submit(() -> fetch2(searchAfter, countSoFar));
+	}
+
+	private Page<X> fetch2(List<Object> searchAfter, long countSoFar) {
+		int n = batchSize;
+		if (maxHits >= 0) n = (int) Math.min(n, maxHits - countSoFar);
+		// NB: maybe in a prefetch thread
+		SearchRequest page = new SearchRequest(esjc).setInternal(search.getHeaders());
+		page.setIndices(); // the index comes from the pit
+		page.debug = search.debug;
+		page.params.putAll(search.params);
+		page.params.remove("scroll");
+		page.params.remove("from");
+		page.setSize(n);
+		Map<String,Object> body = new ArrayMap();
+		if (search.body != null) body.putAll(search.body);
+		body.remove("aggs");
+		body.remove("aggregations");
+		body.put("sort", sortWithTiebreaker(body.get("sort")));
+		body.put("pit", new ArrayMap("id", pitId, "keep_alive", OpenPointInTimeRequest.keepAlive(keepAlive)));
+		// counting is wasted work for every page
+		body.put("track_total_hits", false);
+		if (searchAfter != null) body.put("search_after", searchAfter);
+		if (sliceMax > 1) body.put("slice", new ArrayMap("id", sliceId, "max", sliceMax));
+		page.setBodyMap(body);
+		List<ESHit<X>> hits = new ArrayList<>(n);
+		try (SearchHitStream<X> stream = page.stream(type)) {
+			stream.forEach(hits::add);
+			if (stream.getPitId() != null) pitId = stream.getPitId();
+		}
+		return new Page<>(hits, n);
+	}
+
+	/**
+	 * search_after needs a total order -- so add the (cheap) _shard_doc tiebreaker
+	 */
+	private List sortWithTiebreaker(Object sort) {
+		ArrayMap tiebreaker = new ArrayMap("_shard_doc", "asc");
+		if (sort == null) {
+			return Arrays.asList(tiebreaker);
+		}
+		List sorts = sort instanceof List? new ArrayList((List) sort) : new ArrayList(Arrays.asList(sort));
+		String json = esjc.getBodyGson().toJson(sorts);
+		if ( ! json.contains("\"_shard_doc\"")) {
+			sorts.add(tiebreaker);
+		}
+		return sorts;
+	}
+
+	/**
+	 * Close the point-in-time (if open). Safe to call repeatedly.
+	 */
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		Future<Page<X>> np = nextPage;
+		if (np != null) np.cancel(true);
+		String id = pitId;
+		if (id == null || ! ownsPit) return;
+		try {
+			ESHttpResponse r = (ESHttpResponse) new ClosePointInTimeRequest(esjc, id).setInternal(search.getHeaders()).get();
+			if ( ! r.isSuccess()) Log.w(LOGTAG, "close failed: "+r.getError());
+		} catch(Throwable ex) {
+			// ES will drop it when the keep-alive runs out anyway
+			Log.w(LOGTAG, ex);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PointInTimeSearch["+search+" batchSize="+batchSize+(closed? " closed" : "")+"]";
+	}
+}
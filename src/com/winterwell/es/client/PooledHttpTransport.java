@@ -0,0 +1,305 @@
+package com.winterwell.es.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import com.winterwell.utils.Utils;
+import com.winterwell.web.WebEx;
+
+/**
+ * The default transport: keeps keep-alive connections open between calls, so we don't pay for
+ * a tcp (and maybe tls) handshake on every request.
+ *
+ * Built on the JDK's {@link HttpClient}, which pools connections per server.
+ * On top of that, we cap the number of concurrent calls per server (see {@link ESConfig#esMaxConnectionsPerServer}),
+ * which also caps the number of pooled connections to that server.
+ *
+ * Settings come from {@link ESConfig}: esConnectTimeout, esRequestTimeout (the read timeout),
+ * esMaxConnectionsPerServer.
+ * Idle connections are closed by the JDK, after -Djdk.httpclient.keepalive.timeout seconds (JVM-wide; default 1200).
+ *
+ * @author daniel
+ *
+ */
+public class PooledHttpTransport implements IESTransport {
+
+	private final HttpClient httpClient;
+
+	private final Duration requestTimeout;
+
+	private final int maxPerServer;
+
+	/**
+	 * server (scheme://host:port) to permits
+	 */
+	private final ConcurrentHashMap<String, ServerPermits> servers = new ConcurrentHashMap<>();
+
+	public PooledHttpTransport(ESConfig config) {
+		maxPerServer = config.esMaxConnectionsPerServer;
+		assert maxPerServer > 0 : config;
+		requestTimeout = Duration.ofMillis(config.esRequestTimeout);
+		httpClient = HttpClient.newBuilder()
+				// ES speaks http 1.1 -- and upgrade negotiation would just cost us a round trip
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofMillis(config.esConnectTimeout))
+				.followRedirects(HttpClient.Redirect.NEVER)
+				.build();
+	}
+
+	@Override
+	public String send(String method, String url, String body) throws WebEx {
+		return send(method, url, body, null);
+	}
+
+	@Override
+	public String send(String method, String url, String body, Map<String, String> headers) throws WebEx {
+		return send2(method(method, body), url, publisher(body), headers);
+	}
+
+	/**
+	 * Send with chunked transfer-encoding, pulling bytes from the stream as the socket takes them.
+	 */
+	@Override
+	public String sendStream(String method, String url, Supplier<InputStream> body) throws WebEx {
+		return sendStream(method, url, body, null);
+	}
+
+	@Override
+	public String sendStream(String method, String url, Supplier<InputStream> body, Map<String, String> headers) throws WebEx {
+		return send2(method==null? "POST" : method, url, BodyPublishers.ofInputStream(body), headers);
+	}
+
+	private String send2(String method, String url, BodyPublisher bodyPublisher, Map<String, String> headers) throws WebEx {
+		HttpRequest hreq = request(method, url, bodyPublisher, headers);
+		ServerPermits permits = acquire(hreq);
+		try {
+			HttpResponse<String> response = httpClient.send(hreq, BodyHandlers.ofString(StandardCharsets.UTF_8));
+			return checkStatus(url, response.statusCode(), response.body());
+		} catch (IOException e) {
+			throw Utils.runtime(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw Utils.runtime(e);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * The connection (and its permit) is held until the stream is closed.
+	 */
+	@Override
+	public InputStream openStream(String method, String url, String body) throws WebEx {
+		return openStream(method, url, body, null);
+	}
+
+	@Override
+	public InputStream openStream(String method, String url, String body, Map<String, String> headers) throws WebEx {
+		HttpRequest hreq = request(method(method, body), url, publisher(body), headers);
+		ServerPermits permits = acquire(hreq);
+		boolean handedOver = false;
+		try {
+			HttpResponse<InputStream> response = httpClient.send(hreq, BodyHandlers.ofInputStream());
+			if (response.statusCode() >= 300) {
+				String json;
+				try (InputStream in = response.body()) {
+					json = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+				}
+				checkStatus(url, response.statusCode(), json);
+			}
+			InputStream in = new FilterInputStream(response.body()) {
+				private final AtomicBoolean closed = new AtomicBoolean();
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						if (closed.compareAndSet(false, true)) permits.release();
+					}
+				}
+			};
+			handedOver = true;
+			return in;
+		} catch (IOException e) {
+			throw Utils.runtime(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw Utils.runtime(e);
+		} finally {
+			if ( ! handedOver) permits.release();
+		}
+	}
+
+	/**
+	 * Non-blocking: the call goes out on the JDK's NIO selector, and if the server is at its 
+	 * connection limit, the call is queued (rather than a thread waiting).
+	 */
+	@Override
+	public CompletableFuture<String> sendAsync(String method, String url, String body, Executor executor) {
+		return sendAsync(method, url, body, null, executor);
+	}
+
+	@Override
+	public CompletableFuture<String> sendAsync(String method, String url, String body, Map<String, String> headers, Executor executor) {
+		HttpRequest hreq = request(method(method, body), url, publisher(body), headers);
+		ServerPermits permits = permits(hreq.uri());
+		CompletableFuture<String> result = new CompletableFuture<>();
+		permits.runWhenFree(() -> {
+			CompletableFuture<HttpResponse<String>> f;
+			try {
+				f = httpClient.sendAsync(hreq, BodyHandlers.ofString(StandardCharsets.UTF_8));
+			} catch(Throwable ex) {
+				permits.release();
+				result.completeExceptionally(ex);
+				return;
+			}
+			f.whenComplete((response, ex) -> {
+				permits.release();
+				if (ex != null) {
+					result.completeExceptionally(ex);
+					return;
+				}
+				try {
+					result.complete(checkStatus(url, response.statusCode(), response.body()));
+				} catch(Throwable wex) {
+					result.completeExceptionally(wex);
+				}
+			});
+		});
+		return result;
+	}
+
+	private HttpRequest request(String method, String url, BodyPublisher bodyPublisher, Map<String, String> headers) {
+		URI uri = URI.create(url);
+		HttpRequest.Builder b = HttpRequest.newBuilder(uri)
+				.timeout(requestTimeout)
+				.header("Content-Type", "application/json")
+				.method(method, bodyPublisher);
+		if (headers != null) {
+			headers.forEach(b::header);
+		}
+		return b.build();
+	}
+
+	private static BodyPublisher publisher(String body) {
+		return body==null? BodyPublishers.noBody() : BodyPublishers.ofString(body, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Wait for a free connection to the server
+	 */
+	private ServerPermits acquire(HttpRequest hreq) {
+		ServerPermits permits = permits(hreq.uri());
+		try {
+			permits.semaphore.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw Utils.runtime(e);
+		}
+		return permits;
+	}
+
+	static String method(String method, String body) {
+		if (method!=null) return method;
+		return body==null? "GET" : "POST";
+	}
+
+	/**
+	 * @return json (or "")
+	 * @throws WebEx if the code is 40X or 50X -- as FakeBrowser does, so {@link ESHttpRequest} error handling works for both.
+	 */
+	static String checkStatus(String url, int code, String json) throws WebEx {
+		if (code < 300) {
+			return json==null? "" : json;
+		}
+		String msg = code+" "+json;
+		if (code == 404) throw new WebEx.E404(url, msg);
+		if (code == 403) throw new WebEx.E403(url, msg);
+		if (code >= 500) throw new WebEx.E50X(code, url, msg);
+		throw new WebEx.E40X(code, url, msg);
+	}
+
+	private ServerPermits permits(URI uri) {
+		String server = uri.getScheme()+"://"+uri.getHost()+":"+uri.getPort();
+		return servers.computeIfAbsent(server, k -> new ServerPermits(maxPerServer));
+	}
+
+	/**
+	 * A semaphore which blocking calls wait on, plus a queue for async calls (which must not wait).
+	 */
+	static final class ServerPermits {
+		final Semaphore semaphore;
+		private final ConcurrentLinkedQueue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+		ServerPermits(int permits) {
+			semaphore = new Semaphore(permits, true);
+		}
+
+		/**
+		 * Run now if there is a free permit, otherwise when one is released. 
+		 * The Runnable owns the permit, and must call {@link #release()}.
+		 */
+		void runWhenFree(Runnable call) {
+			waiting.add(call);
+			drain();
+		}
+
+		void release() {
+			semaphore.release();
+			drain();
+		}
+
+		private void drain() {
+			// NB: both add and release call this, so a queued call cannot be missed
+			while( ! waiting.isEmpty() && semaphore.tryAcquire()) {
+				Runnable call = waiting.poll();
+				if (call==null) {
+					// someone else took it -- loop to re-check
+					semaphore.release();
+					continue;
+				}
+				call.run();
+			}
+		}
+	}
+
+	/**
+	 * Java 21+: closes the JDK client, which waits for any calls in flight and then closes its connections.
+	 * Before Java 21 there is no explicit close -- the JDK client releases its pool when it is garbage collected.
+	 */
+	@Override
+	public void close() {
+		servers.clear();
+		// HttpClient is AutoCloseable from Java 21 -- this still compiles and runs on Java 11
+		if (httpClient instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) httpClient).close();
+			} catch (Exception e) {
+				throw Utils.runtime(e);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PooledHttpTransport[maxPerServer="+maxPerServer+"]";
+	}
+}
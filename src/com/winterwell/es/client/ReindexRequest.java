@@ -4,8 +4,8 @@
 package com.winterwell.es.client;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-import com.winterwell.utils.TodoException;
 import com.winterwell.utils.containers.ArrayMap;
 
 /**
@@ -15,6 +15,7 @@ import com.winterwell.utils.containers.ArrayMap;
  * https://www.elastic.co/guide/en/elasticsearch/reference/current/docs-reindex.html
  * 
  * This will scroll over all the data! There is no other way.
+ * For big indices, use {@link #startTask()} rather than get(), and see {@link ParallelReindex}.
  * 
  * @testedby  ReindexRequestTest}
  * @author daniel
@@ -42,7 +43,8 @@ public class ReindexRequest extends ESHttpRequest<ReindexRequest, IESResponse>
 		body().put("source", new ArrayMap("index", fromIndex));
 		body().put("dest", new ArrayMap("index", toIndex));
 		if (fromIndex.equals(toIndex)) {
-			throw new TodoException();
+			// ES refuses this -- to change an index's mapping, reindex into a new index and move the alias
+			throw new IllegalArgumentException("Cannot reindex into the source index: "+fromIndex);
 		}
 	}
 
@@ -56,6 +58,38 @@ public class ReindexRequest extends ESHttpRequest<ReindexRequest, IESResponse>
 		source.put("query", queryJson);
 		return this;
 	}
-	
-	
+
+	/**
+	 * @param slices "auto" (one per shard), or a number. Slices run in parallel inside ES.
+	 */
+	public ReindexRequest setSlices(Object slices) {
+		params.put("slices", slices);
+		return this;
+	}
+
+	/**
+	 * @param requestsPerSecond Speed limit (docs per second, roughly). -1 for unlimited (the default).
+	 * @see ESTask#rethrottle(float) to change it whilst running
+	 */
+	public ReindexRequest setRequestsPerSecond(float requestsPerSecond) {
+		params.put("requests_per_second", requestsPerSecond < 0? "-1" : Float.toString(requestsPerSecond));
+		return this;
+	}
+
+	/**
+	 * Run in the background inside ES (wait_for_completion=false).
+	 * @return the task, once ES has accepted it. Use {@link ESTask#whenDone(com.winterwell.utils.time.Dt)} to wait.
+	 */
+	public CompletableFuture<ESTask> startTask() {
+		return ESTask.start(this, "_reindex");
+	}
+
+	String getSourceIndex() {
+		return (String) ((Map) body().get("source")).get("index");
+	}
+
+	String getDestIndex() {
+		return (String) ((Map) body().get("dest")).get("index");
+	}
+
 }
@@ -0,0 +1,187 @@
+package com.winterwell.es.client;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.winterwell.utils.StrUtils;
+import com.winterwell.utils.containers.ArrayMap;
+
+/**
+ * An in-process cache of search results, for dashboards and the like which send the same search again and again.
+ * Keyed by indices + url-parameters + body json.
+ *
+ * Opt-in per search via {@link SearchRequest#setCacheTtl(com.winterwell.utils.time.Dt)}
+ * (or for all searches via {@link ESConfig#esSearchCacheTtl}).
+ * The raw json is stored, and a hit is only parsed as far as the caller asks.
+ *
+ * A write made through the same client drops the cached searches on that index.
+ * Writes from elsewhere are only seen when an entry expires.
+ * NB: By index name as given -- a write via an alias does not invalidate a search on the index name (or vice versa).
+ * A search on no index (i.e. all) is dropped by any write.
+ *
+ * Switch on with {@link ESConfig#esSearchCacheMaxBytes}.
+ *
+ * @testedby SearchCacheTest
+ * @author daniel
+ *
+ */
+public class SearchCache {
+
+	private final Cache<String, Entry> cache;
+	private final long defaultTtl;
+
+	/**
+	 * Bumped by every invalidation. A search which started before a write must not be cached after it.
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	static final class Entry {
+		final String json;
+		/**
+		 * null for all
+		 */
+		final List<String> indices;
+		final long expires;
+
+		Entry(String json, List<String> indices, long expires) {
+			this.json = json;
+			this.indices = indices;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * A cacheable search: its key, and the generation when it was looked up
+	 */
+	static final class Lookup {
+		final String key;
+		final long generation;
+		final long ttl;
+		Lookup(String key, long generation, long ttl) {
+			this.key = key;
+			this.generation = generation;
+			this.ttl = ttl;
+		}
+	}
+
+	public SearchCache(ESConfig config) {
+		long maxTtl = Math.max(config.esSearchCacheMaxTtl, config.esSearchCacheTtl);
+		cache = CacheBuilder.newBuilder()
+				.maximumWeight(config.esSearchCacheMaxBytes)
+				// approximate: 1 char ~ 1 byte for json
+				.weigher((String k, Entry e) -> 64 + k.length() + e.json.length())
+				.expireAfterWrite(maxTtl, TimeUnit.MILLISECONDS)
+				.recordStats()
+				.build();
+		defaultTtl = config.esSearchCacheTtl;
+	}
+
+	/**
+	 * @return null if this search should not be cached
+	 */
+	Lookup lookup(SearchRequest search) {
+		long ttl = search.cacheTtl >= 0? search.cacheTtl : defaultTtl;
+		if (ttl <= 0 || search.params.containsKey("scroll")) return null;
+		// sorted params, so the key does not depend on the order they were set
+		Map<String, Object> ps = new TreeMap<>(search.params);
+		String key = (search.indices==null? "" : StrUtils.join(search.indices, ","))
+				+"?"+ps+"\n"+search.getBodyJson();
+		return new Lookup(key, generation.get(), ttl);
+	}
+
+	/**
+	 * @return a response made from the cached json, or null
+	 */
+	ESHttpResponse get(Lookup lookup, SearchRequest search) {
+		Entry e = cache.getIfPresent(lookup.key);
+		if (e == null || e.expires < System.currentTimeMillis()) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return new ESHttpResponse(search, e.json);
+	}
+
+	void put(Lookup lookup, SearchRequest search, ESHttpResponse response) {
+		if ( ! response.isSuccess() || response.getJson() == null) return;
+		// only keep it if there's been no write since the search set off
+		if (generation.get() != lookup.generation) return;
+		List<String> idxs = search.indices==null || search.indices.isEmpty() || search.indices.get(0)==null?
+				null : Arrays.asList(((Collection<String>) search.indices).toArray(new String[0]));
+		cache.put(lookup.key, new Entry(response.getJson(), idxs, System.currentTimeMillis() + lookup.ttl));
+	}
+
+	/**
+	 * Drop the searches a write could affect.
+	 */
+	void onWrite(ESHttpRequest req) {
+		if (req instanceof BulkRequest) {
+			for (ESHttpRequest action : (List<ESHttpRequest>) ((BulkRequest) req).actions) {
+				onWrite(action);
+			}
+			return;
+		}
+		if (req instanceof ReindexRequest) {
+			invalidateIndex(((ReindexRequest) req).getDestIndex());
+			return;
+		}
+		// searches may be via an alias, so index admin drops everything
+		if (DocCache.isIndexAdmin(req)) {
+			invalidateAll();
+			return;
+		}
+		boolean isWrite = req.bulkOpName != null || req instanceof UpdateByQueryRequest || req instanceof DeleteByQueryRequest;
+		if ( ! isWrite || req.indices == null) return;
+		for (Object idx : req.indices) {
+			invalidateIndex((String) idx);
+		}
+	}
+
+	/**
+	 * Drop the cached searches on this index (and those on all indices).
+	 * E.g. call after a refresh made from elsewhere.
+	 */
+	public void invalidateIndex(String index) {
+		if (index == null) return;
+		generation.incrementAndGet();
+		invalidations.incrementAndGet();
+		cache.asMap().values().removeIf(e -> e.indices == null || e.indices.contains(index));
+	}
+
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		invalidations.incrementAndGet();
+		cache.invalidateAll();
+	}
+
+	/**
+	 * @return hits, misses, hitRate, invalidations, evictions, size
+	 */
+	public Map<String, Object> getStats() {
+		long h = hits.get(), m = misses.get();
+		return new ArrayMap(
+				"hits", h,
+				"misses", m,
+				"hitRate", h+m==0? 0.0 : h / (double) (h+m),
+				"invalidations", invalidations.get(),
+				"evictions", cache.stats().evictionCount(),
+				"size", cache.size()
+				);
+	}
+
+	@Override
+	public String toString() {
+		return "SearchCache"+getStats();
+	}
+}
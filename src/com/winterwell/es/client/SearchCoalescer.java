@@ -0,0 +1,163 @@
+package com.winterwell.es.client;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.winterwell.utils.log.Log;
+
+/**
+ * Send concurrent searches together: a search is held for a few milliseconds, and any others which
+ * arrive in that window go with it as one _msearch. Saves round trips when e.g. a page render fires
+ * off a lot of small searches at once.
+ *
+ * Switch on with {@link ESConfig#esSearchCoalesceWindow} -- then SearchRequest get() and executeAsync() use it
+ * automatically. Scrolls and streamed searches are not coalesced.
+ *
+ * @testedby MultiSearchRequestTest
+ * @author daniel
+ *
+ */
+public class SearchCoalescer implements Closeable {
+
+	private static final String LOGTAG = "ES.coalesce";
+
+	private final ESHttpClient esjc;
+	private final long windowMsecs;
+	private final int maxBatch;
+
+	static final class Pending {
+		final SearchRequest search;
+		final CompletableFuture<ESHttpResponse> result = new CompletableFuture<>();
+		Pending(SearchRequest search) {
+			this.search = search;
+		}
+	}
+
+	/**
+	 * guarded by this
+	 */
+	private List<Pending> pending = new ArrayList<>();
+	private ScheduledFuture<?> flushTask;
+	private boolean closed;
+
+	/**
+	 * @param windowMsecs How long to hold a search for company
+	 * @param maxBatch Send as soon as this many are waiting
+	 */
+	public SearchCoalescer(ESHttpClient esjc, long windowMsecs, int maxBatch) {
+		assert maxBatch > 0 : maxBatch;
+		this.esjc = esjc;
+		this.windowMsecs = windowMsecs;
+		this.maxBatch = maxBatch;
+	}
+
+	/**
+	 * @return true if this search can go in an _msearch
+	 */
+	boolean canCoalesce(SearchRequest search) {
+		return ! closed && ! search.params.containsKey("scroll");
+	}
+
+	/**
+	 * @return The search's own response, once the batch it joins comes back.
+	 */
+	public CompletableFuture<ESHttpResponse> submit(SearchRequest search) {
+		if ( ! canCoalesce(search)) {
+			return search.doExecuteAsyncDirect(esjc);
+		}
+		// build the body now, in the caller's thread
+		search.getBodyJson();
+		Pending p = new Pending(search);
+		List<Pending> full = null;
+		synchronized (this) {
+			pending.add(p);
+			if (pending.size() >= maxBatch) {
+				full = takePending();
+			} else if (pending.size() == 1) {
+				try {
+					flushTask = esjc.getTimer().schedule(this::flush, windowMsecs, TimeUnit.MILLISECONDS);
+				} catch(RejectedExecutionException ex) {
+					// client closed
+					full = takePending();
+				}
+			}
+		}
+		if (full != null) send(full);
+		return p.result;
+	}
+
+	/**
+	 * Send any held searches now.
+	 */
+	public void flush() {
+		List<Pending> batch;
+		synchronized (this) {
+			batch = takePending();
+		}
+		send(batch);
+	}
+
+	private List<Pending> takePending() {
+		List<Pending> batch = pending;
+		pending = new ArrayList<>();
+		if (flushTask != null) {
+			flushTask.cancel(false);
+			flushTask = null;
+		}
+		return batch;
+	}
+
+	private void send(List<Pending> batch) {
+		if (batch.isEmpty()) return;
+		if (batch.size() == 1) {
+			// no company came along
+			Pending p = batch.get(0);
+			p.search.doExecuteAsyncDirect(esjc).whenComplete((r, ex) -> {
+				if (ex != null) p.result.completeExceptionally(ex);
+				else p.result.complete(r);
+			});
+			return;
+		}
+		// NB: one _msearch, so one set of headers (e.g. X-Opaque-Id) -- the first search's
+		MultiSearchRequest msr = new MultiSearchRequest(esjc).setInternal(batch.get(0).search.getHeaders());
+		for (Pending p : batch) {
+			msr.add(p.search);
+		}
+		if (batch.get(0).search.debug) {
+			Log.d(LOGTAG, "Sending "+batch.size()+" searches as one _msearch");
+		}
+		msr.executeAsync().whenComplete((mr, ex) -> {
+			for(int i=0; i<batch.size(); i++) {
+				Pending p = batch.get(i);
+				if (ex != null) {
+					p.result.completeExceptionally(ex);
+					continue;
+				}
+				try {
+					p.result.complete((ESHttpResponse) mr.getResponse(i));
+				} catch(Throwable ex2) {
+					p.result.completeExceptionally(ex2);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Send any held searches, and stop coalescing.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		flush();
+	}
+
+	@Override
+	public String toString() {
+		return "SearchCoalescer[window="+windowMsecs+"ms maxBatch="+maxBatch+"]";
+	}
+}
@@ -0,0 +1,290 @@
+package com.winterwell.es.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.winterwell.gson.Gson;
+import com.winterwell.gson.stream.JsonReader;
+import com.winterwell.gson.stream.JsonToken;
+import com.winterwell.utils.Utils;
+import com.winterwell.utils.log.Log;
+
+/**
+ * Search hits, read one at a time from the http response with a pull parser. Each _source is decoded
+ * straight into a POJO, so a big response never exists as one String or as one Map tree.
+ * 
+ * Usage:
+ * <pre>
+ * try (SearchHitStream&lt;Foo&gt; hits = search.stream(Foo.class)) {
+ * 	for(ESHit&lt;Foo&gt; hit : hits) { ... }
+ * }
+ * </pre>
+ * 
+ * The total and scroll-id come before the hits in ES's json, so they are available straight away.
+ * Aggregations come after, so {@link #getAggregations()} only works once the hits have all been read.
+ * 
+ * Not thread safe. Iterable only once.
+ * 
+ * @see SearchRequest#stream(Class)
+ * @testedby SearchHitStreamTest
+ * @author daniel
+ *
+ * @param <X> The POJO type
+ */
+public class SearchHitStream<X> implements Iterator<ESHit<X>>, Iterable<ESHit<X>>, Closeable {
+
+	private final JsonReader reader;
+	/**
+	 * For the POJOs
+	 */
+	private final Gson gson;
+	/**
+	 * For everything else
+	 */
+	private final Gson plainGson;
+	private final Class<? extends X> type;
+	
+	private long total = -1;
+	private String scrollId;
+	private String pitId;
+	private Map aggregations;
+	
+	private ESHit<X> next;
+	private boolean done;
+	private boolean closed;
+	private int count;
+
+	/**
+	 * Reads the json up to the first hit.
+	 * @param in utf-8 json from _search. Closed when the hits are all read, or by {@link #close()}
+	 * @param gson Used to decode _source into type
+	 * @param type Can be Map
+	 */
+	SearchHitStream(InputStream in, Gson gson, Class<? extends X> type) {
+		this.reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		this.gson = gson;
+		this.plainGson = ESHttpResponse.plainGson();
+		this.type = type;
+		try {
+			readHeader();
+		} catch(Throwable ex) {
+			close();
+			throw Utils.runtime(ex);
+		}
+	}
+
+	/**
+	 * Read up to the start of the hits.hits array
+	 */
+	private void readHeader() throws IOException {
+		reader.beginObject();
+		while(reader.hasNext()) {
+			String name = reader.nextName();
+			if ( ! "hits".equals(name)) {
+				readTopLevel(name);
+				continue;
+			}
+			reader.beginObject();
+			while(reader.hasNext()) {
+				String hname = reader.nextName();
+				if ("hits".equals(hname)) {
+					reader.beginArray();
+					// ready to go
+					return;
+				}
+				readHitsField(hname);
+			}
+			reader.endObject();
+		}
+		// no hits at all, e.g. size=0 with aggregations
+		reader.endObject();
+		done = true;
+		close();
+	}
+
+	/**
+	 * After the hits array: the rest of hits {}, then the rest of the response
+	 */
+	private void readTrailer() throws IOException {
+		reader.endArray();
+		while(reader.hasNext()) {
+			readHitsField(reader.nextName());
+		}
+		reader.endObject();
+		while(reader.hasNext()) {
+			readTopLevel(reader.nextName());
+		}
+		reader.endObject();
+	}
+
+	private void readTopLevel(String name) throws IOException {
+		switch(name) {
+		case "_scroll_id":
+			scrollId = reader.nextString();
+			break;
+		case "pit_id":
+			pitId = reader.nextString();
+			break;
+		case "aggregations":
+			aggregations = plainGson.fromJson(reader, Map.class);
+			break;
+		default:
+			reader.skipValue();
+		}
+	}
+
+	private void readHitsField(String name) throws IOException {
+		if ( ! "total".equals(name)) {
+			reader.skipValue();
+			return;
+		}
+		// ESv6: a number. ESv7: {value, relation}
+		if (reader.peek() == JsonToken.NUMBER) {
+			total = reader.nextLong();
+			return;
+		}
+		reader.beginObject();
+		while(reader.hasNext()) {
+			if ("value".equals(reader.nextName())) {
+				total = reader.nextLong();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+	}
+
+	private ESHit<X> readHit() throws IOException {
+		ESHit<X> hit = new ESHit<>();
+		hit.setType(type);
+		X pojo = null;
+		reader.beginObject();
+		while(reader.hasNext()) {
+			String name = reader.nextName();
+			switch(name) {
+			case "_index":
+				hit._index = reader.nextString();
+				break;
+			case "_id":
+				hit._id = reader.nextString();
+				break;
+			case "_source":
+				if (type==null || Map.class.isAssignableFrom(type)) {
+					hit._source = plainGson.fromJson(reader, Map.class);
+				} else {
+					pojo = gson.fromJson(reader, type);
+				}
+				break;
+			case "sort":
+				hit.sort = plainGson.fromJson(reader, List.class);
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (pojo != null) hit.setJava(pojo);
+		return hit;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next != null) return true;
+		if (done) return false;
+		if (closed) throw new IllegalStateException("closed");
+		try {
+			if (reader.hasNext()) {
+				next = readHit();
+				count++;
+				return true;
+			}
+			readTrailer();
+			done = true;
+			close();
+			return false;
+		} catch(Throwable ex) {
+			close();
+			throw Utils.runtime(ex);
+		}
+	}
+
+	@Override
+	public ESHit<X> next() {
+		if ( ! hasNext()) throw new NoSuchElementException();
+		ESHit<X> n = next;
+		next = null;
+		return n;
+	}
+
+	/**
+	 * @return this -- NB: can only be iterated once
+	 */
+	@Override
+	public Iterator<ESHit<X>> iterator() {
+		return this;
+	}
+
+	/**
+	 * @return the total matching documents (not the number in this response), or -1 if ES did not say.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return for a scroll search, else null
+	 */
+	public String getScrollId() {
+		return scrollId;
+	}
+
+	/**
+	 * @return for a point-in-time search, else null
+	 */
+	public String getPitId() {
+		return pitId;
+	}
+
+	/**
+	 * Aggregations come last in ES's json, so read all the hits first.
+	 * @return the aggregations, or null if there were none
+	 * @throws IllegalStateException if the hits have not all been read
+	 */
+	public Map getAggregations() {
+		if ( ! done) throw new IllegalStateException("Read all the hits first");
+		return aggregations;
+	}
+
+	/**
+	 * @return how many hits have been read so far
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Release the http connection. Safe to call repeatedly.
+	 */
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		try {
+			reader.close();
+		} catch (IOException e) {
+			Log.w("ES", e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SearchHitStream[total="+total+" read="+count+(done? " done" : "")+"]";
+	}
+}
@@ -1,9 +1,13 @@
 package com.winterwell.es.client;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 import com.winterwell.es.client.admin.SearchSettingsRequest;
 import com.winterwell.es.client.agg.Aggregation;
@@ -154,13 +158,14 @@ public class SearchRequest extends ESHttpRequest<SearchRequest,SearchResponse> {
 	}
 
 	public SearchRequest addSort(Sort sort) {
-		// type Map (normal) | String (ScoreSort)
+		// type Sort (which writes itself straight to json) | Map or String (if set via the body)
 		List sorts = (List) body().get("sort");
 		if (sorts==null) {
 			sorts = new ArrayList();
 			body().put("sort", sorts);
 		}		
-		sorts.add(sort.toJson2());
+		// NB: kept as a Sort, which writes itself straight to json -- a copy, so later edits to sort don't leak in
+		sorts.add(sort.copy());
 		return this;
 	}
 	
@@ -242,4 +247,132 @@ public class SearchRequest extends ESHttpRequest<SearchRequest,SearchResponse> {
 		return n==null? null : n.intValue();
 	}
 	
+	/**
+	 * Export all the results (however many), with parallel slices.
+	 * @param type The POJO class for _source, or Map
+	 */
+	public <X> SlicedExport<X> slicedExport(Class<? extends X> type) {
+		return new SlicedExport<X>(this, type);
+	}
+	
+	/**
+	 * Walk over all the results (however many) with a point-in-time + search_after. 
+	 * @param type The POJO class for _source, or Map
+	 * @return Close it if you stop early (try-with-resources).
+	 */
+	public <X> PointInTimeSearch<X> pointInTime(Class<? extends X> type) {
+		return new PointInTimeSearch<X>(this, type);
+	}
+	
+	/**
+	 * Build once, run many times: serialise this search to json, with holes for {@link SearchTemplate#param(String)}s.
+	 * Later changes to this request do not affect the template. NB: its Aggregations cannot be edited after this.
+	 */
+	public SearchTemplate compile() {
+		return new SearchTemplate(this);
+	}
+	
+	/**
+	 * -1 for unset (use the config default)
+	 */
+	long cacheTtl = -1;
+
+	/**
+	 * Cache the results in the client's {@link SearchCache} (if it has one -- see {@link ESConfig#esSearchCacheMaxBytes}).
+	 * @param ttl How long the results can be reused for. 0 for don't cache.
+	 */
+	public SearchRequest setCacheTtl(Dt ttl) {
+		cacheTtl = ttl.getMillisecs();
+		return this;
+	}
+
+	/**
+	 * Use the client's {@link SearchCache}, if it has one and this search opted in.
+	 */
+	@Override
+	protected ESHttpResponse doExecute(ESHttpClient esjc) {
+		SearchCache cache = esjc.getSearchCache();
+		SearchCache.Lookup lookup = cache==null? null : cache.lookup(this);
+		if (lookup != null) {
+			ESHttpResponse hit = cache.get(lookup, this);
+			if (hit != null) return hit;
+		}
+		ESHttpResponse r = doExecute2(esjc);
+		if (lookup != null) cache.put(lookup, this, r);
+		return r;
+	}
+
+	@Override
+	protected CompletableFuture<ESHttpResponse> doExecuteAsync(ESHttpClient esjc) {
+		SearchCache cache = esjc.getSearchCache();
+		SearchCache.Lookup lookup = cache==null? null : cache.lookup(this);
+		if (lookup != null) {
+			ESHttpResponse hit = cache.get(lookup, this);
+			if (hit != null) return CompletableFuture.completedFuture(hit);
+		}
+		CompletableFuture<ESHttpResponse> f = doExecuteAsync2(esjc);
+		if (lookup == null) return f;
+		return f.thenApply(r -> {
+			cache.put(lookup, this, r);
+			return r;
+		});
+	}
+
+	/**
+	 * If the client has a {@link SearchCoalescer}, go via that.
+	 */
+	private ESHttpResponse doExecute2(ESHttpClient esjc) {
+		SearchCoalescer coalescer = esjc.getSearchCoalescer();
+		if (coalescer != null && coalescer.canCoalesce(this)) {
+			try {
+				return coalescer.submit(this).join();
+			} catch(CompletionException ex) {
+				return new ESHttpResponse(this, wrapError(ex.getCause()==null? ex : ex.getCause(), this));
+			}
+		}
+		return super.doExecute(esjc);
+	}
+	
+	private CompletableFuture<ESHttpResponse> doExecuteAsync2(ESHttpClient esjc) {
+		SearchCoalescer coalescer = esjc.getSearchCoalescer();
+		if (coalescer != null && coalescer.canCoalesce(this)) {
+			return coalescer.submit(this);
+		}
+		return super.doExecuteAsync(esjc);
+	}
+	
+	/**
+	 * Skip any coalescer
+	 */
+	CompletableFuture<ESHttpResponse> doExecuteAsyncDirect(ESHttpClient esjc) {
+		return super.doExecuteAsync(esjc);
+	}
+	
+	/**
+	 * Execute, streaming the hits: they are decoded one at a time from the http connection, 
+	 * each _source straight into a POJO. So a big response never sits in memory as a whole.
+	 * 
+	 * No retries. 
+	 * @param type The POJO class for _source, or Map
+	 * @return Must be closed (use try-with-resources) -- reading all the hits will also close it.
+	 * @throws com.winterwell.es.fail.ESException if the search fails
+	 */
+	public <X> SearchHitStream<X> stream(Class<? extends X> type) {
+		InputStream in = doExecuteStream(hClient);
+		return new SearchHitStream<X>(in, hClient.config.getGson(), type);
+	}
+	
+	/**
+	 * Convenience for {@link #stream(Class)}: call onHit with each hit, then close. 
+	 * @return the number of hits
+	 */
+	public <X> int forEachHit(Class<? extends X> type, Consumer<ESHit<X>> onHit) {
+		try (SearchHitStream<X> hits = stream(type)) {
+			for (ESHit<X> hit : hits) {
+				onHit.accept(hit);
+			}
+			return hits.getCount();
+		}
+	}
+	
 }
@@ -0,0 +1,212 @@
+package com.winterwell.es.client;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import com.winterwell.utils.Utils;
+import com.winterwell.utils.containers.AbstractIterator;
+import com.winterwell.utils.log.Log;
+import com.winterwell.utils.time.Dt;
+
+/**
+ * Scroll over all the results of a search, page by page.
+ * Whilst you process one page, the next is fetched.
+ * The scroll is cleared when the results run out, on an error, or on {@link #close()} -- so use try-with-resources
+ * in case you stop early.
+ *
+ * Iterable once.
+ *
+ * @see PointInTimeSearch which is cheaper for ES (v7.12+)
+ * @testedby SearchRequestScrollOverAllTest
+ * @author daniel
+ */
+public class SearchRequestScrollOverAll implements Iterable<List<Map>>, Closeable {
+
+	private static final String LOGTAG = "ES.scroll";
+
+	private final ESHttpClient client;
+	private final SearchRequest request;
+	private final Dt keepAlive;
+	private int size;
+	private boolean prefetch = true;
+
+	/**
+	 * The latest scroll id (only the latest should be used)
+	 */
+	private String scrollId;
+	private CompletableFuture<SearchResponse> nextPage;
+	private boolean started;
+	private boolean closed;
+
+	public SearchRequestScrollOverAll(ESHttpClient client, SearchRequest request, Dt keepAliveDuration) {
+		this.client = client;
+		request.setScroll(keepAliveDuration);
+		this.request = request;
+		this.keepAlive = keepAliveDuration;
+	}
+
+	/**
+	 * @return each page of hits
+	 * @see #hits(Class) for typed hits
+	 */
+	@Override
+	public Iterator<List<Map>> iterator() {
+		return pages(SearchResponse::getHits);
+	}
+
+	/**
+	 * @param type The POJO class for _source, or Map
+	 * @return All the hits, converted. Use this OR {@link #iterator()}.
+	 */
+	public <X> Iterator<ESHit<X>> hits(Class<? extends X> type) {
+		Iterator<List<ESHit<X>>> pages = pages(sr -> sr.getHits(type));
+		return new Iterator<ESHit<X>>() {
+			Iterator<ESHit<X>> page = Collections.emptyIterator();
+			@Override
+			public boolean hasNext() {
+				while( ! page.hasNext()) {
+					if ( ! pages.hasNext()) return false;
+					page = pages.next().iterator();
+				}
+				return true;
+			}
+			@Override
+			public ESHit<X> next() {
+				if ( ! hasNext()) throw new NoSuchElementException();
+				return page.next();
+			}
+		};
+	}
+
+	private <H> Iterator<List<H>> pages(Function<SearchResponse, List<H>> getHits) {
+		if (started) throw new IllegalStateException("Already started");
+		started = true;
+		Integer batchSize = request.getSize();
+		if (batchSize==null) {
+			// unset - use a chunky value
+			int chunkyBatch = size > 0? Math.min(1000, size) : 1000;
+			request.setSize(chunkyBatch);
+		} else if (size > 0 && batchSize > size) {
+			// reduce the batch size to fit small sizes
+			request.setSize(size);
+		}
+		nextPage = prefetch? request.executeAsync() : null;
+		return new SRSOAIterator<>(getHits);
+	}
+
+	class SRSOAIterator<H> extends AbstractIterator<List<H>> {
+		private final Function<SearchResponse, List<H>> getHits;
+		int total;
+
+		SRSOAIterator(Function<SearchResponse, List<H>> getHits) {
+			this.getHits = getHits;
+		}
+
+		@Override
+		protected List<H> next2() {
+			if (closed) return null;
+			if (size>0 && total>=size) {
+				close();
+				return null; // done
+			}
+			try {
+				SearchResponse response = nextPage==null? fetch().join() : nextPage.join();
+				nextPage = null;
+				response.check();
+				String sid = response.getScrollId();
+				if (sid != null) scrollId = sid;
+				List<H> hits = getHits.apply(response);
+				if (hits.isEmpty()) {
+					close();
+					return null;
+				}
+				// too many?
+				total += hits.size();
+				if (size>0 && total>=size) {
+					close();
+					if (total > size) {
+						int over = total - size;
+						assert over < hits.size();
+						return hits.subList(0, hits.size() - over);
+					}
+					return hits;
+				}
+				// get the next page whilst the caller works on this one
+				if (prefetch) nextPage = fetch();
+				return hits;
+			} catch(Throwable ex) {
+				close();
+				if (ex instanceof CompletionException && ex.getCause()!=null) ex = ex.getCause();
+				throw Utils.runtime(ex);
+			}
+		}
+	};
+
+	private CompletableFuture<SearchResponse> fetch() {
+		if (scrollId == null) {
+			return prefetch? request.executeAsync() : CompletableFuture.completedFuture(request.get());
+		}
+		SearchScrollRequest ssr = new SearchScrollRequest(client, scrollId, keepAlive).setInternal(request.getHeaders());
+		return prefetch? ssr.executeAsync() : CompletableFuture.completedFuture(ssr.get());
+	}
+
+	/**
+	 * Sets the maximum records to return. If unset, you can fetch everything.
+	 *
+	 * NB: The size of batches fetched from ES is set by setSize() on the SearchRequestBuilder.
+	 * @param n
+	 */
+	public void setSize(int n) {
+		size = n;
+	}
+
+	/**
+	 * @param prefetch If true (the default), fetch the next page whilst the caller works on this one.
+	 */
+	public SearchRequestScrollOverAll setPrefetch(boolean prefetch) {
+		if (started) throw new IllegalStateException("Already started");
+		this.prefetch = prefetch;
+		return this;
+	}
+
+	/**
+	 * Clear the scroll (if open), so ES can free it now rather than when the keep-alive runs out.
+	 * Safe to call repeatedly.
+	 */
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		CompletableFuture<SearchResponse> np = nextPage;
+		nextPage = null;
+		if (np != null && ! np.isDone()) {
+			// in flight -- clear once it lands (its scroll id may be newer)
+			np.whenComplete((r, ex) -> clear(r==null? null : r.getScrollId()));
+			return;
+		}
+		if (np != null && ! np.isCompletedExceptionally()) {
+			clear(np.join().getScrollId());
+			return;
+		}
+		clear(null);
+	}
+
+	private void clear(String latestScrollId) {
+		String sid = latestScrollId==null? scrollId : latestScrollId;
+		if (sid == null) return;
+		try {
+			IESResponse r = client.prepareClearScroll().setInternal(request.getHeaders()).setScrollId(sid).get();
+			if ( ! r.isSuccess()) Log.w(LOGTAG, "clear failed: "+r.getError());
+		} catch(Throwable ex) {
+			// ES will drop it when the keep-alive runs out anyway
+			Log.w(LOGTAG, ex);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package com.winterwell.es.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.winterwell.es.client.query.ESQueryBuilder;
+import com.winterwell.gson.Gson;
+import com.winterwell.utils.containers.ArrayMap;
+import com.winterwell.utils.time.Time;
+
+/**
+ * A search which is built once, "compiled" to json with named holes, and then run many times with just the holes filled in.
+ * Splicing is done client-side: no re-building or re-serialising of the query, and no extra ES setup.
+ * 
+ * Usage:
+ * <pre>
+ * SearchRequest s = esc.prepareSearch("events");
+ * s.setQuery(ESQueryBuilders.boolQuery()
+ * 		.must(ESQueryBuilders.termQuery("tenant", SearchTemplate.param("tenant")))
+ * 		.must(SearchTemplate.dateRangeQuery("date", "start", "end")));
+ * s.addAggregation(...);
+ * SearchTemplate template = s.compile(); // keep this
+ * 
+ * SearchResponse sr = template.bind(new ArrayMap("tenant", "acme", "start", t0, "end", t1)).setSize(20).get();
+ * </pre>
+ * 
+ * A hole is a json string value "{{name}}" -- so it can go anywhere a value goes, but not in a key.
+ * Bound values can be String, Number (but not NaN or Infinity), Boolean, {@link Time} (as an ISO string), or anything the body Gson can handle 
+ * (e.g. a List for a terms query).
+ * 
+ * This object is immutable and thread safe.
+ * 
+ * @testedby SearchTemplateTest
+ * @author daniel
+ *
+ */
+public final class SearchTemplate {
+
+	private static final Pattern HOLE = Pattern.compile("\"\\{\\{(\\w+)\\}\\}\"");
+
+	private final ESHttpClient esjc;
+	private final String[] indices;
+	private final String type;
+	private final Map<String,Object> params;
+	/**
+	 * json fragments: parts[0] hole[0] parts[1] hole[1] ... parts[n]
+	 */
+	private final String[] parts;
+	private final String[] holes;
+	private final int length;
+	private final String method;
+
+	/**
+	 * @param name letters, digits and _
+	 * @return a placeholder to put in a query instead of a value, e.g. termQuery("tenant", param("tenant"))
+	 */
+	public static String param(String name) {
+		assert name.matches("\\w+") : name;
+		return "{{"+name+"}}";
+	}
+
+	/**
+	 * A range query with holes for the start (inclusive) and end (exclusive).
+	 * Convenience for building a template -- c.f. {@link com.winterwell.es.client.query.ESQueryBuilders#dateRangeQuery(String, Time, Time)}
+	 * @param field
+	 * @param startParam
+	 * @param endParam
+	 */
+	public static ESQueryBuilder dateRangeQuery(String field, String startParam, String endParam) {
+		return new ESQueryBuilder(new ArrayMap("range", new ArrayMap(field, new ArrayMap(
+				"gte", param(startParam), 
+				"lt", param(endParam)
+				))));
+	}
+
+	SearchTemplate(SearchRequest search) {
+		this.esjc = search.hClient;
+		this.indices = search.indices==null? null : search.indices.toArray(new String[0]);
+		this.type = search.type;
+		this.params = Collections.unmodifiableMap(new ArrayMap(search.params));
+		this.method = search.method;
+		// NB: not getBodyJson(), which would keep the json on the search, so later edits to it would be ignored.
+		// Serialising does mark its Aggregations as converted though, so they can't be edited after this.
+		String json = search.getBodyJsonUncached();
+		if (json==null) json = "{}";
+		List<String> ps = new ArrayList<>();
+		List<String> hs = new ArrayList<>();
+		Matcher m = HOLE.matcher(json);
+		int prev = 0;
+		while(m.find()) {
+			ps.add(json.substring(prev, m.start()));
+			hs.add(m.group(1));
+			prev = m.end();
+		}
+		ps.add(json.substring(prev));
+		parts = ps.toArray(new String[0]);
+		holes = hs.toArray(new String[0]);
+		length = json.length();
+	}
+
+	/**
+	 * @return the param names in this template (can contain repeats)
+	 */
+	public List<String> getParams() {
+		return Collections.unmodifiableList(java.util.Arrays.asList(holes));
+	}
+
+	/**
+	 * @param values param name to value. Every hole must have a value (which can be null).
+	 * @return a fresh request, ready to run. You can still set url parameters on it, e.g. setSize(), setFrom() -- 
+	 * but not the body.
+	 * @throws IllegalArgumentException if a param is missing
+	 */
+	public SearchRequest bind(Map<String,?> values) {
+		SearchRequest s = new SearchRequest(esjc);
+		if (indices!=null) s.setIndices(indices);
+		s.type = type;
+		s.method = method;
+		s.params.putAll(params);
+		s.setBodyJson(bindJson(values));
+		return s;
+	}
+
+	String bindJson(Map<String,?> values) {
+		StringBuilder sb = new StringBuilder(length + 16*holes.length);
+		Gson gson = esjc==null? ESHttpClient.defaultBodyGson() : esjc.getBodyGson();
+		for(int i=0; i<holes.length; i++) {
+			sb.append(parts[i]);
+			String h = holes[i];
+			if ( ! values.containsKey(h)) {
+				throw new IllegalArgumentException("No value for {{"+h+"}} in "+values.keySet());
+			}
+			appendValue(sb, values.get(h), gson);
+		}
+		sb.append(parts[holes.length]);
+		return sb.toString();
+	}
+
+	private static void appendValue(StringBuilder sb, Object v, Gson gson) {
+		if (v==null) {
+			sb.append("null");
+		} else if (v instanceof Double || v instanceof Float) {
+			double d = ((Number) v).doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d)) {
+				throw new IllegalArgumentException("Not valid in json: "+v);
+			}
+			sb.append(v);
+		} else if (v instanceof Number || v instanceof Boolean) {
+			sb.append(v);
+		} else if (v instanceof Time) {
+			sb.append(gson.toJson(((Time) v).toISOString()));
+		} else {
+			sb.append(gson.toJson(v));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SearchTemplate["+(indices==null? "" : String.join(",", indices))+" params="+getParams()+"]";
+	}
+}
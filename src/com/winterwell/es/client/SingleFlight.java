@@ -0,0 +1,121 @@
+package com.winterwell.es.client;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.winterwell.utils.StrUtils;
+import com.winterwell.utils.Utils;
+import com.winterwell.utils.containers.ArrayMap;
+
+/**
+ * Identical requests which are in flight at the same time share one http call (and one response object).
+ * E.g. when a popular doc's cache entry expires, and lots of threads ask for it at once.
+ * 
+ * Unlike a cache, this adds no staleness: a request only joins a call which has not yet returned.
+ * 
+ * NB: Headers are not part of the match -- a shared call goes with the first request's headers (e.g. its X-Opaque-Id).
+ * 
+ * Meant for reads. Switch on per request ({@link ESHttpRequest#setSingleFlight(boolean)}), 
+ * or per type ({@link #enable(Class)}, or {@link ESConfig#esSingleFlightTypes}).
+ * 
+ * @testedby SingleFlightTest
+ * @author daniel
+ *
+ */
+public class SingleFlight {
+
+	private final ConcurrentHashMap<String, CompletableFuture<ESHttpResponse>> inFlight = new ConcurrentHashMap<>();
+	private final Set<Class> types = ConcurrentHashMap.newKeySet();
+
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong shared = new AtomicLong();
+
+	public SingleFlight(ESConfig config) {
+		if (Utils.isBlank(config.esSingleFlightTypes)) return;
+		for (String t : config.esSingleFlightTypes.split(",")) {
+			t = t.trim();
+			if (t.isEmpty()) continue;
+			try {
+				String cn = t.contains(".")? t : SingleFlight.class.getPackage().getName()+"."+t;
+				types.add(Class.forName(cn));
+			} catch (ClassNotFoundException e) {
+				throw new IllegalArgumentException("esSingleFlightTypes: unknown request class "+t);
+			}
+		}
+	}
+
+	/**
+	 * Switch on single-flight for all requests of this type (exactly -- not sub-classes).
+	 * @param requestType e.g. GetRequest.class
+	 */
+	public SingleFlight enable(Class<? extends ESHttpRequest> requestType) {
+		types.add(requestType);
+		return this;
+	}
+
+	public SingleFlight disable(Class<? extends ESHttpRequest> requestType) {
+		types.remove(requestType);
+		return this;
+	}
+
+	boolean isOn(ESHttpRequest req) {
+		if (req.getBodyStream() != null) return false;
+		if (req.singleFlight != null) return req.singleFlight;
+		return types.contains(req.getClass());
+	}
+
+	/**
+	 * @return method, path, sorted params and body -- which together say what the call is.
+	 * Plus the request class, as that decides how the response is read.
+	 */
+	static String key(ESHttpRequest req) {
+		StringBuilder url = req.getUrl("");
+		Map ps = new TreeMap(req.params);
+		String body = req.getBodyJson();
+		return StrUtils.join(new Object[]{req.getClass().getName(), req.method, url, ps, body}, "\n");
+	}
+
+	/**
+	 * @param call Makes the http call -- unless an identical one is already in flight.
+	 */
+	CompletableFuture<ESHttpResponse> run(ESHttpRequest req, Supplier<CompletableFuture<ESHttpResponse>> call) {
+		String key = key(req);
+		CompletableFuture<ESHttpResponse> mine = new CompletableFuture<>();
+		CompletableFuture<ESHttpResponse> existing = inFlight.putIfAbsent(key, mine);
+		if (existing != null) {
+			shared.incrementAndGet();
+			return existing;
+		}
+		calls.incrementAndGet();
+		CompletableFuture<ESHttpResponse> f;
+		try {
+			f = call.get();
+		} catch(Throwable ex) {
+			f = CompletableFuture.failedFuture(ex);
+		}
+		f.whenComplete((r, ex) -> {
+			// remove first, so a late-comer does not join a finished call
+			inFlight.remove(key, mine);
+			if (ex != null) mine.completeExceptionally(ex);
+			else mine.complete(r);
+		});
+		return mine;
+	}
+
+	/**
+	 * @return calls (made), shared (requests which joined a call), inFlight
+	 */
+	public Map<String, Object> getStats() {
+		return new ArrayMap("calls", calls.get(), "shared", shared.get(), "inFlight", inFlight.size());
+	}
+
+	@Override
+	public String toString() {
+		return "SingleFlight"+getStats();
+	}
+}
@@ -0,0 +1,341 @@
+package com.winterwell.es.client;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.winterwell.utils.Utils;
+import com.winterwell.utils.log.Log;
+import com.winterwell.utils.time.Dt;
+import com.winterwell.utils.time.TUnit;
+
+/**
+ * Export all the results of a search, fast: split the scan into slices over one point-in-time, 
+ * and run the slices in parallel, each in its own thread. Needs ESv7.14+ (for sliced point-in-time). 
+ * 
+ * Either:
+ * <ul>
+ * <li>{@link #run(Consumer)} / {@link #run(IntFunction)} -- push hits to consumer(s), in the slice threads. 
+ * <li>{@link #stream()} -- pull all the hits, merged into one stream. Back-pressure: slices wait if the 
+ * reader falls behind.
+ * </ul>
+ * Hit order is not defined. 
+ * 
+ * Run once. The point-in-time is closed at the end (or on {@link #close()} for an abandoned stream).
+ * 
+ * @testedby SlicedExportTest
+ * @author daniel
+ *
+ * @param <X> The POJO type for the hits' _source
+ */
+public class SlicedExport<X> implements Closeable {
+
+	private static final String LOGTAG = "ES.export";
+
+	/**
+	 * Marks the end of a slice in the stream queue
+	 */
+	private static final Object END = new Object();
+
+	private final ESHttpClient esjc;
+	private final SearchRequest search;
+	private final Class<? extends X> type;
+
+	private int slices = Runtime.getRuntime().availableProcessors();
+	private int batchSize = 1000;
+	private Dt keepAlive = new Dt(5, TUnit.MINUTE);
+	private BiConsumer<Long, Long> progressListener;
+
+	private final AtomicLong count = new AtomicLong();
+	private volatile long total = -1;
+	/**
+	 * Set by a failed slice (to stop the others) or by close()
+	 */
+	private volatile boolean stopped;
+	/**
+	 * Set by close() -- the reader has gone, so don't wait on the stream queue
+	 */
+	private volatile boolean closed;
+	/**
+	 * The first slice failure
+	 */
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private volatile String pitId;
+	private boolean started;
+	private List<ListenableFuture<Long>> futures;
+	/**
+	 * One thread per slice, shut down when they are done
+	 */
+	private ListeningExecutorService pool;
+
+	public SlicedExport(SearchRequest search, Class<? extends X> type) {
+		this.esjc = search.hClient;
+		this.search = search;
+		this.type = type;
+	}
+
+	/**
+	 * @param slices How many parallel scans. Default: the number of cores. Each gets its own thread
+	 * (not the client's pool, which the export would otherwise hog). 
+	 * More than the number of shards costs ES extra work per slice. 
+	 */
+	public SlicedExport<X> setSlices(int slices) {
+		startCheck();
+		assert slices > 0 : slices;
+		this.slices = slices;
+		return this;
+	}
+
+	/**
+	 * @param batchSize Hits per page, per slice. Default 1000.
+	 */
+	public SlicedExport<X> setBatchSize(int batchSize) {
+		startCheck();
+		assert batchSize > 0 : batchSize;
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * @param keepAlive How long ES should hold the point-in-time between pages. Default 5 minutes.
+	 */
+	public SlicedExport<X> setKeepAlive(Dt keepAlive) {
+		startCheck();
+		this.keepAlive = keepAlive;
+		return this;
+	}
+
+	/**
+	 * @param progressListener Called after each page (from the slice threads) with (hits so far, total). 
+	 * Must be thread safe. 
+	 */
+	public SlicedExport<X> setProgressListener(BiConsumer<Long, Long> progressListener) {
+		this.progressListener = progressListener;
+		return this;
+	}
+
+	/**
+	 * @return hits exported so far, across all slices
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the total number of hits (as counted at the start), or -1 if not started
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	private void startCheck() {
+		if (started) throw new IllegalStateException("Already started");
+	}
+
+	/**
+	 * Run the export, blocking until done.
+	 * @param consumer Called from the slice threads in parallel, so it must be thread safe.
+	 * @return the number of hits
+	 */
+	public long run(Consumer<ESHit<X>> consumer) {
+		return run(i -> consumer);
+	}
+
+	/**
+	 * Run the export, blocking until done.
+	 * @param perSlice slice-id to the consumer for that slice. Each consumer is only called from one thread.
+	 * @return the number of hits
+	 */
+	public long run(IntFunction<Consumer<ESHit<X>>> perSlice) {
+		start(perSlice);
+		try {
+			List<Long> counts = Futures.allAsList(futures).get();
+			return counts.stream().mapToLong(Long::longValue).sum();
+		} catch(Throwable ex) {
+			if (ex instanceof ExecutionException && ex.getCause()!=null) ex = ex.getCause();
+			throw Utils.runtime(ex);
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Run the export in the background, merging the slices into one stream.
+	 * Close the stream (try-with-resources) if you stop early. 
+	 */
+	public Stream<ESHit<X>> stream() {
+		BlockingQueue<Object> queue = new ArrayBlockingQueue<>(2*batchSize);
+		start(i -> hit -> {
+			if ( ! put(queue, hit)) throw new IllegalStateException("Export stopped");
+		});
+		// mark the end of each slice (a failure is recorded in the failure field by runSlice)
+		for (ListenableFuture<Long> f : futures) {
+			f.addListener(() -> {
+				try {
+					Futures.getDone(f);
+				} catch(Throwable ex) {
+					failure.compareAndSet(null, ex.getCause()==null? ex : ex.getCause());
+				}
+				put(queue, END);
+			}, Runnable::run);
+		}
+		Iterator<ESHit<X>> it = new Iterator<ESHit<X>>() {
+			int ended;
+			ESHit<X> next;
+			@Override
+			public boolean hasNext() {
+				while(next == null) {
+					Throwable ex = failure.get();
+					if (ex != null) {
+						close();
+						throw Utils.runtime(ex);
+					}
+					if (ended == slices || closed) return false;
+					Object x;
+					try {
+						// poll, so a failure is seen even if the queue is quiet
+						x = queue.poll(100, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+						close();
+						throw Utils.runtime(e);
+					}
+					if (x == END) {
+						ended++;
+					} else if (x != null) {
+						next = (ESHit<X>) x;
+					}
+				}
+				return true;
+			}
+			@Override
+			public ESHit<X> next() {
+				if ( ! hasNext()) throw new NoSuchElementException();
+				ESHit<X> n = next;
+				next = null;
+				return n;
+			}
+		};
+		Spliterator<ESHit<X>> split = Spliterators.spliteratorUnknownSize(it, Spliterator.NONNULL);
+		return StreamSupport.stream(split, false).onClose(this::close);
+	}
+
+	/**
+	 * Put, but give up if the export is closed (so an abandoned stream does not hang the slice threads).
+	 * @return false if closed
+	 */
+	private boolean put(BlockingQueue<Object> queue, Object x) {
+		try {
+			while( ! closed) {
+				if (queue.offer(x, 100, TimeUnit.MILLISECONDS)) return true;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	private void start(IntFunction<Consumer<ESHit<X>>> perSlice) {
+		startCheck();
+		started = true;
+		SearchRequest counter = new SearchRequest(esjc).setInternal(search.getHeaders());
+		if (search.indices != null) counter.setIndices(search.indices.toArray(new String[0]));
+		if (search.body != null) counter.body().putAll(search.body);
+		counter.body().remove("aggs");
+		counter.body().remove("aggregations");
+		counter.body().remove("sort");
+		counter.setSize(0);
+		counter.body().put("track_total_hits", true);
+		SearchResponse sr = counter.get();
+		sr.check();
+		total = sr.getTotal();
+		pitId = PointInTimeSearch.open(search, keepAlive);
+		futures = new ArrayList<>(slices);
+		// Not the client's pool: there a rejected slice could run inline (CALLER_RUNS), and block stream() 
+		// on a queue which nobody is reading yet.
+		pool = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(slices, 
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ES export %d").build()));
+		try {
+			for(int i=0; i<slices; i++) {
+				final int id = i;
+				futures.add(pool.submit(() -> runSlice(id, perSlice.apply(id))));
+			}
+			pool.shutdown(); // the threads end with their slices
+		} catch(Throwable ex) {
+			close();
+			throw Utils.runtime(ex);
+		}
+	}
+
+	private long runSlice(int id, Consumer<ESHit<X>> consumer) {
+		// no prefetch: slices already keep the pool busy, and a slice waiting on a queued prefetch could deadlock it
+		PointInTimeSearch<X> pit = new PointInTimeSearch<X>(search, type)
+				.setBatchSize(batchSize).setKeepAlive(keepAlive).setPrefetch(false)
+				.slice(id, slices, pitId);
+		long n = 0;
+		try {
+			Iterator<List<ESHit<X>>> pages = pit.pages();
+			while(pages.hasNext() && ! stopped) {
+				List<ESHit<X>> page = pages.next();
+				for (ESHit<X> hit : page) {
+					consumer.accept(hit);
+				}
+				n += page.size();
+				long c = count.addAndGet(page.size());
+				if (progressListener != null) progressListener.accept(c, total);
+			}
+			return n;
+		} catch(Throwable ex) {
+			failure.compareAndSet(null, ex);
+			// stop the other slices too
+			stopped = true;
+			throw Utils.runtime(ex);
+		} finally {
+			pit.close();
+		}
+	}
+
+	/**
+	 * Stop any running slices and close the point-in-time. Safe to call repeatedly.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		stopped = true;
+		if (pool != null) pool.shutdown();
+		String id = pitId;
+		pitId = null;
+		if (id == null) return;
+		try {
+			ESHttpResponse r = (ESHttpResponse) new ClosePointInTimeRequest(esjc, id).setInternal(search.getHeaders()).get();
+			if ( ! r.isSuccess()) Log.w(LOGTAG, "close failed: "+r.getError());
+		} catch(Throwable ex) {
+			Log.w(LOGTAG, ex);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SlicedExport["+search+" slices="+slices+" "+count+"/"+total+"]";
+	}
+}
@@ -0,0 +1,175 @@
+package com.winterwell.es.client;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.winterwell.utils.log.Log;
+import com.winterwell.utils.web.WebUtils2;
+
+/**
+ * Keep {@link ESHttpClient#getServers()} up to date with the cluster's http nodes, by calling _nodes/http
+ * every {@link ESConfig#esSniffInterval} -- and soon after a node is marked dead.
+ * The servers then feed into routing via {@link NodeSelector}.
+ * 
+ * Switch on with {@link ESConfig#esSniff}.
+ * 
+ * See https://www.elastic.co/guide/en/elasticsearch/reference/current/cluster-nodes-info.html
+ * 
+ * @testedby SnifferTest
+ * @author daniel
+ *
+ */
+public class Sniffer implements Closeable {
+
+	private static final String LOGTAG = "ES.sniff";
+
+	/**
+	 * Don't re-sniff more often than this when nodes are failing
+	 */
+	static final long MIN_SNIFF_GAP_MSECS = 1000;
+
+	private final ESHttpClient esjc;
+
+	/**
+	 * The configured server(s). Asked if none of the sniffed nodes answer.
+	 */
+	private final List<String> seeds;
+
+	private final ScheduledExecutorService timer;
+
+	private final AtomicBoolean sniffPending = new AtomicBoolean();
+
+	private volatile long lastSniff;
+
+	private final long interval;
+
+	public Sniffer(ESHttpClient esjc) {
+		this.esjc = esjc;
+		this.seeds = new ArrayList<>(esjc.getServers());
+		this.interval = esjc.getConfig().esSniffInterval;
+		assert interval > 0 : esjc.getConfig();
+		timer = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ES Sniffer %d").build());
+	}
+
+	/**
+	 * Sniff now (in the background), then every interval. Also re-sniff when a node dies.
+	 * @return this
+	 */
+	public Sniffer start() {
+		esjc.getNodeSelector().setOnDead(node -> sniffSoon());
+		timer.scheduleWithFixedDelay(this::sniffSafe, 0, interval, TimeUnit.MILLISECONDS);
+		return this;
+	}
+
+	/**
+	 * Schedule a sniff, unless one is already pending. Rate limited.
+	 */
+	void sniffSoon() {
+		if ( ! sniffPending.compareAndSet(false, true)) return;
+		long wait = Math.max(0, lastSniff + MIN_SNIFF_GAP_MSECS - System.currentTimeMillis());
+		try {
+			timer.schedule(this::sniffSafe, wait, TimeUnit.MILLISECONDS);
+		} catch(Exception ex) {
+			// closed
+			sniffPending.set(false);
+		}
+	}
+
+	private void sniffSafe() {
+		sniffPending.set(false);
+		try {
+			sniff();
+		} catch(Throwable ex) {
+			// don't kill the timer
+			Log.w(LOGTAG, ex);
+		}
+	}
+
+	/**
+	 * Call _nodes/http and update the client's servers.
+	 * @return the servers found. Empty if no-one answered (in which case the servers are left alone).
+	 */
+	public List<String> sniff() {
+		lastSniff = System.currentTimeMillis();
+		// ask the current nodes, then the seeds
+		LinkedHashSet<String> ask = new LinkedHashSet<>(esjc.getServers());
+		ask.addAll(seeds);
+		Exception err = null;
+		for (String server : ask) {
+			try {
+				String json = esjc.getTransport().send("GET", server+"/_nodes/http", null);
+				String scheme = URI.create(server).getScheme();
+				List<String> found = parseNodes(scheme, json);
+				if (found.isEmpty()) continue;
+				if ( ! found.equals(esjc.getServers())) {
+					Log.i(LOGTAG, "servers: "+found);
+					esjc.setServers(found);
+				}
+				return found;
+			} catch(Exception ex) {
+				err = ex;
+			}
+		}
+		Log.w(LOGTAG, "No node answered from "+ask+" "+err);
+		return new ArrayList<>();
+	}
+
+	/**
+	 * @param json from _nodes/http
+	 * @return server urls, e.g. "http://10.0.0.1:9200"
+	 */
+	static List<String> parseNodes(String scheme, String json) {
+		Map jobj = (Map) WebUtils2.parseJSON(json);
+		Map<String,Map> nodes = (Map) jobj.get("nodes");
+		List<String> servers = new ArrayList<>();
+		if (nodes==null) return servers;
+		for (Map node : nodes.values()) {
+			Map http = (Map) node.get("http");
+			if (http==null) continue; // http disabled on this node
+			String addr = (String) http.get("publish_address");
+			if (addr==null) continue;
+			servers.add(scheme+"://"+parsePublishAddress(addr));
+		}
+		// stable order, so we can spot "no change"
+		servers.sort(null);
+		return servers;
+	}
+
+	/**
+	 * @param addr e.g. "10.0.0.1:9200" or "es1.example.com/10.0.0.1:9200" or (old ES) "inet[/10.0.0.1:9200]"
+	 * @return e.g. "10.0.0.1:9200" or "es1.example.com:9200"
+	 */
+	static String parsePublishAddress(String addr) {
+		if (addr.startsWith("inet[")) {
+			addr = addr.substring(5, addr.length()-1);
+		}
+		int slash = addr.indexOf('/');
+		if (slash == -1) return addr;
+		String host = addr.substring(0, slash);
+		String ipPort = addr.substring(slash+1);
+		if (host.isEmpty()) return ipPort;
+		// prefer the hostname (e.g. for tls), with the port
+		String port = ipPort.substring(ipPort.lastIndexOf(':')+1);
+		return host+":"+port;
+	}
+
+	@Override
+	public void close() {
+		timer.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return "Sniffer[seeds="+seeds+" interval="+interval+"ms]";
+	}
+}
@@ -0,0 +1,37 @@
+package com.winterwell.es.client;
+
+import java.util.function.Supplier;
+
+/**
+ * Send the caller's trace id as X-Opaque-Id, so ES slow logs and _tasks can be matched up with your traces.
+ * 
+ * e.g. <code>esjc.addListener(new TraceIdListener(() -> MDC.get("traceId")));</code>
+ * 
+ * A request which already has an opaque id keeps it.
+ * 
+ * @testedby IESRequestListenerTest
+ * @author daniel
+ */
+public class TraceIdListener implements IESRequestListener {
+
+	private final Supplier<String> traceId;
+
+	/**
+	 * @param traceId Called in the caller's thread. Can return null (no header).
+	 */
+	public TraceIdListener(Supplier<String> traceId) {
+		this.traceId = traceId;
+	}
+
+	@Override
+	public void onSubmit(ESHttpRequest<?, ?> req) {
+		if (req.getOpaqueId() != null) return;
+		String id = traceId.get();
+		if (id != null) req.setOpaqueId(id);
+	}
+
+	@Override
+	public String toString() {
+		return "TraceIdListener";
+	}
+}
@@ -1,11 +1,21 @@
 package com.winterwell.es.client;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import com.winterwell.es.client.query.ESQueryBuilder;
 import com.winterwell.es.client.query.ESQueryBuilders;
-import com.winterwell.utils.ReflectionUtils;
 
+/**
+ * Update all the documents which match a query, via a script.
+ * 
+ * https://www.elastic.co/guide/en/elasticsearch/reference/current/docs-update-by-query.html
+ * 
+ * For big jobs, use {@link #startTask()} rather than get(), so it runs in the background inside ES.
+ * 
+ * @testedby UpdateByQueryRequestBuilderTest
+ * @author daniel
+ */
 public class UpdateByQueryRequest extends UpdateRequest {
 
 
@@ -15,8 +25,7 @@ public class UpdateByQueryRequest extends UpdateRequest {
 	}
 	
 	public UpdateByQueryRequest(ESHttpClient hClient) {
-		super(hClient);
-		ReflectionUtils.setPrivateField(this, "endpoint", "_update_by_query");
+		super(hClient, "_update_by_query");
 	}
 	
 	/**
@@ -61,4 +70,39 @@ public class UpdateByQueryRequest extends UpdateRequest {
 		return this;
 	}
 
+	/**
+	 * @param slices "auto" (one per shard), or a number. Slices run in parallel inside ES.
+	 */
+	public UpdateByQueryRequest setSlices(Object slices) {
+		params.put("slices", slices);
+		return this;
+	}
+
+	/**
+	 * @param proceed If true, count version conflicts (e.g. a doc edited mid-way) rather than aborting on the first.
+	 */
+	public UpdateByQueryRequest setConflictsProceed(boolean proceed) {
+		if (proceed) params.put("conflicts", "proceed");
+		else params.remove("conflicts");
+		return this;
+	}
+
+	/**
+	 * @param requestsPerSecond Speed limit (docs per second, roughly). -1 for unlimited (the default).
+	 * @see ESTask#rethrottle(float) to change it whilst running
+	 */
+	public UpdateByQueryRequest setRequestsPerSecond(float requestsPerSecond) {
+		params.put("requests_per_second", requestsPerSecond < 0? "-1" : Float.toString(requestsPerSecond));
+		return this;
+	}
+
+	/**
+	 * Run in the background inside ES (wait_for_completion=false).
+	 * @return the task, once ES has accepted it. Use {@link ESTask#whenDone(com.winterwell.utils.time.Dt)} to wait,
+	 * or {@link ESTask#cancel()} to stop.
+	 */
+	public CompletableFuture<ESTask> startTask() {
+		return ESTask.start(this, "_update_by_query");
+	}
+
 }
@@ -36,6 +36,14 @@ public class UpdateRequest extends ESHttpRequest<UpdateRequest,IESResponse> {
 		bulkOpName = "update";
 		setType("_doc"); // the new ESv7 omni-type
 	}
+
+	/**
+	 * For {@link UpdateByQueryRequest}
+	 */
+	protected UpdateRequest(ESHttpClient esHttpClient, String endpoint) {
+		super(esHttpClient, endpoint);
+		method = "POST";
+	}
 	
 	/**
      * The language of the script to execute.
@@ -0,0 +1,107 @@
+package com.winterwell.es.client;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.Array;
+import java.util.Map;
+
+import com.winterwell.gson.Gson;
+import com.winterwell.gson.TypeAdapter;
+import com.winterwell.gson.stream.JsonReader;
+import com.winterwell.gson.stream.JsonWriter;
+import com.winterwell.utils.Utils;
+import com.winterwell.utils.web.IHasJson;
+
+/**
+ * Gson adapter for {@link IWriteJson} objects: they write straight to Gson's output stream.
+ * Write-only.
+ * 
+ * Also has {@link #writeValue(JsonWriter, Object)} for writing the plain values inside builders.
+ * 
+ * @testedby WriteJsonAdapterTest
+ * @author daniel
+ *
+ */
+public class WriteJsonAdapter extends TypeAdapter<IWriteJson> {
+
+	public static final WriteJsonAdapter INSTANCE = new WriteJsonAdapter();
+
+	@Override
+	public void write(JsonWriter out, IWriteJson value) throws IOException {
+		if (value==null) {
+			out.nullValue();
+			return;
+		}
+		value.writeJson(out);
+	}
+
+	@Override
+	public IWriteJson read(JsonReader in) throws IOException {
+		throw new UnsupportedOperationException("write-only");
+	}
+
+	/**
+	 * @return json
+	 */
+	public static String toJson(IWriteJson x) {
+		StringWriter sw = new StringWriter();
+		try {
+			JsonWriter out = new JsonWriter(sw);
+			// as Gson does by default: drop null-valued fields
+			out.setSerializeNulls(false);
+			x.writeJson(out);
+			out.flush();
+		} catch (IOException e) {
+			throw Utils.runtime(e);
+		}
+		return sw.toString();
+	}
+
+	/**
+	 * Write a json-ish value: null, String, Number, Boolean, enum, Map, Iterable, array, {@link IWriteJson} or {@link IHasJson}.
+	 * Anything else goes via a Gson.
+	 * 
+	 * NB: Map entries with a null value are dropped (unless the writer serialises nulls) -- as Gson does.
+	 */
+	public static void writeValue(JsonWriter out, Object v) throws IOException {
+		if (v==null) {
+			out.nullValue();
+		} else if (v instanceof String) {
+			out.value((String) v);
+		} else if (v instanceof Number) {
+			out.value((Number) v);
+		} else if (v instanceof Boolean) {
+			out.value((Boolean) v);
+		} else if (v instanceof Enum) {
+			out.value(((Enum) v).name());
+		} else if (v instanceof IWriteJson) {
+			((IWriteJson) v).writeJson(out);
+		} else if (v instanceof Map) {
+			out.beginObject();
+			for (Map.Entry e : ((Map<?,?>) v).entrySet()) {
+				out.name(String.valueOf(e.getKey()));
+				writeValue(out, e.getValue());
+			}
+			out.endObject();
+		} else if (v instanceof Iterable) {
+			out.beginArray();
+			for (Object x : (Iterable) v) {
+				writeValue(out, x);
+			}
+			out.endArray();
+		} else if (v.getClass().isArray()) {
+			out.beginArray();
+			int n = Array.getLength(v);
+			for(int i=0; i<n; i++) {
+				writeValue(out, Array.get(v, i));
+			}
+			out.endArray();
+		} else if (v instanceof IHasJson) {
+			writeValue(out, ((IHasJson) v).toJson2());
+		} else {
+			Gson gson = ESHttpClient.defaultBodyGson();
+			gson.toJson(v, v.getClass(), out);
+		}
+	}
+
+}
@@ -1,13 +1,13 @@
 package com.winterwell.es.client.admin;
 
+import java.util.concurrent.CompletableFuture;
+
 import com.winterwell.es.client.ESHttpClient;
 import com.winterwell.es.client.ESHttpRequest;
 import com.winterwell.es.client.ESHttpResponse;
 import com.winterwell.es.client.IESResponse;
 import com.winterwell.utils.TodoException;
-import com.winterwell.utils.Utils;
 import com.winterwell.utils.containers.ArrayMap;
-import com.winterwell.web.FakeBrowser;
 
 /**
  * TODO
@@ -30,6 +30,14 @@ curl -XPUT -H "Content-Type: application/json" http://localhost:9200/_all/_setti
 */
 	}
 	
+	/**
+	 * This makes several calls, so it runs in a client thread.
+	 */
+	@Override
+	protected CompletableFuture<ESHttpResponse> doExecuteAsync(ESHttpClient esjc) {
+		return doExecuteInThread(esjc);
+	}
+	
 	@Override
 	protected ESHttpResponse doExecute(ESHttpClient esjc) {
 //		curl -X PUT "localhost:9200/_cluster/settings" -H 'Content-Type: application/json' -d'
@@ -46,14 +54,12 @@ curl -XPUT -H "Content-Type: application/json" http://localhost:9200/_all/_setti
 		res.check();
 		
 		// 2nd call
-		FakeBrowser fb = fb(esjc);
-		fb.setRequestMethod("PUT");
-		String server = Utils.getRandomMember(esjc.getServers());
+		String server = esjc.getNodeSelector().select(esjc.getServers(), null).getServer();
 		String url = getUrl(server).toString();
 		// HACK
 		url = url.replace("/_cluster/settings", "/_all/_settings"); // why does settings sometimes have "_"? Dunno.
 		String body2 = "{\"index.blocks.read_only_allow_delete\": null}";
-		String got = fb.post(url, "application/json", body2);
+		String got = esjc.getTransport().send("PUT", url, body2);
 		ESHttpResponse res2 = new ESHttpResponse(this, got);
 		//
 		return res2;
@@ -3,6 +3,7 @@ package com.winterwell.es.client.admin;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import com.winterwell.es.client.ESHttpClient;
 import com.winterwell.es.client.ESHttpRequest;
@@ -32,6 +33,14 @@ public class CreateIndexRequest extends ESHttpRequest<CreateIndexRequest,IESResp
 		method = "PUT";
 	}
 	
+	/**
+	 * This makes several calls, so it runs in a client thread.
+	 */
+	@Override
+	protected CompletableFuture<ESHttpResponse> doExecuteAsync(ESHttpClient esjc) {
+		return doExecuteInThread(esjc);
+	}
+	
 	@Override
 	protected ESHttpResponse doExecute(ESHttpClient esjc) {		
 		// call the super method to do the main work
@@ -1,7 +1,11 @@
 package com.winterwell.es.client.agg;
 
+import java.io.IOException;
 import java.util.Map;
 
+import com.winterwell.es.client.IWriteJson;
+import com.winterwell.es.client.WriteJsonAdapter;
+import com.winterwell.gson.stream.JsonWriter;
 import com.winterwell.utils.Utils;
 import com.winterwell.utils.containers.ArrayMap;
 import com.winterwell.utils.containers.Containers;
@@ -12,7 +16,7 @@ import com.winterwell.utils.web.IHasJson;
  * @author daniel
  *
  */
-public class Aggregation implements IHasJson {
+public class Aggregation implements IHasJson, IWriteJson {
 
 	
 	
@@ -97,6 +101,35 @@ public class Aggregation implements IHasJson {
 		return map;
 	}
 	
+	/**
+	 * As {@link #toJson2()}, but straight to the stream, without building maps.
+	 */
+	@Override
+	public void writeJson(JsonWriter out) throws IOException {
+		out.beginObject();
+		// e.g. filter (NB: skip what an earlier toJson2() poked in)
+		for (Object k : map.keySet()) {
+			if (k.equals(type) || "aggs".equals(k)) continue;
+			out.name((String) k);
+			WriteJsonAdapter.writeValue(out, map.get(k));
+		}
+		if (type!=null) {
+			out.name(type);
+			WriteJsonAdapter.writeValue(out, props);
+		}
+		if (aggs!=null) {
+			out.name("aggs");
+			out.beginObject();
+			for (Map.Entry<String, Aggregation> e : aggs.entrySet()) {
+				out.name(e.getKey());
+				e.getValue().writeJson(out);
+			}
+			out.endObject();
+		}
+		out.endObject();
+		toJsond = true;
+	}
+	
 	/**
 	 * The base map. We'll poke things into this in toJson2()
 	 */
@@ -1,8 +1,12 @@
 package com.winterwell.es.client.query;
 
+import java.io.IOException;
 import java.util.Map;
 
 import com.winterwell.es.ESUtils;
+import com.winterwell.es.client.IWriteJson;
+import com.winterwell.es.client.WriteJsonAdapter;
+import com.winterwell.gson.stream.JsonWriter;
 import com.winterwell.utils.containers.ArrayMap;
 import com.winterwell.utils.containers.Containers;
 import com.winterwell.utils.web.IHasJson;
@@ -14,7 +18,7 @@ import shadoworg.elasticsearch.index.query.QueryBuilder.QueryBuilder;
  * @author daniel
  *
  */
-public class ESQueryBuilder implements IHasJson, Cloneable {
+public class ESQueryBuilder implements IHasJson, IWriteJson, Cloneable {
 
 	@Override
 	public ESQueryBuilder clone() {
@@ -90,4 +94,10 @@ public class ESQueryBuilder implements IHasJson, Cloneable {
 		lock = true;
 		return jobj;
 	}
+
+	@Override
+	public void writeJson(JsonWriter out) throws IOException {
+		lock = true;
+		WriteJsonAdapter.writeValue(out, jobj);
+	}
 }
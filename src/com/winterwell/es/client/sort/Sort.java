@@ -1,5 +1,10 @@
 package com.winterwell.es.client.sort;
 
+import java.io.IOException;
+
+import com.winterwell.es.client.IWriteJson;
+import com.winterwell.es.client.WriteJsonAdapter;
+import com.winterwell.gson.stream.JsonWriter;
 import com.winterwell.utils.Utils;
 import com.winterwell.utils.containers.ArrayMap;
 import com.winterwell.utils.web.IHasJson;
@@ -10,7 +15,7 @@ import com.winterwell.utils.web.IHasJson;
  * @author daniel
  *
  */
-public class Sort implements IHasJson {
+public class Sort implements IHasJson, IWriteJson, Cloneable {
 	
 
 	@Override
@@ -67,6 +72,20 @@ public class Sort implements IHasJson {
 		);
 	}
 
+	@Override
+	public void writeJson(JsonWriter out) throws IOException {
+		if (field==null) throw new IllegalStateException("Sort must be on a field");
+		out.beginObject();
+		out.name(field);
+		out.beginObject();
+		out.name("order");
+		WriteJsonAdapter.writeValue(out, order);
+		out.name("missing");
+		WriteJsonAdapter.writeValue(out, missing);
+		out.endObject();
+		out.endObject();
+	}
+
 	public static Sort fieldSort(String field) {
 		return fieldSort(field, null);
 	}
@@ -82,6 +101,17 @@ public class Sort implements IHasJson {
 		return this;
 	}
 
+	/**
+	 * @return a shallow copy
+	 */
+	public Sort copy() {
+		try {
+			return (Sort) clone();
+		} catch (CloneNotSupportedException e) {
+			throw Utils.runtime(e);
+		}
+	}
+
 	public static Sort scoreSort() {
 		return new ScoreSort();
 	}	
@@ -98,4 +128,9 @@ class ScoreSort extends Sort {
 	public String toJson2() {
 		return "_score";
 	}
+	
+	@Override
+	public void writeJson(JsonWriter out) throws IOException {
+		out.value("_score");
+	}
 }
@@ -0,0 +1,71 @@
+package com.winterwell.es.fail;
+
+import java.util.Map;
+
+import com.winterwell.es.client.ESHttpRequest;
+
+/**
+ * One failed item from a bulk request. {@link #request} is the original action, so it can be re-sent.
+ *
+ * @see ESBulkException which collects these
+ * @author daniel
+ *
+ */
+public class ESBulkItemException extends ESException {
+
+	private final int itemIndex;
+	private final int status;
+	private final String type;
+
+	/**
+	 * @param itemIndex position in the bulk request (and response)
+	 * @param status http status for this item, e.g. 429
+	 * @param error The item's error json, e.g. {type: "es_rejected_execution_exception", reason: "..."}
+	 * @param request Can be null (e.g. for a deserialised response)
+	 */
+	public ESBulkItemException(int itemIndex, int status, Map error, ESHttpRequest request) {
+		super((String) error.get("reason"));
+		this.itemIndex = itemIndex;
+		this.status = status;
+		this.type = (String) error.get("type");
+		this.request = request;
+	}
+
+	/**
+	 * @return position in the bulk request (and response)
+	 */
+	public int getItemIndex() {
+		return itemIndex;
+	}
+
+	/**
+	 * @return the http status for this item, e.g. 429 (too many requests) or 409 (version conflict)
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return e.g. "es_rejected_execution_exception" Can be null
+	 */
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * @return true for failures which might succeed if sent again, e.g. ES was too busy (429).
+	 * false for e.g. mapping errors or version conflicts.
+	 */
+	public boolean isRetryable() {
+		return status == 429 || status == 503
+				|| "es_rejected_execution_exception".equals(type);
+	}
+
+	@Override
+	public String toString() {
+		return "ESBulkItemException[" + itemIndex + " " + status + " " + type + ": " + getMessage() + "]";
+	}
+
+	private static final long serialVersionUID = 1L;
+
+}
@@ -0,0 +1,90 @@
+package com.winterwell.es.client;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.winterwell.es.ESPath;
+import com.winterwell.es.ESTest;
+import com.winterwell.utils.Utils;
+import com.winterwell.utils.containers.ArrayMap;
+import com.winterwell.utils.time.Dt;
+import com.winterwell.utils.time.TUnit;
+
+public class BulkProcessorTest extends ESTest {
+
+	public final static String INDEX = "testbulkprocessor";
+
+	@BeforeClass
+	public static void setup() {
+		ESHttpClient esjc = getESJC();
+		esjc.admin().indices().prepareCreate(INDEX).get();
+	}
+
+	@Test
+	public void testCountThreshold() {
+		ESHttpClient esc = getESJC();
+		AtomicInteger batches = new AtomicInteger();
+		AtomicInteger actions = new AtomicInteger();
+		BulkProcessor bp = esc.prepareBulkProcessor()
+				.setMaxActions(1000)
+				.setOnResponse((bulk, response) -> {
+					assert ! response.hasErrors() : response.getError();
+					batches.incrementAndGet();
+					actions.addAndGet(bulk.getActions().size());
+				});
+		for(int i=0; i<2500; i++) {
+			IndexRequest pi = esc.prepareIndex(INDEX, "count_"+i);
+			pi.setBodyMap(new ArrayMap("k", ""+i));
+			bp.add(pi);
+		}
+		bp.close();
+		assert batches.get() == 3 : batches;
+		assert actions.get() == 2500 : actions;
+	}
+
+	@Test
+	public void testAgeThreshold() {
+		ESHttpClient esc = getESJC();
+		AtomicInteger batches = new AtomicInteger();
+		BulkProcessor bp = esc.prepareBulkProcessor()
+				.setMaxAge(new Dt(200, TUnit.MILLISECOND))
+				.setOnResponse((bulk, response) -> batches.incrementAndGet());
+		IndexRequest pi = esc.prepareIndex(INDEX, "age_1");
+		pi.setBodyMap(new ArrayMap("k", "old"));
+		bp.add(pi);
+		// sizing it did not keep the json on the request
+		assert pi.bodyJson == null;
+		Utils.sleep(1000);
+		// sent without a flush
+		assert batches.get() == 1 : batches;
+		bp.close();
+	}
+
+	@Test
+	public void testIndexThenDelete() {
+		ESHttpClient esc = getESJC();
+		BulkProcessor bp = esc.prepareBulkProcessor();
+		IndexRequest pi = esc.prepareIndex(INDEX, "del_1");
+		pi.setBodyMap(new ArrayMap("k", "doomed"));
+		bp.add(pi);
+		bp.flush();
+		Map<String, Object> got = esc.get(new ESPath(INDEX, "del_1"));
+		assert got != null;
+
+		bp.add(esc.prepareDelete(new ESPath(INDEX, "del_1")));
+		bp.close();
+		Map<String, Object> gone = esc.get(new ESPath(INDEX, "del_1"));
+		assert gone == null : gone;
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testAddAfterClose() {
+		ESHttpClient esc = getESJC();
+		BulkProcessor bp = esc.prepareBulkProcessor();
+		bp.close();
+		bp.add(esc.prepareIndex(INDEX, "late"));
+	}
+}
@@ -1,5 +1,8 @@
 package com.winterwell.es.client;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -9,6 +12,8 @@ import org.junit.Test;
 
 import com.winterwell.es.ESTest;
 import com.winterwell.es.UtilsForESTests;
+import com.winterwell.es.fail.ESBulkException;
+import com.winterwell.es.fail.ESBulkItemException;
 import com.winterwell.gson.FlexiGson;
 import com.winterwell.utils.Dep;
 import com.winterwell.utils.Utils;
@@ -109,4 +114,74 @@ public class BulkRequestBuilderTest extends ESTest {
 		System.out.println(got);
 		return ids;
 	}
+	
+	@Test
+	public void testStreamMatchesBodyJson() throws IOException {
+		ESHttpClient esc = new ESHttpClient(new ESConfig());
+		BulkRequest bulk = esc.prepareBulk();
+		for(int i=0; i<20; i++) {
+			IndexRequest pi = esc.prepareIndex(INDEX, "s_"+i);			
+			pi.setBodyMap(new ArrayMap("k", ""+i, "name", "name \u00e9"+i));
+			bulk.add(pi);
+		}
+		bulk.setStreaming(true);
+		InputStream in = bulk.getBodyStream().get();
+		String streamed = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		// the actions do not keep their json (so the batch is never on the heap as json)
+		for(Object a : bulk.actions) {
+			assert ((ESHttpRequest) a).bodyJson == null;
+		}
+		assert streamed.equals(bulk.getBodyJson()) : streamed;
+	}
+	
+	@Test
+	public void testBulkIndexManyStreaming() {
+		ESHttpClient esc = getESJC();
+		BulkRequest bulk = esc.prepareBulk();
+		bulk.setStreaming(true);
+		for(int i=0; i<1000; i++) {
+			IndexRequest pi = esc.prepareIndex(INDEX, "stream_"+i);			
+			pi.setBodyMap(new ArrayMap("k", ""+i, "name", "name"+i));
+			bulk.add(pi);
+		}		
+		bulk.setRefresh(KRefresh.WAIT_FOR);
+		BulkResponse br = bulk.get();
+		assert ! br.hasErrors() : br.getError();
+		
+		Map<String, Object> got = esc.get(INDEX, null, "stream_999");
+		assert got != null;
+	}
+	
+	@Test
+	public void testItemErrorsLinkToActions() {
+		ESHttpClient esc = new ESHttpClient(new ESConfig());
+		BulkRequest bulk = esc.prepareBulk();
+		for(int i=0; i<3; i++) {
+			IndexRequest pi = esc.prepareIndex(INDEX, "e_"+i);			
+			pi.setBodyMap(new ArrayMap("k", ""+i));
+			bulk.add(pi);
+		}
+		String json = "{\"took\":3,\"errors\":true,\"items\":["
+				+"{\"index\":{\"_id\":\"e_0\",\"status\":201}},"
+				+"{\"index\":{\"_id\":\"e_1\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"busy\"}}},"
+				+"{\"index\":{\"_id\":\"e_2\",\"status\":400,\"error\":{\"type\":\"mapper_parsing_exception\",\"reason\":\"bad\"}}}"
+				+"]}";
+		ESHttpResponse r = new ESHttpResponse(bulk, json);
+		List<ESBulkItemException> errs = r.getItemErrors();
+		assert errs.size() == 2 : errs;
+		assert errs.get(0).isRetryable();
+		assert errs.get(0).request == bulk.getActions().get(1);
+		assert ! errs.get(1).isRetryable();
+		assert errs.get(1).getItemIndex() == 2;
+		assert r.getError() instanceof ESBulkException;
+	}
+	
+	@Test
+	public void testBackoff() {
+		for(int t=0; t<30; t++) {
+			long b = BulkRequest.backoff(t);
+			assert b >= BulkRequest.RETRY_BACKOFF_MSECS/2 : b;
+			assert b <= BulkRequest.RETRY_BACKOFF_MAX_MSECS : b;
+		}
+	}
 }
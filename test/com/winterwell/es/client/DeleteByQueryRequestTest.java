@@ -0,0 +1,56 @@
+package com.winterwell.es.client;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.winterwell.es.ESTest;
+import com.winterwell.es.client.query.ESQueryBuilders;
+import com.winterwell.utils.Utils;
+import com.winterwell.utils.containers.ArrayMap;
+import com.winterwell.utils.time.Dt;
+import com.winterwell.utils.time.TUnit;
+
+public class DeleteByQueryRequestTest extends ESTest {
+
+	private String makeIndex(ESHttpClient esjc) {
+		String idx = "test_dbq_"+Utils.getRandomString(3).toLowerCase();
+		for(int i=0; i<6; i++) {
+			IndexRequest irb = esjc.prepareIndex(idx, "test_id_"+i);
+			irb.setBodyDoc(new ArrayMap("foo", i % 2 == 0? "even" : "odd"));
+			irb.setRefresh(KRefresh.TRUE);
+			irb.get().check();
+		}
+		return idx;
+	}
+
+	@Test
+	public void testDeleteByQuery() {
+		ESHttpClient esjc = getESJC();
+		String idx = makeIndex(esjc);
+		DeleteByQueryRequest dbq = new DeleteByQueryRequest(esjc, idx);
+		dbq.setQuery(ESQueryBuilders.termQuery("foo", "odd"));
+		dbq.setRefresh(KRefresh.TRUE);
+		ESHttpResponse r = (ESHttpResponse) dbq.get().check();
+		assert ESTask.num(r.getJsonMap().get("deleted")) == 3 : r.getJson();
+	}
+
+	@Test
+	public void testStartTask() {
+		ESHttpClient esjc = getESJC();
+		String idx = makeIndex(esjc);
+		DeleteByQueryRequest dbq = new DeleteByQueryRequest(esjc, idx);
+		dbq.setQuery(ESQueryBuilders.termQuery("foo", "even"));
+		dbq.setSlices("auto").setConflictsProceed(true);
+		ESTask task = dbq.startTask().join();
+		Map<String, Object> done = task.whenDone(new Dt(100, TUnit.MILLISECOND)).join();
+		assert ESTask.num(done.get("deleted")) == 3 : done;
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testNoIndex() {
+		DeleteByQueryRequest dbq = new DeleteByQueryRequest(getESJC(), "x");
+		dbq.setIndices();
+		dbq.get();
+	}
+}
@@ -0,0 +1,125 @@
+package com.winterwell.es.client;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.winterwell.es.ESTest;
+import com.winterwell.es.fail.ESDocNotFoundException;
+import com.winterwell.utils.Utils;
+import com.winterwell.utils.containers.ArrayMap;
+
+public class DocCacheTest extends ESTest {
+
+	private ESHttpClient cachingClient(long revalidateAfter) {
+		ESConfig config = new ESConfig();
+		config.esUrl = getESJC().getConfig().esUrl;
+		config.esDocCacheSize = 100;
+		config.esDocCacheRevalidateAfter = revalidateAfter;
+		return new ESHttpClient(config);
+	}
+
+	private static GetResponse get(ESHttpClient esjc, String idx, String id) {
+		return new GetRequest(esjc).setIndex(idx).setId(id).get();
+	}
+
+	@Test
+	public void testHitAndInvalidate() {
+		ESHttpClient esjc = cachingClient(0);
+		String idx = "test_dc_"+Utils.getRandomString(3).toLowerCase();
+		IndexRequest irb = esjc.prepareIndex(idx, "doc1");
+		irb.setBodyDoc(new ArrayMap("n", "v1"));
+		irb.setRefresh(KRefresh.TRUE);
+		irb.get().check();
+
+		assert "v1".equals(get(esjc, idx, "doc1").getSourceAsMap().get("n"));
+		assert "v1".equals(get(esjc, idx, "doc1").getSourceAsMap().get("n"));
+		Map<String, Object> stats = esjc.getDocCache().getStats();
+		assert ((Long) stats.get("hits")) == 1 : stats;
+		assert ((Long) stats.get("misses")) == 1 : stats;
+
+		// a write through this client is seen at once
+		IndexRequest irb2 = esjc.prepareIndex(idx, "doc1");
+		irb2.setBodyDoc(new ArrayMap("n", "v2"));
+		irb2.get().check();
+		assert "v2".equals(get(esjc, idx, "doc1").getSourceAsMap().get("n"));
+
+		// source-only reads share the entry
+		Map<String, Object> src = esjc.get(idx, null, "doc1");
+		assert "v2".equals(src.get("n")) : src;
+		// the caller's to edit (as with a batched get)
+		src.put("n", "edited");
+		assert "v2".equals(esjc.get(idx, null, "doc1").get("n"));
+
+		// delete
+		esjc.prepareDelete(idx, null, "doc1").get().check();
+		GetResponse gone = get(esjc, idx, "doc1");
+		assert gone.getError() instanceof ESDocNotFoundException : gone;
+		esjc.close();
+	}
+
+	@Test
+	public void testNegativeAndRevalidate() {
+		ESHttpClient esjc = cachingClient(1);
+		ESHttpClient other = getESJC();
+		String idx = "test_dc_"+Utils.getRandomString(3).toLowerCase();
+		IndexRequest irb = other.prepareIndex(idx, "doc1");
+		irb.setBodyDoc(new ArrayMap("n", "v1"));
+		irb.setRefresh(KRefresh.TRUE);
+		irb.get().check();
+
+		// not found is cached
+		assert ! get(esjc, idx, "nodoc").isSuccess();
+		assert ! get(esjc, idx, "nodoc").isSuccess();
+		assert ((Long) esjc.getDocCache().getStats().get("negativeHits")) == 1;
+
+		assert "v1".equals(get(esjc, idx, "doc1").getSourceAsMap().get("n"));
+		Utils.sleep(5);
+		// unchanged: revalidated not re-fetched
+		assert "v1".equals(get(esjc, idx, "doc1").getSourceAsMap().get("n"));
+		assert ((Long) esjc.getDocCache().getStats().get("revalidatedUnchanged")) == 1;
+		// a write from elsewhere is spotted by revalidation
+		IndexRequest irb2 = other.prepareIndex(idx, "doc1");
+		irb2.setBodyDoc(new ArrayMap("n", "v2"));
+		irb2.setRefresh(KRefresh.TRUE);
+		irb2.get().check();
+		Utils.sleep(5);
+		assert "v2".equals(get(esjc, idx, "doc1").getSourceAsMap().get("n"));
+		esjc.close();
+	}
+
+	@Test
+	public void testBulkInvalidates() {
+		ESHttpClient esjc = cachingClient(0);
+		String idx = "test_dc_"+Utils.getRandomString(3).toLowerCase();
+		IndexRequest irb = esjc.prepareIndex(idx, "doc1");
+		irb.setBodyDoc(new ArrayMap("n", "v1"));
+		irb.setRefresh(KRefresh.TRUE);
+		irb.get().check();
+		assert "v1".equals(get(esjc, idx, "doc1").getSourceAsMap().get("n"));
+
+		BulkRequest bulk = esjc.prepareBulk();
+		IndexRequest irb2 = esjc.prepareIndex(idx, "doc1");
+		irb2.setBodyDoc(new ArrayMap("n", "v2"));
+		bulk.add(irb2);
+		bulk.get().check();
+		assert esjc.getDocCache().getStats().get("size").equals(0L);
+		esjc.close();
+	}
+
+	@Test
+	public void testDeleteIndexInvalidates() {
+		ESHttpClient esjc = cachingClient(0);
+		String idx = "test_dc_"+Utils.getRandomString(3).toLowerCase();
+		IndexRequest irb = esjc.prepareIndex(idx, "doc1");
+		irb.setBodyDoc(new ArrayMap("n", "v1"));
+		irb.setRefresh(KRefresh.TRUE);
+		irb.get().check();
+		assert get(esjc, idx, "doc1").isSuccess();
+
+		esjc.admin().indices().prepareDelete(idx).get().check();
+		assert esjc.getDocCache().getStats().get("size").equals(0L);
+		assert ! get(esjc, idx, "doc1").isSuccess();
+		esjc.close();
+	}
+}
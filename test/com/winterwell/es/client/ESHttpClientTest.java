@@ -0,0 +1,110 @@
+package com.winterwell.es.client;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.winterwell.es.ESTest;
+import com.winterwell.utils.Dep;
+
+public class ESHttpClientTest extends ESTest {
+
+	@Test
+	public void testExecutorPerClient() {
+		ESConfig config = Dep.get(ESConfig.class);
+		ESHttpClient a = new ESHttpClient(config);
+		ESHttpClient b = new ESHttpClient(config);
+		assert a.getExecutor() != b.getExecutor();
+		a.close();
+		assert a.getExecutor().isShutdown();
+		assert ! b.getExecutor().isShutdown();
+		// b still works
+		b.admin().indices().listIndices().get().check();
+		b.close();
+	}
+
+	@Test
+	public void testPoolSettings() {
+		ESConfig config = new ESConfig();
+		config.esThreads = 3;
+		config.esThreadQueueSize = 5;
+		ThreadPoolExecutor pool = (ThreadPoolExecutor) ESHttpClient.newExecutor(config);
+		assert pool.getMaximumPoolSize() == 3;
+		assert pool.getQueue().remainingCapacity() == 5;
+		pool.shutdown();
+	}
+
+	@Test
+	public void testAbortWhenFull() throws Exception {
+		ESConfig config = new ESConfig();
+		config.esThreads = 1;
+		config.esThreadQueueSize = 1;
+		config.esThreadRejectionPolicy = KRejectionPolicy.ABORT;
+		ExecutorService pool = ESHttpClient.newExecutor(config);
+		CountDownLatch latch = new CountDownLatch(1);
+		pool.submit(() -> { latch.await(); return null; });
+		pool.submit(() -> null);
+		try {
+			pool.submit(() -> null);
+			assert false;
+		} catch(RejectedExecutionException ex) {
+			// good
+		}
+		latch.countDown();
+		pool.shutdown();
+		assert pool.awaitTermination(1, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testCallerRunsWhenFull() throws Exception {
+		ESConfig config = new ESConfig();
+		config.esThreads = 1;
+		config.esThreadQueueSize = 1;
+		config.esThreadRejectionPolicy = KRejectionPolicy.CALLER_RUNS;
+		ExecutorService pool = ESHttpClient.newExecutor(config);
+		CountDownLatch latch = new CountDownLatch(1);
+		pool.submit(() -> { latch.await(); return null; });
+		pool.submit(() -> null);
+		Thread me = Thread.currentThread();
+		Thread[] ranIn = new Thread[1];
+		pool.submit(() -> ranIn[0] = Thread.currentThread()).get();
+		assert ranIn[0] == me;
+		latch.countDown();
+		pool.shutdown();
+	}
+
+	@Test
+	public void testVirtualThreads() throws Exception {
+		ESConfig config = new ESConfig();
+		config.esVirtualThreads = true;
+		ExecutorService pool = ESHttpClient.newExecutor(config);
+		// either virtual threads or (on older Java) a fallback pool -- both must work
+		assert pool.submit(() -> "ok").get().equals("ok");
+		pool.shutdown();
+	}
+
+	@Test
+	public void testFailoverFromUnreachableNode() throws Exception {
+		ESConfig config = Dep.get(ESConfig.class);
+		ESHttpClient esjc = new ESHttpClient(config);
+		// port 1: nothing listens there, so the connection is refused
+		esjc.setServers(Arrays.asList("http://localhost:1", config.esUrl));
+		for(int i=0; i<10; i++) {
+			SearchRequest s = esjc.prepareSearch("_all").setSize(0);
+			s.setRetries(1);
+			s.get().check();
+			SearchRequest s2 = esjc.prepareSearch("_all").setSize(0);
+			s2.setRetries(1);
+			s2.executeAsync().join().check();
+			SearchRequest s3 = esjc.prepareSearch("_all").setSize(0);
+			s3.setRetries(1);
+			s3.execute().get().check();
+		}
+		esjc.close();
+	}
+}
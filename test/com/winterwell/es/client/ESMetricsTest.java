@@ -0,0 +1,71 @@
+package com.winterwell.es.client;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.winterwell.es.ESTest;
+import com.winterwell.utils.Utils;
+import com.winterwell.utils.containers.ArrayMap;
+
+public class ESMetricsTest extends ESTest {
+
+	@Test
+	public void testHistogram() {
+		LatencyHistogram h = new LatencyHistogram();
+		for(int i=1; i<=1000; i++) {
+			h.record(i * 1000L);
+		}
+		assert h.getCount() == 1000;
+		assert h.getMax() == 1000000;
+		long p50 = h.getPercentile(0.5);
+		assert Math.abs(p50 - 500000) < 500000 * 0.07 : p50;
+		long p99 = h.getPercentile(0.99);
+		assert Math.abs(p99 - 990000) < 990000 * 0.07 : p99;
+		assert new LatencyHistogram().getPercentile(0.5) == 0;
+	}
+
+	@Test
+	public void testBuckets() {
+		for(long v : new long[]{0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789L, Long.MAX_VALUE/2}) {
+			int i = LatencyHistogram.index(v);
+			assert LatencyHistogram.lowest(i) <= v : v;
+			assert LatencyHistogram.lowest(i+1) > v : v;
+		}
+	}
+
+	@Test
+	public void testRecorded() throws Exception {
+		ESConfig config = new ESConfig();
+		config.esUrl = getESJC().getConfig().esUrl;
+		config.esMetricsJmx = true;
+		ESHttpClient esjc = new ESHttpClient(config);
+		String idx = "test_metrics_"+Utils.getRandomString(3).toLowerCase();
+		IndexRequest irb = esjc.prepareIndex(idx, "doc1");
+		irb.setBodyDoc(new ArrayMap("n", "v1"));
+		irb.setRefresh(KRefresh.TRUE);
+		irb.get().check();
+		esjc.prepareSearch(idx).get().check();
+		esjc.prepareSearch(idx).executeAsync().join().check();
+		// an error
+		new GetRequest(esjc).setIndex(idx).setId("nosuchdoc").get();
+
+		ESMetrics metrics = esjc.getMetrics();
+		assert metrics.getRequests() == 4 : metrics;
+		assert metrics.getLatency("_search").getCount() == 2;
+		assert metrics.getIndexLatency(idx).getCount() == 4;
+		assert metrics.getErrors().get("ESDocNotFoundException") == 1 : metrics.getErrors();
+		assert metrics.getInFlight() == 0;
+		Map<String, Object> snap = metrics.getSnapshot();
+		assert ((Long) snap.get("charsSent")) > 0 : snap;
+		assert snap.containsKey("latency._search.p99") : snap;
+
+		// JMX
+		Object n = ManagementFactory.getPlatformMBeanServer().getAttribute(
+				JmxMetricsRegistry.objectName(esjc.getName()), "requests");
+		assert ((Long) n) == 4 : n;
+		esjc.close();
+		assert ! ManagementFactory.getPlatformMBeanServer().isRegistered(JmxMetricsRegistry.objectName(esjc.getName()));
+	}
+}
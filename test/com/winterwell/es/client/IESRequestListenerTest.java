@@ -0,0 +1,119 @@
+package com.winterwell.es.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+import com.winterwell.es.ESTest;
+import com.winterwell.utils.Utils;
+import com.winterwell.utils.containers.ArrayMap;
+
+public class IESRequestListenerTest extends ESTest {
+
+	static class RecordingListener implements IESRequestListener {
+		final List<String> events = new CopyOnWriteArrayList<>();
+		final List<String> opaqueIds = new CopyOnWriteArrayList<>();
+		@Override
+		public void onSubmit(ESHttpRequest<?, ?> req) {
+			events.add("submit");
+		}
+		@Override
+		public void beforeSend(ESHttpRequest<?, ?> req, String url) {
+			events.add("send");
+			opaqueIds.add(String.valueOf(req.getOpaqueId()));
+		}
+		@Override
+		public void afterResponse(ESHttpRequest<?, ?> req, ESHttpResponse response, long msecs) {
+			events.add("response");
+		}
+		@Override
+		public void onError(ESHttpRequest<?, ?> req, Throwable error, long msecs) {
+			events.add("error");
+		}
+	}
+
+	@Test
+	public void testCallbacks() {
+		ESHttpClient esjc = new ESHttpClient(getESJC().getConfig());
+		RecordingListener rl = new RecordingListener();
+		ThreadLocal<String> trace = ThreadLocal.withInitial(() -> "trace-123");
+		esjc.addListener(new TraceIdListener(trace::get));
+		esjc.addListener(rl);
+
+		String idx = "test_listen_"+Utils.getRandomString(3).toLowerCase();
+		IndexRequest irb = esjc.prepareIndex(idx, "doc1");
+		irb.setBodyDoc(new ArrayMap("n", "v1"));
+		irb.setRefresh(KRefresh.TRUE);
+		irb.get().check();
+		assert rl.events.equals(List.of("submit", "send", "response")) : rl.events;
+		assert irb.getOpaqueId().equals("trace-123");
+
+		// async: the trace id is picked up in this thread, and sent from another
+		rl.events.clear();
+		esjc.prepareSearch(idx).executeAsync().join().check();
+		assert rl.events.equals(List.of("submit", "send", "response")) : rl.events;
+
+		// an error
+		rl.events.clear();
+		new GetRequest(esjc).setIndex(idx).setId("nosuchdoc").get();
+		assert rl.events.equals(List.of("submit", "send", "error")) : rl.events;
+		assert rl.opaqueIds.stream().allMatch("trace-123"::equals) : rl.opaqueIds;
+
+		// none
+		esjc.removeListener(rl);
+		rl.events.clear();
+		esjc.prepareSearch(idx).get();
+		assert rl.events.isEmpty();
+		esjc.close();
+	}
+
+	@Test
+	public void testHeaders() {
+		ESHttpClient esjc = getESJC();
+		SearchRequest s = esjc.prepareSearch("foo");
+		assert s.getHeaders().isEmpty();
+		s.setOpaqueId("abc").setHeader("X-Foo", "bar");
+		assert s.getOpaqueId().equals("abc");
+		assert s.getHeaders().get("X-Foo").equals("bar");
+		s.setOpaqueId(null);
+		assert s.getOpaqueId() == null;
+		assert s.getHeaders().size() == 1;
+	}
+
+	@Test
+	public void testSubRequestsCarryHeaders() {
+		ESConfig config = new ESConfig();
+		config.esUrl = getESJC().getConfig().esUrl;
+		config.esSearchCoalesceWindow = 50;
+		config.esDocCacheSize = 100;
+		ESHttpClient esjc = new ESHttpClient(config);
+		RecordingListener rl = new RecordingListener();
+		esjc.addListener(new TraceIdListener(() -> "trace-456"));
+		esjc.addListener(rl);
+		String idx = "test_listen_"+Utils.getRandomString(3).toLowerCase();
+		IndexRequest irb = esjc.prepareIndex(idx, "doc1");
+		irb.setBodyDoc(new ArrayMap("n", "v1"));
+		irb.setRefresh(KRefresh.TRUE);
+		irb.get().check();
+		rl.events.clear();
+		rl.opaqueIds.clear();
+
+		// coalesced into one _msearch
+		List<CompletableFuture<SearchResponse>> fs = new ArrayList<>();
+		for(int i=0; i<3; i++) {
+			fs.add(esjc.prepareSearch(idx).setSize(i).executeAsync());
+		}
+		for (CompletableFuture<SearchResponse> f : fs) f.join().check();
+		// via the doc cache
+		new GetRequest(esjc).setIndex(idx).setId("doc1").get().check();
+
+		// onSubmit once per caller request -- not for the _msearch or the cache's fetch
+		assert rl.events.stream().filter("submit"::equals).count() == 4 : rl.events;
+		assert ! rl.opaqueIds.isEmpty();
+		assert rl.opaqueIds.stream().allMatch("trace-456"::equals) : rl.opaqueIds;
+		esjc.close();
+	}
+}
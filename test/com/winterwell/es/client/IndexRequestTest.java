@@ -0,0 +1,56 @@
+package com.winterwell.es.client;
+
+import org.junit.Test;
+
+import com.winterwell.es.ESTest;
+import com.winterwell.es.client.query.ESQueryBuilders;
+import com.winterwell.gson.Gson;
+import com.winterwell.gson.StandardAdapters;
+import com.winterwell.utils.containers.ArrayMap;
+
+public class IndexRequestTest extends ESTest {
+
+	@Test
+	public void testBodyGsonIsShared() {
+		ESHttpClient esc = getESJC();
+		IndexRequest a = esc.prepareIndex("foo", "a");
+		IndexRequest b = esc.prepareIndex("foo", "b");
+		a.setBodyMap(new ArrayMap("q", ESQueryBuilders.termQuery("k", "v")));
+		b.setBodyMap(new ArrayMap("q", ESQueryBuilders.termQuery("k", "v")));
+		assert a.getBodyJson().equals(b.getBodyJson());
+		// the query builder goes out as its json, not its fields
+		assert a.getBodyJson().contains("\"term\"") : a.getBodyJson();
+		assert esc.getBodyGson() == esc.getBodyGson();
+	}
+
+	@Test
+	public void testRegisterBodyTypeAdapter() {
+		ESHttpClient esc = new ESHttpClient(getESJC().getConfig());
+		Gson before = esc.getBodyGson();
+		esc.registerBodyTypeAdapter(MyQuery.class, StandardAdapters.IHASJSONADAPTER);
+		assert esc.getBodyGson() != before;
+		IndexRequest a = esc.prepareIndex("foo", "a");
+		a.setBodyMap(new ArrayMap("q", new MyQuery()));
+		assert a.getBodyJson().contains("\"mine\"") : a.getBodyJson();
+		esc.close();
+	}
+
+	public static class MyQuery implements com.winterwell.utils.web.IHasJson {
+		String hidden = "not this";
+		@Override
+		public Object toJson2() {
+			return new ArrayMap("mine", true);
+		}
+	}
+
+	@Test
+	public void testBodyJsonMadeOnce() {
+		ESHttpClient esc = getESJC();
+		IndexRequest ir = esc.prepareIndex("foo", "bar");
+		ir.setBodyMap(new ArrayMap("name", "Alice", "n", 42));
+		String json = ir.getBodyJson();
+		assert json.equals("{\"name\":\"Alice\",\"n\":42}") : json;
+		// cached, not re-serialised
+		assert ir.getBodyJson() == json;
+	}
+}
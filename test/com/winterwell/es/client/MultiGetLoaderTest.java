@@ -0,0 +1,98 @@
+package com.winterwell.es.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import com.winterwell.es.ESPath;
+import com.winterwell.es.ESTest;
+import com.winterwell.utils.Utils;
+import com.winterwell.utils.containers.ArrayMap;
+
+public class MultiGetLoaderTest extends ESTest {
+
+	@Test
+	public void testLoadBatch() {
+		ESHttpClient esjc = getESJC();
+		String idx = "test_mgl_"+Utils.getRandomString(3).toLowerCase();
+		for(int i=0; i<5; i++) {
+			IndexRequest irb = esjc.prepareIndex(idx, "doc"+i);
+			irb.setBodyDoc(new ArrayMap("n", "v"+i));
+			irb.setRefresh(KRefresh.TRUE);
+			irb.get().check();
+		}
+		MultiGetLoader loader = new MultiGetLoader(esjc, 20, 100);
+		List<CompletableFuture<Map<String, Object>>> futures = new ArrayList();
+		for(int i=0; i<5; i++) {
+			futures.add(loader.load(new ESPath(idx, "doc"+i)));
+		}
+		// repeats and misses
+		CompletableFuture<Map<String, Object>> again = loader.load(new ESPath(idx, "doc2"));
+		CompletableFuture<Map<String, Object>> missing = loader.load(new ESPath(idx, "nosuchdoc"));
+		CompletableFuture<Map<String, Object>> noIndex = loader.load(new ESPath(idx+"_nosuchindex", "doc1"));
+		for(int i=0; i<5; i++) {
+			Map<String, Object> doc = futures.get(i).join();
+			assert ("v"+i).equals(doc.get("n")) : doc;
+		}
+		assert "v2".equals(again.join().get("n"));
+		assert again.join() != futures.get(2).join() : "each caller gets their own copy";
+		assert missing.join() == null;
+		assert noIndex.join() == null;
+		loader.close();
+	}
+
+	@Test
+	public void testMaxBatch() {
+		ESHttpClient esjc = getESJC();
+		String idx = "test_mgl_"+Utils.getRandomString(3).toLowerCase();
+		IndexRequest irb = esjc.prepareIndex(idx, "doc1");
+		irb.setBodyDoc(new ArrayMap("n", "v1"));
+		irb.setRefresh(KRefresh.TRUE);
+		irb.get().check();
+		// a long window -- but the batch is full, so it goes at once
+		MultiGetLoader loader = new MultiGetLoader(esjc, 60000, 2);
+		CompletableFuture<Map<String, Object>> a = loader.load(new ESPath(idx, "doc1"));
+		CompletableFuture<Map<String, Object>> b = loader.load(new ESPath(idx, "doc2"));
+		assert a.join().get("n").equals("v1");
+		assert b.join() == null;
+		loader.close();
+	}
+
+	@Test
+	public void testWithDocCache() {
+		ESConfig config = new ESConfig();
+		config.esUrl = getESJC().getConfig().esUrl;
+		config.esGetBatchWindow = 5;
+		config.esDocCacheSize = 100;
+		ESHttpClient esjc = new ESHttpClient(config);
+		String idx = "test_mgl_"+Utils.getRandomString(3).toLowerCase();
+		IndexRequest irb = esjc.prepareIndex(idx, "doc1");
+		irb.setBodyDoc(new ArrayMap("n", "v1"));
+		irb.setRefresh(KRefresh.TRUE);
+		irb.get().check();
+
+		// the _mget fills the cache
+		assert "v1".equals(esjc.get(idx, null, "doc1").get("n"));
+		assert esjc.get(idx, null, "nosuchdoc") == null;
+		assert esjc.getDocCache().getStats().get("size").equals(2L);
+		// ...which answers the next gets, batched or not
+		assert "v1".equals(esjc.get(idx, null, "doc1").get("n"));
+		assert esjc.get(idx, null, "nosuchdoc") == null;
+		assert "v1".equals(new GetRequest(esjc).setIndex(idx).setId("doc1").get().getSourceAsMap().get("n"));
+		// the caller's to edit (as with an unbatched get)
+		esjc.get(idx, null, "doc1").put("n", "edited");
+		Map<String, Object> stats = esjc.getDocCache().getStats();
+		assert ((Long) stats.get("hits")) == 3 : stats;
+		assert ((Long) stats.get("negativeHits")) == 1 : stats;
+
+		// a write invalidates
+		IndexRequest irb2 = esjc.prepareIndex(idx, "doc1");
+		irb2.setBodyDoc(new ArrayMap("n", "v2"));
+		irb2.get().check();
+		assert "v2".equals(esjc.get(idx, null, "doc1").get("n"));
+		esjc.close();
+	}
+}
@@ -0,0 +1,79 @@
+package com.winterwell.es.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.winterwell.es.ESTest;
+import com.winterwell.es.client.query.ESQueryBuilders;
+import com.winterwell.utils.Dep;
+
+public class MultiSearchRequestTest extends ESTest {
+
+	@BeforeClass
+	public static void beforeClassInit() {
+		BulkRequestBuilderTest brbt = new BulkRequestBuilderTest();
+		brbt.testBulkIndexMany2();
+	}
+
+	@Test
+	public void testBodyFormat() {
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		MultiSearchRequest msr = new MultiSearchRequest(esc);
+		SearchRequest s1 = esc.prepareSearch("foo");
+		s1.setSize(3);
+		s1.setQuery(ESQueryBuilders.termQuery("name", "x"));
+		msr.add(s1);
+		msr.add(esc.prepareSearch("bar"));
+		String[] lines = msr.getBodyJson().split("\n");
+		assert lines.length == 4 : msr.getBodyJson();
+		assert lines[0].equals("{\"index\":\"foo\"}") : lines[0];
+		assert lines[1].startsWith("{\"size\":3,\"query\":") : lines[1];
+		assert lines[2].equals("{\"index\":\"bar\"}") : lines[2];
+		assert lines[3].equals("{}") : lines[3];
+	}
+
+	@Test
+	public void testMultiSearch() {
+		String index = BulkRequestBuilderTest.INDEX;
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		MultiSearchRequest msr = new MultiSearchRequest(esc);
+		for(int i=1; i<4; i++) {
+			SearchRequest s = esc.prepareSearch(index);
+			s.setSize(i);
+			msr.add(s);
+		}
+		msr.add(esc.prepareSearch("nosuchindex_msearch"));
+		MultiSearchResponse mr = msr.get();
+		mr.check();
+		List<SearchResponse> rs = mr.getResponses();
+		assert rs.size() == 4;
+		for(int i=0; i<3; i++) {
+			assert rs.get(i).getHits().size() == i+1 : rs.get(i);
+		}
+		// one bad search does not spoil the others
+		assert ! rs.get(3).isSuccess();
+	}
+
+	@Test
+	public void testCoalescer() {
+		String index = BulkRequestBuilderTest.INDEX;
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		SearchCoalescer coalescer = new SearchCoalescer(esc, 20, 5);
+		List<CompletableFuture<ESHttpResponse>> futures = new ArrayList();
+		for(int i=0; i<12; i++) {
+			SearchRequest s = esc.prepareSearch(index);
+			s.setSize(2);
+			futures.add(coalescer.submit(s));
+		}
+		coalescer.close();
+		for (CompletableFuture<ESHttpResponse> f : futures) {
+			SearchResponse sr = f.join();
+			sr.check();
+			assert sr.getHits().size() == 2;
+		}
+	}
+}
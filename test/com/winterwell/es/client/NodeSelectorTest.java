@@ -0,0 +1,127 @@
+package com.winterwell.es.client;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.winterwell.es.client.NodeSelector.Node;
+import com.winterwell.web.WebEx;
+
+public class NodeSelectorTest {
+
+	static final List<String> SERVERS = Arrays.asList("http://es1:9200", "http://es2:9200", "http://es3:9200");
+
+	@Test
+	public void testAvoidsSlowNode() {
+		NodeSelector ns = new NodeSelector();
+		// es1 is slow
+		for(int i=0; i<20; i++) {
+			for(String s : SERVERS) {
+				Node n = ns.node(s);
+				ns.start(n);
+				ns.success(n, s.contains("es1")? 2000 : 10);
+			}
+		}
+		int slow = 0;
+		for(int i=0; i<3000; i++) {
+			Node n = ns.select(SERVERS, null);
+			if (n.getServer().contains("es1")) slow++;
+		}
+		// p2c: the slow node only wins if it is paired with itself -- which it can't be
+		assert slow == 0 : slow;
+	}
+
+	@Test
+	public void testDeadAndReprobe() throws Exception {
+		NodeSelector ns = new NodeSelector();
+		Node es2 = ns.node("http://es2:9200");
+		ns.start(es2);
+		ns.failure(es2, new RuntimeException(new ConnectException("refused")));
+		assert es2.isDead();
+		for(int i=0; i<100; i++) {
+			assert ns.select(SERVERS, null) != es2;
+		}
+		// due a re-probe
+		es2.deadUntil = System.currentTimeMillis() - 1;
+		Node probe = ns.select(SERVERS, null);
+		assert probe == es2;
+		// only one probe at a time
+		assert ns.select(SERVERS, null) != es2;
+		// the probe fails: back-off doubles
+		ns.start(es2);
+		ns.failure(es2, new ConnectException("refused"));
+		assert es2.isDead();
+		assert es2.deadUntil - System.currentTimeMillis() > NodeSelector.MIN_DEAD_MSECS;
+		// recovers
+		es2.deadUntil = System.currentTimeMillis() - 1;
+		assert ns.select(SERVERS, null) == es2;
+		ns.start(es2);
+		ns.success(es2, 10);
+		assert ! es2.isDead();
+	}
+
+	@Test
+	public void testErrorsMarkDead() {
+		NodeSelector ns = new NodeSelector();
+		Node es3 = ns.node("http://es3:9200");
+		for(int i=0; i<NodeSelector.DEAD_AFTER; i++) {
+			assert ! es3.isDead();
+			ns.start(es3);
+			ns.failure(es3, new RuntimeException("500"));
+		}
+		assert es3.isDead();
+	}
+
+	@Test
+	public void testFailover() {
+		NodeSelector ns = new NodeSelector();
+		for(int i=0; i<100; i++) {
+			Node n = ns.select(SERVERS, Collections.singleton("http://es1:9200"));
+			assert ! n.getServer().contains("es1");
+		}
+		// nothing else? then use it anyway
+		List<String> one = Arrays.asList("http://es1:9200");
+		assert ns.select(one, Collections.singleton("http://es1:9200")).getServer().contains("es1");
+	}
+
+	@Test
+	public void testAllDead() {
+		NodeSelector ns = new NodeSelector();
+		for(String s : SERVERS) {
+			Node n = ns.node(s);
+			ns.start(n);
+			ns.failure(n, new ConnectException());
+		}
+		assert ns.select(SERVERS, null) != null;
+	}
+
+	@Test
+	public void testClientErrorsDontCount() {
+		assert NodeSelector.isNodeFailure(new WebEx.E50X(503, "http://es3:9200", "busy"));
+		assert NodeSelector.isNodeFailure(new RuntimeException(new IOException("reset")));
+		assert ! NodeSelector.isNodeFailure(new IllegalArgumentException("bad body"));
+		assert ! NodeSelector.isNodeFailure(new AssertionError("not json"));
+		NodeSelector ns = new NodeSelector();
+		Node es3 = ns.node("http://es3:9200");
+		for(int i=0; i<2*NodeSelector.DEAD_AFTER; i++) {
+			ns.start(es3);
+			ns.release(es3);
+		}
+		assert ! es3.isDead();
+		assert es3.getErrorRate() == 0;
+		assert es3.getInFlight() == 0;
+	}
+
+	@Test
+	public void testRetain() {
+		NodeSelector ns = new NodeSelector();
+		for(String s : SERVERS) ns.node(s);
+		ns.retain(Arrays.asList("http://es2:9200", "http://es4:9200"));
+		assert ns.getNodes().size() == 1 : ns;
+		assert ns.getNodes().iterator().next().getServer().equals("http://es2:9200");
+	}
+}
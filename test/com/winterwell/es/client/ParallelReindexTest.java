@@ -0,0 +1,79 @@
+package com.winterwell.es.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.winterwell.es.UtilsForESTests;
+import com.winterwell.es.client.admin.CreateIndexRequest;
+import com.winterwell.utils.Dep;
+import com.winterwell.utils.Utils;
+import com.winterwell.utils.containers.ArrayMap;
+import com.winterwell.utils.time.Dt;
+import com.winterwell.utils.time.TUnit;
+
+public class ParallelReindexTest {
+
+	@Test
+	public void testParallelReindex() {
+		UtilsForESTests.init();
+		ESHttpClient es = Dep.get(ESHttpClient.class);
+		String v = Utils.getRandomString(4).toLowerCase();
+		List<String> froms = new ArrayList();
+		for(int i=0; i<3; i++) {
+			String from = "testpr"+i+"_"+v;
+			CreateIndexRequest pi = es.admin().indices().prepareCreate(from);
+			pi.setRefresh(KRefresh.TRUE);
+			pi.get().check();
+			for(int j=0; j<5; j++) {
+				IndexRequest ir = es.prepareIndex(from, "testtype", "doc"+j);
+				ir.setBodyMap(new ArrayMap("msg", "Hello "+j));
+				ir.setRefresh(KRefresh.TRUE);
+				ir.get().check();
+			}
+			froms.add(from);
+		}
+
+		ParallelReindex pr = new ParallelReindex(es).setMaxConcurrent(2).setPollInterval(new Dt(200, TUnit.MILLISECOND));
+		for (String from : froms) {
+			pr.add(from, from+"_v2");
+		}
+		List<Map<String, Object>> responses = pr.start().join();
+		assert responses.size() == 3;
+		for (Map<String, Object> r : responses) {
+			assert ESTask.num(r.get("created")) == 5 : r;
+		}
+		assert pr.getProgress() == 1;
+		assert pr.getRunning().isEmpty();
+
+		GetResponse got = new GetRequest(es).setIndex(froms.get(2)+"_v2").setId("doc3").get();
+		got.check();
+		assert "Hello 3".equals(got.getSourceAsMap().get("msg")) : got.getSourceAsMap();
+	}
+
+	@Test
+	public void testTaskRethrottle() {
+		UtilsForESTests.init();
+		ESHttpClient es = Dep.get(ESHttpClient.class);
+		String from = "testpr_"+Utils.getRandomString(4).toLowerCase();
+		IndexRequest ir = es.prepareIndex(from, "testtype", "doc1");
+		ir.setBodyMap(new ArrayMap("msg", "Hello"));
+		ir.setRefresh(KRefresh.TRUE);
+		ir.get().check();
+
+		ReindexRequest rr = new ReindexRequest(es, from, from+"_v2");
+		rr.setRequestsPerSecond(1);
+		ESTask task = rr.startTask().join();
+		assert task.getTaskId() != null;
+		try {
+			task.rethrottle(-1);
+		} catch(Exception ex) {
+			// it may have finished already
+		}
+		Map<String, Object> done = task.whenDone(new Dt(100, TUnit.MILLISECOND)).join();
+		assert task.isCompleted();
+		assert ESTask.num(done.get("created")) == 1 : done;
+	}
+}
@@ -0,0 +1,65 @@
+package com.winterwell.es.client;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.winterwell.es.ESTest;
+import com.winterwell.utils.Dep;
+
+public class PointInTimeSearchTest extends ESTest {
+
+	@BeforeClass
+	public static void beforeClassInit() {
+		BulkRequestBuilderTest brbt = new BulkRequestBuilderTest();
+		brbt.testBulkIndexMany2();
+	}
+
+	@Test
+	public void testAllHitsOnce() {
+		String index = BulkRequestBuilderTest.INDEX;
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		SearchResponse sr = esc.prepareSearch(index).setSize(0).get();
+		long total = sr.getTotal();
+		assert total > 10 : total;
+
+		Set<String> ids = new HashSet();
+		try (PointInTimeSearch<Map> pit = esc.prepareSearch(index).pointInTime(Map.class)) {
+			pit.setBatchSize(7);
+			for (ESHit<Map> hit : pit) {
+				boolean isNew = ids.add(hit.getId());
+				assert isNew : hit.getId();
+			}
+		}
+		assert ids.size() == total : ids.size()+" vs "+total;
+	}
+
+	@Test
+	public void testMaxHitsNoPrefetch() {
+		String index = BulkRequestBuilderTest.INDEX;
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		try (PointInTimeSearch<Map> pit = esc.prepareSearch(index).pointInTime(Map.class)) {
+			pit.setBatchSize(3).setMaxHits(5).setPrefetch(false);
+			List<ESHit<Map>> hits = new java.util.ArrayList();
+			pit.forEach(hits::add);
+			assert hits.size() == 5 : hits.size();
+		}
+	}
+
+	@Test
+	public void testStreamEarlyClose() {
+		String index = BulkRequestBuilderTest.INDEX;
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		PointInTimeSearch<Map> pit = esc.prepareSearch(index).pointInTime(Map.class).setBatchSize(2);
+		long n;
+		try (java.util.stream.Stream<ESHit<Map>> stream = pit.stream()) {
+			n = stream.limit(3).count();
+		}
+		assert n == 3;
+		pit.close(); // repeat is harmless
+	}
+}
@@ -0,0 +1,47 @@
+package com.winterwell.es.client;
+
+import org.junit.Test;
+
+import com.winterwell.es.ESTest;
+import com.winterwell.utils.Dep;
+import com.winterwell.utils.Utils;
+import com.winterwell.web.WebEx;
+
+public class PooledHttpTransportTest extends ESTest {
+
+	@Test
+	public void testSendGet() {
+		ESConfig config = Dep.get(ESConfig.class);
+		PooledHttpTransport pht = new PooledHttpTransport(config);
+		String json = pht.send("GET", config.getESUrl(), null);
+		assert json.contains("version") : json;
+		// and again, on the kept-alive connection
+		String json2 = pht.send(null, config.getESUrl(), null);
+		assert json2.contains("version") : json2;
+		pht.close();
+	}
+
+	@Test
+	public void testSend404() {
+		ESConfig config = Dep.get(ESConfig.class);
+		PooledHttpTransport pht = new PooledHttpTransport(config);
+		try {
+			pht.send("GET", config.getESUrl()+"/nosuchindex_"+Utils.getRandomString(6)+"/_doc/foo", null);
+			assert false;
+		} catch(WebEx.E404 ex) {
+			// as expected
+			assert ex.getMessage().contains("index_not_found_exception") : ex;
+		}
+		pht.close();
+	}
+
+	@Test
+	public void testSameVersionBothTransports() {
+		ESHttpClient esjc = new ESHttpClient(Dep.get(ESConfig.class));
+		String v = esjc.getESVersion();
+		esjc.setTransport(new FakeBrowserTransport(esjc.getConfig()));
+		String v2 = esjc.getESVersion();
+		assert v.equals(v2) : v+" vs "+v2;
+		esjc.close();
+	}
+}
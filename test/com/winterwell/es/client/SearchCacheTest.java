@@ -0,0 +1,100 @@
+package com.winterwell.es.client;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.winterwell.es.ESTest;
+import com.winterwell.utils.Utils;
+import com.winterwell.utils.containers.ArrayMap;
+import com.winterwell.utils.time.Dt;
+import com.winterwell.utils.time.TUnit;
+
+public class SearchCacheTest extends ESTest {
+
+	private ESHttpClient cachingClient() {
+		ESConfig config = new ESConfig();
+		config.esUrl = getESJC().getConfig().esUrl;
+		config.esSearchCacheMaxBytes = 1000000;
+		return new ESHttpClient(config);
+	}
+
+	private static SearchResponse search(ESHttpClient esjc, String idx, Dt ttl) {
+		SearchRequest s = esjc.prepareSearch(idx);
+		s.setSize(10);
+		if (ttl != null) s.setCacheTtl(ttl);
+		return s.get();
+	}
+
+	@Test
+	public void testHitAndInvalidate() {
+		ESHttpClient esjc = cachingClient();
+		String idx = "test_sc_"+Utils.getRandomString(3).toLowerCase();
+		IndexRequest irb = esjc.prepareIndex(idx, "doc1");
+		irb.setBodyDoc(new ArrayMap("n", "v1"));
+		irb.setRefresh(KRefresh.TRUE);
+		irb.get().check();
+		Dt ttl = new Dt(1, TUnit.MINUTE);
+
+		assert search(esjc, idx, ttl).getTotal() == 1;
+		assert search(esjc, idx, ttl).getTotal() == 1;
+		Map<String, Object> stats = esjc.getSearchCache().getStats();
+		assert ((Long) stats.get("hits")) == 1 : stats;
+
+		// not opted in: not cached
+		search(esjc, idx, null);
+		assert ((Long) esjc.getSearchCache().getStats().get("hits")) == 1;
+
+		// a write through this client is seen at once
+		IndexRequest irb2 = esjc.prepareIndex(idx, "doc2");
+		irb2.setBodyDoc(new ArrayMap("n", "v2"));
+		irb2.setRefresh(KRefresh.TRUE);
+		irb2.get().check();
+		assert search(esjc, idx, ttl).getTotal() == 2;
+		esjc.close();
+	}
+
+	@Test
+	public void testTtl() {
+		ESHttpClient esjc = cachingClient();
+		String idx = "test_sc_"+Utils.getRandomString(3).toLowerCase();
+		IndexRequest irb = esjc.prepareIndex(idx, "doc1");
+		irb.setBodyDoc(new ArrayMap("n", "v1"));
+		irb.setRefresh(KRefresh.TRUE);
+		irb.get().check();
+		Dt ttl = new Dt(20, TUnit.MILLISECOND);
+		search(esjc, idx, ttl);
+		Utils.sleep(50);
+		search(esjc, idx, ttl);
+		assert ((Long) esjc.getSearchCache().getStats().get("hits")) == 0;
+		assert ((Long) esjc.getSearchCache().getStats().get("misses")) == 2;
+		esjc.close();
+	}
+
+	@Test
+	public void testKeyIgnoresParamOrder() {
+		ESHttpClient esjc = cachingClient();
+		SearchCache cache = esjc.getSearchCache();
+		SearchRequest a = esjc.prepareSearch("foo").setSize(3).setFrom(1).setCacheTtl(new Dt(1, TUnit.MINUTE));
+		SearchRequest b = esjc.prepareSearch("foo").setFrom(1).setSize(3).setCacheTtl(new Dt(1, TUnit.MINUTE));
+		assert cache.lookup(a).key.equals(cache.lookup(b).key);
+		SearchRequest c = esjc.prepareSearch("bar").setFrom(1).setSize(3).setCacheTtl(new Dt(1, TUnit.MINUTE));
+		assert ! cache.lookup(a).key.equals(cache.lookup(c).key);
+		esjc.close();
+	}
+
+	@Test
+	public void testDeleteIndexInvalidates() {
+		ESHttpClient esjc = cachingClient();
+		String idx = "test_sc_"+Utils.getRandomString(3).toLowerCase();
+		IndexRequest irb = esjc.prepareIndex(idx, "doc1");
+		irb.setBodyDoc(new ArrayMap("n", "v1"));
+		irb.setRefresh(KRefresh.TRUE);
+		irb.get().check();
+		assert search(esjc, idx, new Dt(1, TUnit.MINUTE)).getTotal() == 1;
+
+		esjc.admin().indices().prepareDelete(idx).get().check();
+		assert ((Long) esjc.getSearchCache().getStats().get("size")) == 0;
+		esjc.close();
+	}
+}
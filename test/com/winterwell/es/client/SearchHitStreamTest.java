@@ -0,0 +1,85 @@
+package com.winterwell.es.client;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.winterwell.es.ESTest;
+import com.winterwell.gson.Gson;
+import com.winterwell.utils.Dep;
+
+public class SearchHitStreamTest extends ESTest {
+
+	@BeforeClass
+	public static void beforeClassInit() {
+		BulkRequestBuilderTest brbt = new BulkRequestBuilderTest();
+		brbt.testBulkIndexMany2();
+	}
+
+	public static class Doc {
+		String name;
+		int n;
+	}
+
+	static final String JSON = "{\"_scroll_id\":\"abc\",\"took\":3,\"hits\":{\"total\":{\"value\":2,\"relation\":\"eq\"},\"max_score\":1.0,\"hits\":["
+			+"{\"_index\":\"i\",\"_id\":\"1\",\"_score\":1.0,\"_source\":{\"name\":\"a\",\"n\":1},\"sort\":[5,\"x\"]},"
+			+"{\"_index\":\"i\",\"_id\":\"2\",\"_source\":{\"name\":\"b\",\"n\":2,\"extra\":[1,{}]}}"
+			+"]},\"aggregations\":{\"x\":{\"value\":3}}}";
+
+	@Test
+	public void testParsePojos() {
+		SearchHitStream<Doc> hits = new SearchHitStream<>(
+				new ByteArrayInputStream(JSON.getBytes(StandardCharsets.UTF_8)), new Gson(), Doc.class);
+		assert hits.getTotal() == 2;
+		assert hits.getScrollId().equals("abc");
+		List<ESHit<Doc>> list = new ArrayList<>();
+		hits.forEach(list::add);
+		assert list.size() == 2;
+		assert list.get(0).getId().equals("1");
+		assert list.get(0).getJThing().java().name.equals("a");
+		assert list.get(0).getSort().size() == 2;
+		assert list.get(1).getJThing().java().n == 2;
+		// aggregations come after the hits
+		Map aggs = hits.getAggregations();
+		assert aggs.containsKey("x") : aggs;
+	}
+
+	@Test
+	public void testParseNoHits() {
+		String json = "{\"hits\":{\"total\":7,\"hits\":[]},\"aggregations\":{}}";
+		SearchHitStream<Map> hits = new SearchHitStream<>(
+				new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), new Gson(), Map.class);
+		assert ! hits.hasNext();
+		assert hits.getTotal() == 7;
+	}
+
+	@Test
+	public void testStreamMatchesGet() {
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		SearchRequest s = esc.prepareSearch(BulkRequestBuilderTest.INDEX).setSize(50);
+		List<Map<String, Object>> got = s.get().getSearchResults();
+
+		SearchRequest s2 = esc.prepareSearch(BulkRequestBuilderTest.INDEX).setSize(50);
+		List<Map> streamed = new ArrayList<>();
+		int n = s2.forEachHit(Map.class, hit -> streamed.add(hit.getSource()));
+		assert n == got.size() : n+" vs "+got.size();
+		assert streamed.equals(got);
+	}
+
+	@Test
+	public void testStreamCloseEarly() {
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		// more than the connection limit, so a leaked connection would hang this
+		for(int i=0; i<esc.getConfig().esMaxConnectionsPerServer + 5; i++) {
+			try (SearchHitStream<Map> hits = esc.prepareSearch(BulkRequestBuilderTest.INDEX).setSize(50).stream(Map.class)) {
+				assert hits.hasNext();
+				hits.next();
+			}
+		}
+	}
+}
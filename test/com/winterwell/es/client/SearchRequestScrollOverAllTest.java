@@ -1,5 +1,6 @@
 package com.winterwell.es.client;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -34,4 +35,39 @@ public class SearchRequestScrollOverAllTest extends ESTest {
 		assert out.equals("6 6 4 10") : out;
 	}
 
+	@Test
+	public void testTypedHitsNoPrefetch() {
+		BulkRequestBuilderTest brbt = new BulkRequestBuilderTest();
+		brbt.testBulkIndexMany2();
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		SearchRequest s = esc.prepareSearch(BulkRequestBuilderTest.INDEX);
+		s.setSize(4);
+		try (SearchRequestScrollOverAll scroller = new SearchRequestScrollOverAll(esc, s, TUnit.MINUTE.dt)) {
+			scroller.setPrefetch(false);
+			scroller.setSize(7);
+			Iterator<ESHit<Map>> hits = scroller.hits(Map.class);
+			int n = 0;
+			while(hits.hasNext()) {
+				ESHit<Map> hit = hits.next();
+				assert hit.getId() != null;
+				n++;
+			}
+			assert n == 7 : n;
+		}
+	}
+
+	@Test
+	public void testEarlyClose() {
+		BulkRequestBuilderTest brbt = new BulkRequestBuilderTest();
+		brbt.testBulkIndexMany2();
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		SearchRequest s = esc.prepareSearch(BulkRequestBuilderTest.INDEX);
+		s.setSize(2);
+		SearchRequestScrollOverAll scroller = new SearchRequestScrollOverAll(esc, s, TUnit.MINUTE.dt);
+		Iterator<List<Map>> pages = scroller.iterator();
+		assert pages.next().size() == 2;
+		scroller.close(); // clears the scroll, and the in-flight next page
+		assert ! pages.hasNext();
+	}
+
 }
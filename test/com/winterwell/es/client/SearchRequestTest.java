@@ -1,8 +1,10 @@
 package com.winterwell.es.client;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -44,4 +46,30 @@ public class SearchRequestTest extends ESTest  {
 
 	
 
+	@Test
+	public void testExecuteAsyncFanOut() {
+		String index = BulkRequestBuilderTest.INDEX;
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		// many more than the 20 client threads
+		List<CompletableFuture<SearchResponse>> futures = new ArrayList();
+		for(int i=0; i<200; i++) {
+			SearchRequest s = esc.prepareSearch(index);
+			s.setSize(2);
+			futures.add(s.executeAsync());
+		}
+		for (CompletableFuture<SearchResponse> f : futures) {
+			SearchResponse sr = f.join();
+			sr.check();
+			assert sr.getHits().size() == 2;
+		}
+	}
+	
+	@Test
+	public void testExecuteAsyncError() {
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		SearchRequest s = esc.prepareSearch("nosuchindex_async");
+		SearchResponse sr = s.executeAsync().join();
+		assert ! sr.isSuccess();
+	}
+
 }
@@ -51,4 +51,48 @@ public class SearchResponseTest {
 		assert pojo != null;
 		assert h0.getIndex().equals(index);
 	}
+	static String bigResponse(int n) {
+		StringBuilder sb = new StringBuilder("{\"took\":5,\"hits\":{\"total\":{\"value\":"+n+",\"relation\":\"eq\"},\"hits\":[");
+		for(int i=0; i<n; i++) {
+			if (i!=0) sb.append(',');
+			sb.append("{\"_index\":\"foo\",\"_id\":\"id"+i+"\",\"_source\":{\"name\":\"Doc "+i
+					+"\",\"n\":"+i+",\"tags\":[\"a\",\"b\",\"c\"],\"nested\":{\"x\":1.5,\"y\":\"why\"}}}");
+		}
+		sb.append("]},\"aggregations\":{\"n\":{\"value\":"+n+"}}}");
+		return sb.toString();
+	}
+
+	@Test
+	public void testParseOnce() {
+		ESHttpResponse r = new ESHttpResponse(null, bigResponse(10));
+		assert r.getJsonMap() == r.getJsonMap();
+		assert r.getTotal() == 10;
+		List<Map<String, Object>> docs = r.getSearchResults();
+		assert docs.size() == 10;
+		// shared, so read-only
+		try {
+			docs.get(0).put("name", "changed");
+			assert false;
+		} catch(UnsupportedOperationException ex) {
+			// good
+		}
+		assert r.getSearchResults().get(0).get("name").equals("Doc 0");
+	}
+
+	@Test
+	public void testAccessorsShareOneTree() {
+		ESHttpResponse r = new ESHttpResponse(null, bigResponse(3));
+		Map<String, Object> tree = r.getJsonMap();
+		List hitsInTree = (List) ((Map) tree.get("hits")).get("hits");
+		// the same objects, not a second parse
+		assert r.getSearchResults().get(0) == ((Map) hitsInTree.get(0)).get("_source");
+		assert r.getAggregations() == tree.get("aggregations");
+		// ...except the hits, which are the caller's to edit
+		assert r.getHits() != hitsInTree;
+		r.getHits().get(0).put("_score", 2);
+		assert r.getHits().get(0).get("_score").equals(2);
+		assert ! ((Map) hitsInTree.get(0)).containsKey("_score");
+		// one Gson for all responses
+		assert ESHttpResponse.plainGson() == ESHttpResponse.plainGson();
+	}
 }
@@ -0,0 +1,87 @@
+package com.winterwell.es.client;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.winterwell.es.ESTest;
+import com.winterwell.es.client.agg.Aggregations;
+import com.winterwell.es.client.query.ESQueryBuilder;
+import com.winterwell.es.client.query.ESQueryBuilders;
+import com.winterwell.utils.Dep;
+import com.winterwell.utils.containers.ArrayMap;
+
+public class SearchTemplateTest extends ESTest {
+
+	@BeforeClass
+	public static void beforeClassInit() {
+		BulkRequestBuilderTest brbt = new BulkRequestBuilderTest();
+		brbt.testBulkIndexMany2();
+	}
+
+	static ESQueryBuilder terms(String field, Object values) {
+		return new ESQueryBuilder(new ArrayMap("terms", new ArrayMap(field, values)));
+	}
+
+	@Test
+	public void testBindMatchesDirect() {
+		ESHttpClient esc = new ESHttpClient(new ESConfig());
+		SearchRequest s = esc.prepareSearch("foo");
+		s.setQuery(ESQueryBuilders.boolQuery()
+				.must(ESQueryBuilders.termQuery("tenant", SearchTemplate.param("tenant")))
+				.must(terms("tag", SearchTemplate.param("tags"))));
+		s.addAggregation(Aggregations.terms("byTag", "tag"));
+		SearchTemplate t = s.compile();
+		assert t.getParams().equals(Arrays.asList("tenant", "tags")) : t.getParams();
+
+		SearchRequest direct = esc.prepareSearch("foo");
+		direct.setQuery(ESQueryBuilders.boolQuery()
+				.must(ESQueryBuilders.termQuery("tenant", "acme \"inc\""))
+				.must(terms("tag", Arrays.asList("a", "b"))));
+		direct.addAggregation(Aggregations.terms("byTag", "tag"));
+
+		SearchRequest bound = t.bind(new ArrayMap("tenant", "acme \"inc\"", "tags", Arrays.asList("a", "b")));
+		Map a = ESHttpResponse.plainGson().fromJson(bound.getBodyJson(), Map.class);
+		Map b = ESHttpResponse.plainGson().fromJson(direct.getBodyJson(), Map.class);
+		assert a.equals(b) : bound.getBodyJson()+" vs "+direct.getBodyJson();
+		esc.close();
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testMissingParam() {
+		ESHttpClient esc = new ESHttpClient(new ESConfig());
+		SearchRequest s = esc.prepareSearch("foo");
+		s.setQuery(ESQueryBuilders.termQuery("tenant", SearchTemplate.param("tenant")));
+		s.compile().bind(new ArrayMap());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNaNParam() {
+		ESHttpClient esc = new ESHttpClient(new ESConfig());
+		SearchRequest s = esc.prepareSearch("foo");
+		s.setQuery(ESQueryBuilders.termQuery("score", SearchTemplate.param("score")));
+		s.compile().bind(new ArrayMap("score", Double.NaN));
+	}
+
+	@Test
+	public void testRunTemplate() {
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		SearchRequest s = esc.prepareSearch(BulkRequestBuilderTest.INDEX);
+		s.setQuery(terms("_id", SearchTemplate.param("ids")));
+		SearchTemplate t = s.compile();
+		for(int i=0; i<3; i++) {
+			SearchResponse sr = t.bind(new ArrayMap("ids", Arrays.asList("doesnotexist"+i))).setSize(5).get();
+			sr.check();
+			List<Map> hits = sr.getHits();
+			assert hits.isEmpty() : hits;
+		}
+		SearchResponse all = esc.prepareSearch(BulkRequestBuilderTest.INDEX).setSize(3).get();
+		List<Map> hits = all.getHits();
+		String id = (String) hits.get(0).get("_id");
+		SearchResponse sr = t.bind(new ArrayMap("ids", Arrays.asList(id))).get();
+		assert sr.getHits().size() == 1 : sr;
+	}
+}
@@ -0,0 +1,68 @@
+package com.winterwell.es.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import com.winterwell.es.ESTest;
+import com.winterwell.utils.Utils;
+import com.winterwell.utils.containers.ArrayMap;
+
+public class SingleFlightTest extends ESTest {
+
+	@Test
+	public void testSharedCall() {
+		ESHttpClient esjc = getESJC();
+		String idx = "test_sf_"+Utils.getRandomString(3).toLowerCase();
+		IndexRequest irb = esjc.prepareIndex(idx, "doc1");
+		irb.setBodyDoc(new ArrayMap("n", "v1"));
+		irb.setRefresh(KRefresh.TRUE);
+		irb.get().check();
+
+		long calls0 = (Long) esjc.getSingleFlight().getStats().get("calls");
+		List<CompletableFuture<SearchResponse>> fs = new ArrayList<>();
+		for(int i=0; i<10; i++) {
+			SearchRequest s = esjc.prepareSearch(idx).setSize(10);
+			s.setSingleFlight(true);
+			fs.add(s.executeAsync());
+		}
+		for (CompletableFuture<SearchResponse> f : fs) {
+			assert f.join().getTotal() == 1;
+		}
+		Map<String, Object> stats = esjc.getSingleFlight().getStats();
+		long calls = (Long) stats.get("calls") - calls0;
+		// all sent at once, so most should share
+		assert calls < 10 : stats;
+		assert ((Integer) stats.get("inFlight")) == 0 : stats;
+	}
+
+	@Test
+	public void testKey() {
+		ESHttpClient esjc = getESJC();
+		SearchRequest a = esjc.prepareSearch("foo").setSize(3).setFrom(1);
+		SearchRequest b = esjc.prepareSearch("foo").setFrom(1).setSize(3);
+		assert SingleFlight.key(a).equals(SingleFlight.key(b));
+		SearchRequest c = esjc.prepareSearch("foo").setFrom(1).setSize(4);
+		assert ! SingleFlight.key(a).equals(SingleFlight.key(c));
+		GetRequest g = new GetRequest(esjc).setIndex("foo").setId("bar");
+		GetRequest g2 = new GetRequest(esjc).setIndex("foo").setId("bar").setSourceOnly(true);
+		assert ! SingleFlight.key(g).equals(SingleFlight.key(g2));
+	}
+
+	@Test
+	public void testOnByType() {
+		ESConfig config = new ESConfig();
+		config.esSingleFlightTypes = "GetRequest";
+		SingleFlight sf = new SingleFlight(config);
+		ESHttpClient esjc = getESJC();
+		GetRequest g = new GetRequest(esjc).setIndex("foo").setId("bar");
+		assert sf.isOn(g);
+		assert ! sf.isOn(g.setSingleFlight(false));
+		assert ! sf.isOn(esjc.prepareSearch("foo"));
+		sf.enable(SearchRequest.class);
+		assert sf.isOn(esjc.prepareSearch("foo"));
+	}
+}
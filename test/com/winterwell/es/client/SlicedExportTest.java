@@ -0,0 +1,102 @@
+package com.winterwell.es.client;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.winterwell.es.ESTest;
+import com.winterwell.utils.Dep;
+import com.winterwell.utils.containers.ArrayMap;
+
+public class SlicedExportTest extends ESTest {
+
+	@BeforeClass
+	public static void beforeClassInit() {
+		BulkRequestBuilderTest brbt = new BulkRequestBuilderTest();
+		brbt.testBulkIndexMany2();
+	}
+
+	@Test
+	public void testRunAllHitsOnce() {
+		String index = BulkRequestBuilderTest.INDEX;
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		Set<String> ids = ConcurrentHashMap.newKeySet();
+		AtomicLong lastProgress = new AtomicLong();
+		SlicedExport<Map> export = esc.prepareSearch(index).slicedExport(Map.class)
+				.setSlices(3).setBatchSize(4)
+				.setProgressListener((n, total) -> lastProgress.accumulateAndGet(n, Math::max));
+		long n = export.run(hit -> {
+			boolean isNew = ids.add(hit.getId());
+			assert isNew : hit.getId();
+		});
+		assert n == export.getTotal() : n+" vs "+export.getTotal();
+		assert ids.size() == n;
+		assert lastProgress.get() == n;
+	}
+
+	@Test
+	public void testStream() {
+		String index = BulkRequestBuilderTest.INDEX;
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		SlicedExport<Map> export = esc.prepareSearch(index).slicedExport(Map.class).setSlices(2).setBatchSize(5);
+		Set<String> ids;
+		try (Stream<ESHit<Map>> stream = export.stream()) {
+			ids = stream.map(ESHit::getId).collect(Collectors.toSet());
+		}
+		assert ids.size() == export.getTotal() : ids.size()+" vs "+export.getTotal();
+	}
+
+	@Test
+	public void testStreamEarlyClose() {
+		String index = BulkRequestBuilderTest.INDEX;
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		SlicedExport<Map> export = esc.prepareSearch(index).slicedExport(Map.class).setSlices(2).setBatchSize(1);
+		try (Stream<ESHit<Map>> stream = export.stream()) {
+			assert stream.limit(2).count() == 2;
+		}
+	}
+
+	@Test
+	public void testStreamSliceFails() {
+		String index = BulkRequestBuilderTest.INDEX;
+		ESHttpClient esc = Dep.get(ESHttpClient.class);
+		SearchRequest search = esc.prepareSearch(index);
+		// the count (which drops the sort) works, but the slices' script sort fails
+		search.body().put("sort", Arrays.asList(new ArrayMap("_script", new ArrayMap(
+				"type", "number",
+				"script", new ArrayMap("source", "doc['no_such_field_xyz'].value")
+				))));
+		SlicedExport<Map> export = search.slicedExport(Map.class).setSlices(2).setBatchSize(5);
+		try (Stream<ESHit<Map>> stream = export.stream()) {
+			stream.count();
+			assert false : "should have thrown";
+		} catch(RuntimeException ex) {
+			// good
+		}
+	}
+
+	@Test
+	public void testStreamWithSmallClientPool() {
+		String index = BulkRequestBuilderTest.INDEX;
+		ESConfig config = new ESConfig();
+		config.esUrl = Dep.get(ESHttpClient.class).getConfig().esUrl;
+		config.esThreads = 1;
+		config.esThreadQueueSize = 1;
+		ESHttpClient esc = new ESHttpClient(config);
+		// more slices than the client has threads: the slices must not run inline in stream()
+		SlicedExport<Map> export = esc.prepareSearch(index).slicedExport(Map.class).setSlices(4).setBatchSize(1);
+		long n;
+		try (Stream<ESHit<Map>> stream = export.stream()) {
+			n = stream.count();
+		}
+		assert n == export.getTotal() : n+" vs "+export.getTotal();
+		esc.close();
+	}
+}
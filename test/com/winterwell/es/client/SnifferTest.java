@@ -0,0 +1,45 @@
+package com.winterwell.es.client;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.winterwell.es.ESTest;
+import com.winterwell.utils.Dep;
+
+public class SnifferTest extends ESTest {
+
+	@Test
+	public void testParsePublishAddress() {
+		assert Sniffer.parsePublishAddress("10.0.0.1:9200").equals("10.0.0.1:9200");
+		assert Sniffer.parsePublishAddress("es1.example.com/10.0.0.1:9200").equals("es1.example.com:9200");
+		assert Sniffer.parsePublishAddress("/10.0.0.1:9200").equals("10.0.0.1:9200");
+		assert Sniffer.parsePublishAddress("inet[/10.0.0.1:9200]").equals("10.0.0.1:9200");
+	}
+
+	@Test
+	public void testParseNodes() {
+		String json = "{\"_nodes\":{\"total\":3},\"cluster_name\":\"test\",\"nodes\":{"
+				+ "\"a1\":{\"name\":\"es2\",\"http\":{\"publish_address\":\"10.0.0.2:9200\"}},"
+				+ "\"b2\":{\"name\":\"es1\",\"http\":{\"publish_address\":\"10.0.0.1:9200\"}},"
+				+ "\"c3\":{\"name\":\"no-http\"}"
+				+ "}}";
+		List<String> servers = Sniffer.parseNodes("https", json);
+		assert servers.equals(Arrays.asList("https://10.0.0.1:9200", "https://10.0.0.2:9200")) : servers;
+	}
+
+	@Test
+	public void testSniff() {
+		ESConfig config = Dep.get(ESConfig.class);
+		ESHttpClient esc = new ESHttpClient(config);
+		Sniffer sniffer = new Sniffer(esc);
+		List<String> servers = sniffer.sniff();
+		assert ! servers.isEmpty();
+		assert esc.getServers().equals(servers) : esc.getServers();
+		// still works
+		esc.admin().indices().listIndices().get().check();
+		sniffer.close();
+		esc.close();
+	}
+}
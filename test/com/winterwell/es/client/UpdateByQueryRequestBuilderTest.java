@@ -1,5 +1,7 @@
 package com.winterwell.es.client;
 
+import java.util.Map;
+
 import org.junit.Test;
 
 import com.winterwell.es.ESTest;
@@ -9,6 +11,8 @@ import com.winterwell.es.client.query.ESQueryBuilders;
 import com.winterwell.utils.Printer;
 import com.winterwell.utils.Utils;
 import com.winterwell.utils.containers.ArrayMap;
+import com.winterwell.utils.time.Dt;
+import com.winterwell.utils.time.TUnit;
 import com.winterwell.utils.time.Time;
 
 public class UpdateByQueryRequestBuilderTest extends ESTest {
@@ -65,5 +69,26 @@ public class UpdateByQueryRequestBuilderTest extends ESTest {
 //		assert got.get("bar").equals("Mars");
 //		assert got.get("foo").equals("hello");
 	}
+
+	@Test
+	public void testStartTask() {
+		ESHttpClient esjc = getESJC();
+		String idx = "test_ubq_"+Utils.getRandomString(3).toLowerCase();
+		for(int i=0; i<5; i++) {
+			IndexRequest irb = esjc.prepareIndex(idx, "test_id_"+i);
+			irb.setBodyDoc(new ArrayMap("foo", "hello "+i));
+			irb.setRefresh(KRefresh.TRUE);
+			irb.get().check();
+		}
+		UpdateByQueryRequest up = new UpdateByQueryRequest(esjc);
+		up.setIndex(idx);
+		up.setScript("ctx._source.bar=\"done\"");
+		up.setScriptLang("painless");
+		up.setSlices("auto").setConflictsProceed(true).setRequestsPerSecond(100);
+		ESTask task = up.startTask().join();
+		Map<String, Object> done = task.whenDone(new Dt(100, TUnit.MILLISECOND)).join();
+		assert ESTask.num(done.get("updated")) == 5 : done;
+		assert task.getProgress() == 1;
+	}
 	
 }
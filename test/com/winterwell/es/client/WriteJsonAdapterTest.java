@@ -0,0 +1,89 @@
+package com.winterwell.es.client;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.winterwell.es.client.agg.Aggregation;
+import com.winterwell.es.client.agg.Aggregations;
+import com.winterwell.es.client.query.BoolQueryBuilder;
+import com.winterwell.es.client.query.ESQueryBuilders;
+import com.winterwell.es.client.sort.KSortOrder;
+import com.winterwell.es.client.sort.Sort;
+import com.winterwell.gson.Gson;
+import com.winterwell.utils.web.IHasJson;
+
+public class WriteJsonAdapterTest {
+
+	/**
+	 * writeJson() and toJson2() must agree
+	 */
+	private void assertSame(IWriteJson direct, IHasJson viaMaps) {
+		Gson gson = ESHttpResponse.plainGson();
+		String json1 = WriteJsonAdapter.toJson(direct);
+		String json2 = gson.toJson(viaMaps.toJson2());
+		Object a = gson.fromJson(json1, Object.class);
+		Object b = gson.fromJson(json2, Object.class);
+		assert a.equals(b) : json1+" vs "+json2;
+	}
+
+	@Test
+	public void testAggregation() {
+		Aggregation terms = Aggregations.terms("byTag", "tags");
+		terms.setSize(20);
+		terms.subAggregation(Aggregations.stats("price", "price"));
+		Aggregation terms2 = Aggregations.terms("byTag", "tags");
+		terms2.setSize(20);
+		terms2.subAggregation(Aggregations.stats("price", "price"));
+		assertSame(terms, terms2);
+	}
+
+	@Test
+	public void testFilteredAggregation() {
+		Aggregation f = Aggregations.filtered("f", ESQueryBuilders.termQuery("k", "v"), Aggregations.sum("total", "n"));
+		Aggregation f2 = Aggregations.filtered("f", ESQueryBuilders.termQuery("k", "v"), Aggregations.sum("total", "n"));
+		assertSame(f, f2);
+	}
+
+	@Test
+	public void testSort() {
+		assertSame(new Sort("date", KSortOrder.desc).setMissing("_last"), new Sort("date", KSortOrder.desc).setMissing("_last"));
+		assertSame(Sort.scoreSort(), Sort.scoreSort());
+		// null fields are dropped, as Gson does
+		String json = WriteJsonAdapter.toJson(new Sort("date", KSortOrder.desc));
+		assert ! json.contains("missing") : json;
+	}
+
+	@Test
+	public void testAddSortSnapshots() {
+		ESHttpClient esc = new ESHttpClient(new ESConfig());
+		SearchRequest s = esc.prepareSearch("foo");
+		Sort sort = new Sort("date", KSortOrder.desc);
+		s.addSort(sort);
+		sort.setField("other");
+		String json = s.getBodyJson();
+		assert json.contains("date") && ! json.contains("other") : json;
+		esc.close();
+	}
+
+	@Test
+	public void testQuery() {
+		BoolQueryBuilder q = ESQueryBuilders.boolQuery()
+				.must(ESQueryBuilders.termQuery("k", "v"))
+				.mustNot(ESQueryBuilders.termQuery("x", 1));
+		assertSame(q, q);
+	}
+
+	@Test
+	public void testSearchBody() {
+		ESHttpClient esc = new ESHttpClient(new ESConfig());
+		SearchRequest s = esc.prepareSearch("foo");
+		s.addSort(new Sort("date", KSortOrder.desc));
+		s.addAggregation(Aggregations.terms("byTag", "tags"));
+		String json = s.getBodyJson();
+		Map body = ESHttpResponse.plainGson().fromJson(json, Map.class);
+		assert body.get("sort").toString().contains("date") : json;
+		assert ((Map) body.get("aggs")).containsKey("byTag") : json;
+		esc.close();
+	}
+}